@@ -3,6 +3,7 @@ import ca.stellardrift.build.common.configurate
 
 plugins {
     id("pex-component")
+    id("me.champeau.jmh")
 }
 
 useCheckerFramework()
@@ -20,3 +21,8 @@ dependencies {
     api(configurate("core", configurateVersion))
     api("org.slf4j:slf4j-api:$slf4jVersion")
 }
+
+val jmhVersion: String by project
+jmh {
+    this.jmhVersion.set(jmhVersion)
+}
@@ -0,0 +1,131 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare lookups walking the node string directly against lookups that split the node first.
+ *
+ * <p>Trees are shaped like a large server's permission set: a few hundred plugins,
+ * each with a handful of command and feature groups. Queries are a mix of exact
+ * hits, children of defined nodes, and completely undefined nodes, in mixed case.</p>
+ *
+ * <p>Each comparison is run against both the default and {@link NodeTree#compile() compiled} representations.</p>
+ *
+ * <p>Run with {@code ./gradlew :api:jmh}, adding {@code -prof gc} to the JMH arguments to compare allocation rates.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeTreeBenchmark {
+    private static final String[] ACTIONS = {"use", "create", "delete", "list", "info", "admin", "bypass", "others", "reload", "set"};
+    private static final int QUERY_COUNT = 4096;
+
+    @Param({"10000", "100000"})
+    private int nodeCount;
+
+    @Param({"false", "true"})
+    private boolean compiled;
+
+    private NodeTree tree;
+    private String[] queries;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        final Random rand = new Random(42);
+        final Map<String, Integer> values = new HashMap<>();
+        final String[] defined = new String[this.nodeCount];
+        int plugin = 0;
+        while (values.size() < this.nodeCount) {
+            final String pluginName = "plugin" + plugin++;
+            final int groups = 2 + rand.nextInt(8);
+            for (int group = 0; group < groups && values.size() < this.nodeCount; group++) {
+                final String groupName = pluginName + ".feature" + group;
+                final int leaves = 1 + rand.nextInt(10);
+                for (int leaf = 0; leaf < leaves && values.size() < this.nodeCount; leaf++) {
+                    final String node = groupName + '.' + ACTIONS[leaf] + (rand.nextBoolean() ? ".self" : "");
+                    if (values.put(node, rand.nextInt(5) == 0 ? -1 : 1) == null) {
+                        defined[values.size() - 1] = node;
+                    }
+                }
+            }
+        }
+        this.tree = this.compiled ? NodeTree.compiledOf(values, 0) : NodeTree.of(values);
+
+        this.queries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            final String base = defined[rand.nextInt(defined.length)];
+            switch (rand.nextInt(3)) {
+                case 0: // exact
+                    this.queries[i] = base;
+                    break;
+                case 1: // child of a defined node, upper-cased
+                    this.queries[i] = (base + ".extra").toUpperCase(Locale.ROOT);
+                    break;
+                default: // undefined
+                    this.queries[i] = "unknown" + rand.nextInt(1000) + ".command." + ACTIONS[rand.nextInt(ACTIONS.length)];
+            }
+        }
+    }
+
+    private String nextQuery() {
+        final String ret = this.queries[this.index];
+        this.index = (this.index + 1) & (QUERY_COUNT - 1);
+        return ret;
+    }
+
+    @Benchmark
+    public int getWalking() {
+        return this.tree.get(this.nextQuery());
+    }
+
+    @Benchmark
+    public int getSplitting() {
+        return this.tree.getSplit(this.nextQuery());
+    }
+
+    @Benchmark
+    public boolean anyInPrefixWalking() {
+        return this.tree.anyInPrefixMatching(this.nextQuery(), v -> v > 0);
+    }
+
+    @Benchmark
+    public boolean anyInPrefixSplitting() {
+        return this.tree.anyInPrefixMatchingSplit(this.nextQuery(), v -> v > 0);
+    }
+}
@@ -24,9 +24,11 @@ import ca.stellardrift.permissionsex.subject.SubjectType;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.spongepowered.configurate.util.UnmodifiableCollections;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -97,6 +99,30 @@ public interface DataStore {
         return getData(subject.type().name(), subject.serializedIdentifier(), listener);
     }
 
+    /**
+     * Loads the data for several subjects of one type at once.
+     *
+     * <p>Data stores that can fetch many subjects in one round trip should override this.
+     * By default, each subject is loaded on its own. Implementations of this method do not
+     * need to perform any caching.</p>
+     *
+     * @param type The type of subject to get
+     * @param identifiers The identifiers of the subjects to get
+     * @param listeners A function providing the update listener for each subject
+     * @return A future completing with data for every requested identifier
+     * @since 2.0.0
+     */
+    default CompletableFuture<Map<String, ImmutableSubjectData>> getData(final String type, final Collection<String> identifiers, final @Nullable Function<String, Consumer<ImmutableSubjectData>> listeners) {
+        final Map<String, ImmutableSubjectData> result = new ConcurrentHashMap<>();
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[identifiers.size()];
+        int i = 0;
+        for (final String identifier : identifiers) {
+            futures[i++] = this.getData(type, identifier, listeners == null ? null : listeners.apply(identifier))
+                .thenAccept(data -> result.put(identifier, data));
+        }
+        return CompletableFuture.allOf(futures).thenApply(none -> result);
+    }
+
     /**
      * Sets the data at the specified type and identifier.
      *
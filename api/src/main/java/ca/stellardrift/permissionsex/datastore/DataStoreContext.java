@@ -69,6 +69,18 @@ public interface DataStoreContext {
 
     SubjectType<SubjectType<?>> fallbacksType();
 
+    /**
+     * Notify the engine that the set of context keys used in a data store's subject data has changed.
+     *
+     * <p>Data stores call this when a context key first appears in, or is no longer used by, any
+     * of their subjects.</p>
+     *
+     * @param store the data store whose context keys changed
+     * @since 2.0.0
+     */
+    default void contextKeysChanged(final DataStore store) {
+    }
+
     /**
      * Deserialize a subject reference given a type and identifier.
      *
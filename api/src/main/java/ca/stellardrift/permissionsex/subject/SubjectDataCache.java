@@ -19,6 +19,8 @@ package ca.stellardrift.permissionsex.subject;
 import ca.stellardrift.permissionsex.datastore.DataStore;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
@@ -56,6 +58,18 @@ public interface SubjectDataCache<I> {
      */
     CompletableFuture<ImmutableSubjectData> data(final I identifier, final @Nullable Consumer<ImmutableSubjectData> listener);
 
+    /**
+     * Get data for several subjects at once.
+     *
+     * <p>Subjects that are not yet cached are loaded together, so the backing
+     * data store can fetch them in fewer round trips than individual
+     * {@link #data(Object, Consumer)} calls would take.</p>
+     *
+     * @param identifiers The identifiers of the subjects to query
+     * @return A future returning when data for every subject is available
+     */
+    CompletableFuture<Map<I, ImmutableSubjectData>> data(final Collection<? extends I> identifiers);
+
     /**
      * Get a reference to subject data for a given subject. The reference will update as changes are made to the backing
      * data store, and can always be used to query a specific subject's raw data.
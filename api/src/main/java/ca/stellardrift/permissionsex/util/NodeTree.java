@@ -18,12 +18,16 @@ package ca.stellardrift.permissionsex.util;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import static java.util.Objects.requireNonNull;
@@ -43,15 +47,22 @@ public final class NodeTree {
     public static final int PERMISSION_UNDEFINED = 0;
 
     private static final Pattern SPLIT_REGEX = Pattern.compile("\\.");
-    private final Node rootNode;
+    // Exactly one of these is set
+    private final @Nullable Node rootNode;
+    private final @Nullable Compiled compiled;
+    // Only uncompiled trees can hold patterns
+    private final boolean patterns;
 
-    private NodeTree(int value) {
-        this.rootNode = new Node(new HashMap<>());
-        this.rootNode.value = value;
+    private NodeTree(final Node rootNode, final boolean patterns) {
+        this.rootNode = rootNode;
+        this.compiled = null;
+        this.patterns = patterns;
     }
 
-    private NodeTree(Node rootNode) {
-        this.rootNode = rootNode;
+    private NodeTree(final Compiled compiled) {
+        this.rootNode = null;
+        this.compiled = compiled;
+        this.patterns = false;
     }
 
     /**
@@ -74,40 +85,195 @@ public final class NodeTree {
      * @since 2.0.0
      */
     public static NodeTree of(final Map<String, Integer> values, final int defaultValue) {
-        final NodeTree newTree = new NodeTree(defaultValue);
+        return of(values, defaultValue, segment -> null);
+    }
+
+    /**
+     * Create a new node tree with the given values, where some segments of nodes may be patterns.
+     *
+     * <p>Each segment of each node is passed to {@code patterns}. Segments it
+     * returns a matcher for are stored as-is, and will match any segment
+     * accepted by the matcher when the tree is queried, rather than requiring
+     * every match to be stored separately.</p>
+     *
+     * <p>When a query matches more than one node at the same depth, the value
+     * with the greatest magnitude is used. On a tie, the value that comes first
+     * in the iteration order of {@code values} is preferred, so callers merging
+     * values from several sources should order them by precedence.</p>
+     *
+     * <p>Trees holding patterns can not be {@link #compile() compiled}.</p>
+     *
+     * @param values The values to be contained in this node tree
+     * @param defaultValue The fallback value for any completely undefined nodes
+     * @param patterns The function recognizing pattern segments
+     * @return The newly created node tree
+     * @since 2.0.0
+     */
+    public static NodeTree of(final Map<String, Integer> values, final int defaultValue, final PatternCompiler patterns) {
+        requireNonNull(patterns, "patterns");
+        final Node rootNode = new Node();
+        rootNode.value = defaultValue;
+        boolean hasPatterns = false;
+        int rank = 0;
         for (Map.Entry<String, Integer> value : values.entrySet()) {
             final String[] parts = splitPerm(value.getKey());
-            Node currentNode = newTree.rootNode;
+            Node currentNode = rootNode;
             for (String part : parts) {
-                if (currentNode.children.containsKey(part)) {
-                    currentNode = currentNode.children.get(part);
+                final @Nullable Predicate<String> matcher = patterns.compile(part);
+                final @Nullable Node existing = matcher == null ? currentNode.child(part) : currentNode.patternChild(part);
+                if (existing != null) {
+                    currentNode = existing;
                 } else {
                     Node newNode = new Node();
-                    currentNode.putChild(part, newNode);
+                    if (matcher == null) {
+                        currentNode.putChild(part, newNode);
+                    } else {
+                        currentNode.putPatternChild(part, matcher, newNode);
+                        hasPatterns = true;
+                    }
                     currentNode = newNode;
                 }
             }
             currentNode.value = value.getValue();
+            currentNode.rank = rank++;
+        }
+        return new NodeTree(rootNode, hasPatterns);
+    }
+
+    /**
+     * Create a new compiled node tree with the given values, and the specified root fallback value.
+     *
+     * @param values The values to be contained in this node tree
+     * @param defaultValue The fallback value for any completely undefined nodes
+     * @return The newly created node tree
+     * @see #compile()
+     * @since 2.0.0
+     */
+    public static NodeTree compiledOf(final Map<String, Integer> values, final int defaultValue) {
+        return of(values, defaultValue).compile();
+    }
+
+    /**
+     * Get a compiled form of this node tree.
+     *
+     * <p>Compiled trees hold the same values in a flattened set of arrays, with
+     * each node's children sorted for binary search and segment names shared
+     * between trees. This takes less memory and is faster to query than the
+     * default representation, at the expense of more expensive modification.</p>
+     *
+     * <p>Trees that will be queried many times and rarely changed, such as
+     * baked subject data, should be compiled.</p>
+     *
+     * <p>Trees holding pattern segments are not compiled.</p>
+     *
+     * @return a compiled node tree, or this tree if it is already compiled or holds patterns
+     * @since 2.0.0
+     */
+    public NodeTree compile() {
+        if (this.compiled != null || this.patterns) {
+            return this;
+        }
+        return new NodeTree(Compiled.of(this.rootNode()));
+    }
+
+    /**
+     * Get whether this tree is in compiled form.
+     *
+     * @return whether this tree is compiled
+     * @see #compile()
+     * @since 2.0.0
+     */
+    public boolean compiled() {
+        return this.compiled != null;
+    }
+
+    private Node rootNode() {
+        final @Nullable Node rootNode = this.rootNode;
+        if (rootNode != null) {
+            return rootNode;
         }
-        return newTree;
+        return requireNonNull(this.compiled, "compiled").toNode(0);
     }
 
     /**
      * Returns the value assigned to a specific node, or the nearest parent value in the tree if the node itself is undefined.
      *
+     * <p>Lookups walk the tree directly from the characters of {@code node}, so no
+     * intermediate strings are created for nodes made up of ASCII characters.</p>
+     *
      * @param node The path to get the node value at
      * @return The int value for the given node
      * @since 2.0.0
      */
     public int get(final String node) {
+        requireNonNull(node, "node");
+        if (this.patterns) {
+            return this.getMatching(splitPerm(node));
+        }
+        final @Nullable Compiled compiled = this.compiled;
+        if (compiled != null) {
+            return compiled.get(node);
+        }
+        final int length = node.length();
+        Node currentNode = this.rootNode();
+        int lastUndefinedVal = currentNode.value;
+        int start = 0;
+        while (true) {
+            int end = start;
+            int hash = 0;
+            for (; end < length; end++) {
+                final char c = node.charAt(end);
+                if (c == '.') {
+                    break;
+                } else if (c >= 0x80) { // case folding is locale-sensitive, defer to the String implementation
+                    return this.getSplit(node);
+                }
+                hash = 31 * hash + foldAscii(c);
+            }
+
+            final @Nullable Node child = currentNode.childFolded(node, start, end, hash);
+            if (child == null) {
+                break;
+            }
+            currentNode = child;
+            if (Math.abs(currentNode.value) >= Math.abs(lastUndefinedVal)) {
+                lastUndefinedVal = currentNode.value;
+            }
+
+            if (end >= length) {
+                break;
+            }
+            start = end + 1;
+        }
+        return lastUndefinedVal;
+    }
+
+    /**
+     * Look up a node by splitting it into segments up-front.
+     *
+     * <p>This is the fallback for nodes containing non-ASCII characters, and
+     * a baseline for benchmarking {@link #get(String)}.</p>
+     *
+     * @param node the path to get the node value at
+     * @return the int value for the given node
+     */
+    int getSplit(final String node) {
         final String[] parts = splitPerm(node);
-        Node currentNode = this.rootNode;
-        int lastUndefinedVal = this.rootNode.value;
+        if (this.patterns) {
+            return this.getMatching(parts);
+        }
+        final @Nullable Compiled compiled = this.compiled;
+        if (compiled != null) {
+            return compiled.getSplit(parts);
+        }
+        Node currentNode = this.rootNode();
+        int lastUndefinedVal = currentNode.value;
         for (final String part : parts) {
-            if (!currentNode.children.containsKey(part)) {
+            final @Nullable Node child = currentNode.child(part);
+            if (child == null) {
                 break;
             }
-            currentNode = currentNode.children.get(part);
+            currentNode = child;
             if (Math.abs(currentNode.value) >= Math.abs(lastUndefinedVal)) {
                 lastUndefinedVal = currentNode.value;
             }
@@ -115,47 +281,213 @@ public final class NodeTree {
         return lastUndefinedVal;
     }
 
+    /**
+     * Look up a node in a tree holding patterns.
+     *
+     * <p>Every node matching the path so far is followed at once. At each depth,
+     * the strongest value of any matching node is used, with ties going to the
+     * node given first when the tree was created.</p>
+     *
+     * @param parts the segments of the node
+     * @return the int value for the given node
+     */
+    private int getMatching(final String[] parts) {
+        List<Node> frontier = Collections.singletonList(this.rootNode());
+        int lastUndefinedVal = frontier.get(0).value;
+        for (final String part : parts) {
+            frontier = matchingChildren(frontier, part);
+            if (frontier.isEmpty()) {
+                break;
+            }
+            final int value = strongestValue(frontier);
+            if (Math.abs(value) >= Math.abs(lastUndefinedVal)) {
+                lastUndefinedVal = value;
+            }
+        }
+        return lastUndefinedVal;
+    }
+
+    private static List<Node> matchingChildren(final List<Node> parents, final String part) {
+        final List<Node> ret = new ArrayList<>(parents.size());
+        for (final Node parent : parents) {
+            final @Nullable Node literal = parent.child(part);
+            if (literal != null) {
+                ret.add(literal);
+            }
+            for (final PatternChild pattern : parent.patterns) {
+                if (pattern.matcher.test(part)) {
+                    ret.add(pattern.child);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static int strongestValue(final List<Node> nodes) {
+        Node ret = nodes.get(0);
+        for (int i = 1; i < nodes.size(); i++) {
+            final Node node = nodes.get(i);
+            final int magnitude = Math.abs(node.value);
+            if (magnitude > Math.abs(ret.value) || (magnitude == Math.abs(ret.value) && node.rank < ret.rank)) {
+                ret = node;
+            }
+        }
+        return ret.value;
+    }
+
     /**
      * Return whether the node {@code prefix} or any of its children match the predicate {@code test}.
      *
+     * <p>In trees holding patterns, the value of each pattern below the prefix is
+     * tested on its own, even where another node matching the same segments
+     * has a stronger value.</p>
+     *
      * @param prefix the prefix to test
      * @param test the test function
      * @return if any values return true
      */
     public boolean anyInPrefixMatching(final String prefix, final IntPredicate test) {
+        requireNonNull(prefix, "prefix");
+        if (this.patterns) {
+            return this.anyInPrefixMatchingPatterns(splitPerm(prefix), test);
+        }
+        final @Nullable Compiled compiled = this.compiled;
+        if (compiled != null) {
+            return compiled.anyInPrefixMatching(prefix, test);
+        }
+        final int length = prefix.length();
+        Node currentNode = this.rootNode();
+        int lastUndefinedVal = currentNode.value;
+        int start = 0;
+
+        // Resolve prefix
+        while (true) {
+            int end = start;
+            int hash = 0;
+            for (; end < length; end++) {
+                final char c = prefix.charAt(end);
+                if (c == '.') {
+                    break;
+                } else if (c >= 0x80) {
+                    return this.anyInPrefixMatchingSplit(prefix, test);
+                }
+                hash = 31 * hash + foldAscii(c);
+            }
+
+            final @Nullable Node child = currentNode.childFolded(prefix, start, end, hash);
+            if (child == null) {
+                return test.test(lastUndefinedVal);
+            }
+            currentNode = child;
+            if (Math.abs(currentNode.value) >= Math.abs(lastUndefinedVal)) {
+                lastUndefinedVal = currentNode.value;
+            }
+
+            if (end >= length) {
+                break;
+            }
+            start = end + 1;
+        }
+
+        return anyChildMatching(currentNode, lastUndefinedVal, test);
+    }
+
+    /**
+     * Resolve {@code prefix} by splitting it into segments up-front.
+     *
+     * @param prefix the prefix to test
+     * @param test the test function
+     * @return if any values return true
+     * @see #anyInPrefixMatching(String, IntPredicate)
+     */
+    boolean anyInPrefixMatchingSplit(final String prefix, final IntPredicate test) {
         final String[] parts = splitPerm(prefix);
-        Node currentNode = this.rootNode;
-        int lastUndefinedVal = this.rootNode.value;
+        if (this.patterns) {
+            return this.anyInPrefixMatchingPatterns(parts, test);
+        }
+        final @Nullable Compiled compiled = this.compiled;
+        if (compiled != null) {
+            return compiled.anyInPrefixMatchingSplit(parts, test);
+        }
+        Node currentNode = this.rootNode();
+        int lastUndefinedVal = currentNode.value;
 
         // Resolve prefix
         for (final String part : parts) {
-            if (!currentNode.children.containsKey(part)) {
+            final @Nullable Node child = currentNode.child(part);
+            if (child == null) {
                 return test.test(lastUndefinedVal);
             }
-            currentNode = currentNode.children.get(part);
+            currentNode = child;
             if (Math.abs(currentNode.value) >= Math.abs(lastUndefinedVal)) {
                 lastUndefinedVal = currentNode.value;
             }
         }
 
+        return anyChildMatching(currentNode, lastUndefinedVal, test);
+    }
+
+    private boolean anyInPrefixMatchingPatterns(final String[] parts, final IntPredicate test) {
+        List<Node> frontier = Collections.singletonList(this.rootNode());
+        int lastUndefinedVal = frontier.get(0).value;
+
+        // Resolve prefix
+        for (final String part : parts) {
+            frontier = matchingChildren(frontier, part);
+            if (frontier.isEmpty()) {
+                return test.test(lastUndefinedVal);
+            }
+            final int value = strongestValue(frontier);
+            if (Math.abs(value) >= Math.abs(lastUndefinedVal)) {
+                lastUndefinedVal = value;
+            }
+        }
+
+        boolean hasChildren = false;
+        for (final Node node : frontier) {
+            if (node.hasChildren()) {
+                hasChildren = true;
+                if (anyDescendantMatching(node, lastUndefinedVal, test)) {
+                    return true;
+                }
+            }
+        }
         // If there are no children overridden, test on the prefix
-        if (currentNode.children.isEmpty()) {
-            return test.test(lastUndefinedVal);
+        return !hasChildren && test.test(lastUndefinedVal);
+    }
+
+    private static boolean anyChildMatching(final Node prefixNode, final int prefixValue, final IntPredicate test) {
+        // If there are no children overridden, test on the prefix
+        if (!prefixNode.hasChildren()) {
+            return test.test(prefixValue);
         }
 
         // Now visit all children, stopping on first match
-        // search breadth-first
-        final ArrayDeque<Node> toVisit = new ArrayDeque<>(currentNode.children.size() * 2);
-        toVisit.addAll(currentNode.children.values());
+        return anyDescendantMatching(prefixNode, prefixValue, test);
+    }
 
-        @Nullable Node current;
-        while ((current = toVisit.poll()) != null) {
+    private static boolean anyDescendantMatching(final Node parent, final int prefixValue, final IntPredicate test) {
+        final @Nullable Node[] children = parent.children;
+        for (final @Nullable Node child : children) {
+            if (child == null) {
+                continue;
+            }
             // compute the value based on maximum of prefix's value or leaf value
-            if (Math.abs(current.value) >= Math.abs(lastUndefinedVal) && test.test(current.value)) {
+            if (Math.abs(child.value) >= Math.abs(prefixValue) && test.test(child.value)) {
+                return true;
+            }
+            if (child.hasChildren() && anyDescendantMatching(child, prefixValue, test)) {
+                return true;
+            }
+        }
+        for (final PatternChild pattern : parent.patterns) {
+            final Node child = pattern.child;
+            if (Math.abs(child.value) >= Math.abs(prefixValue) && test.test(child.value)) {
+                return true;
+            }
+            if (child.hasChildren() && anyDescendantMatching(child, prefixValue, test)) {
                 return true;
             }
-
-            toVisit.addAll(current.children.values());
         }
         return false;
     }
@@ -168,8 +500,20 @@ public final class NodeTree {
      */
     public Map<String, Integer> asMap() {
         final Map<String, Integer> ret = new HashMap<>();
-        for (final Map.Entry<String, Node> ent : this.rootNode.children.entrySet()) {
-            populateMap(ret, ent.getKey(), ent.getValue());
+        final @Nullable Compiled compiled = this.compiled;
+        if (compiled != null) {
+            compiled.populateMap(ret);
+            return Collections.unmodifiableMap(ret);
+        }
+        final Node root = this.rootNode();
+        for (int i = 0; i < root.keys.length; i++) {
+            final @Nullable String key = root.keys[i];
+            if (key != null) {
+                populateMap(ret, key, root.children[i]);
+            }
+        }
+        for (final PatternChild pattern : root.patterns) {
+            populateMap(ret, pattern.source, pattern.child);
         }
         return Collections.unmodifiableMap(ret);
     }
@@ -178,14 +522,22 @@ public final class NodeTree {
         if (currentNode.value != 0) {
             values.put(prefix, currentNode.value);
         }
-        for (final Map.Entry<String, Node> ent : currentNode.children.entrySet()) {
-            populateMap(values, prefix + '.' + ent.getKey(), ent.getValue());
+        for (int i = 0; i < currentNode.keys.length; i++) {
+            final @Nullable String key = currentNode.keys[i];
+            if (key != null) {
+                populateMap(values, prefix + '.' + key, currentNode.children[i]);
+            }
+        }
+        for (final PatternChild pattern : currentNode.patterns) {
+            populateMap(values, prefix + '.' + pattern.source, pattern.child);
         }
     }
 
     /**
      * Return a new NodeTree instance with a single changed value.
      *
+     * <p>Every segment of {@code node} is treated as a literal, even in trees holding patterns.</p>
+     *
      * @param node The node path to change the value of
      * @param value The value to change, or UNDEFINED to remove
      * @return The new, modified node tree
@@ -193,20 +545,21 @@ public final class NodeTree {
      */
     public NodeTree withValue(final String node, final int value) {
         final String[] parts = splitPerm(node);
-        final Node newRoot = new Node(new HashMap<>(this.rootNode.children));
+        final Node oldRoot = this.rootNode();
+        final Node newRoot = oldRoot.copyChildren();
         Node newPtr = newRoot;
-        @Nullable Node currentPtr = this.rootNode;
+        @Nullable Node currentPtr = oldRoot;
 
         newPtr.value = currentPtr.value;
         for (final String part : parts) {
-            final @Nullable Node oldChild = currentPtr == null ? null : currentPtr.children.get(part);
-            final Node newChild = new Node(oldChild != null ? new HashMap<>(oldChild.children) : new HashMap<>());
-            newPtr.children.put(part, newChild);
+            final @Nullable Node oldChild = currentPtr == null ? null : currentPtr.child(part);
+            final Node newChild = oldChild != null ? oldChild.copyChildren() : new Node();
+            newPtr.putChild(part, newChild);
             currentPtr = oldChild;
             newPtr = newChild;
         }
         newPtr.value = value;
-        return new NodeTree(newRoot);
+        return new NodeTree(newRoot, this.patterns);
     }
 
     /**
@@ -226,7 +579,7 @@ public final class NodeTree {
 
     @Override
     public String toString() {
-        return "NodeTree{" + this.rootNode + "}";
+        return "NodeTree{" + this.rootNode() + "}";
     }
 
     private static String[] splitPerm(final String input) {
@@ -234,31 +587,492 @@ public final class NodeTree {
         return SPLIT_REGEX.split(input.toLowerCase(Locale.ROOT), -1);
     }
 
-    static class Node {
+    /**
+     * Lower-case an ASCII character, matching {@link String#toLowerCase(Locale)} with {@link Locale#ROOT}.
+     *
+     * @param c the character
+     * @return the folded character
+     */
+    static char foldAscii(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
 
-        private static final Map<String, Node> EMPTY = Collections.emptyMap();
+    /**
+     * Test whether the ASCII-folded region {@code [start, end)} of {@code source} is equal to {@code key}.
+     *
+     * @param key the lower-case key
+     * @param source the string holding the path segment
+     * @param start the start index of the segment, inclusive
+     * @param end the end index of the segment, exclusive
+     * @return whether the key and region are equal
+     */
+    static boolean regionEqualsFolded(final String key, final String source, final int start, final int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != foldAscii(source.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        Map<String, Node> children;
+    /**
+     * A single level of the tree.
+     *
+     * <p>Children are held in an open-addressed table keyed by lower-cased
+     * segment, so they can be probed with a region of a longer node
+     * string without first extracting that region.</p>
+     */
+    static final class Node {
+        private static final String[] NO_KEYS = new String[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final PatternChild[] NO_PATTERNS = new PatternChild[0];
+        private static final int MIN_CAPACITY = 4;
+
+        @Nullable String[] keys = NO_KEYS;
+        @Nullable Node[] children = NO_CHILDREN;
+        int size;
+        PatternChild[] patterns = NO_PATTERNS;
         int value = 0;
+        // Position of this node's value in the values the tree was created from, for breaking ties between patterns
+        int rank = 0;
+
+        /**
+         * Create a node with no value and the same children as this node.
+         *
+         * @return the new node
+         */
+        Node copyChildren() {
+            final Node ret = new Node();
+            if (this.size != 0) {
+                ret.keys = this.keys.clone();
+                ret.children = this.children.clone();
+                ret.size = this.size;
+            }
+            ret.patterns = this.patterns; // never modified once the tree is built
+            return ret;
+        }
+
+        boolean hasChildren() {
+            return this.size != 0 || this.patterns.length != 0;
+        }
+
+        @Nullable Node patternChild(final String source) {
+            for (final PatternChild pattern : this.patterns) {
+                if (pattern.source.equals(source)) {
+                    return pattern.child;
+                }
+            }
+            return null;
+        }
+
+        void putPatternChild(final String source, final Predicate<String> matcher, final Node child) {
+            final PatternChild[] patterns = Arrays.copyOf(this.patterns, this.patterns.length + 1);
+            patterns[patterns.length - 1] = new PatternChild(source, matcher, child);
+            this.patterns = patterns;
+        }
 
-        Node(Map<String, Node> children) {
-            this.children = children;
+        @Nullable Node child(final String path) {
+            final @Nullable String[] keys = this.keys;
+            if (this.size == 0) {
+                return null;
+            }
+            final int mask = keys.length - 1;
+            for (int i = spread(path.hashCode()) & mask; ; i = (i + 1) & mask) {
+                final @Nullable String key = keys[i];
+                if (key == null) {
+                    return null;
+                } else if (key.equals(path)) {
+                    return this.children[i];
+                }
+            }
         }
 
-        Node() {
-            this.children = EMPTY;
+        /**
+         * Find the child whose key is the ASCII-folded region {@code [start, end)} of {@code source}.
+         *
+         * @param source the string holding the path segment
+         * @param start the start index of the segment, inclusive
+         * @param end the end index of the segment, exclusive
+         * @param hash the {@link String#hashCode()} of the folded segment
+         * @return the child, if any
+         */
+        @Nullable Node childFolded(final String source, final int start, final int end, final int hash) {
+            final @Nullable String[] keys = this.keys;
+            if (this.size == 0) {
+                return null;
+            }
+            final int mask = keys.length - 1;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                final @Nullable String key = keys[i];
+                if (key == null) {
+                    return null;
+                } else if (regionEqualsFolded(key, source, start, end)) {
+                    return this.children[i];
+                }
+            }
         }
 
         void putChild(final String path, final Node child) {
-            if (this.children == EMPTY) {
-                this.children = new HashMap<>();
+            if ((this.size + 1) * 2 > this.keys.length) {
+                this.resize(Math.max(MIN_CAPACITY, this.keys.length * 2));
+            }
+            if (this.insert(this.keys, this.children, path, child)) {
+                this.size++;
+            }
+        }
+
+        private void resize(final int capacity) {
+            final @Nullable String[] oldKeys = this.keys;
+            final @Nullable Node[] oldChildren = this.children;
+            final @Nullable String[] newKeys = new String[capacity];
+            final @Nullable Node[] newChildren = new Node[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                final @Nullable String key = oldKeys[i];
+                if (key != null) {
+                    this.insert(newKeys, newChildren, key, oldChildren[i]);
+                }
             }
-            this.children.put(path, child);
+            this.keys = newKeys;
+            this.children = newChildren;
+        }
+
+        private boolean insert(final @Nullable String[] keys, final @Nullable Node[] children, final String path, final @Nullable Node child) {
+            final int mask = keys.length - 1;
+            for (int i = spread(path.hashCode()) & mask; ; i = (i + 1) & mask) {
+                final @Nullable String key = keys[i];
+                if (key == null) {
+                    keys[i] = path;
+                    children[i] = child;
+                    return true;
+                } else if (key.equals(path)) {
+                    children[i] = child;
+                    return false;
+                }
+            }
+        }
+
+        private static int spread(final int hash) {
+            return hash ^ (hash >>> 16);
         }
 
         @Override
         public String toString() {
-            return "<value: " + this.value + ", children=" + this.children + ">";
+            final StringBuilder ret = new StringBuilder("<value: ").append(this.value).append(", children={");
+            boolean first = true;
+            for (int i = 0; i < this.keys.length; i++) {
+                final @Nullable String key = this.keys[i];
+                if (key != null) {
+                    if (!first) {
+                        ret.append(", ");
+                    }
+                    first = false;
+                    ret.append(key).append('=').append(this.children[i]);
+                }
+            }
+            for (final PatternChild pattern : this.patterns) {
+                if (!first) {
+                    ret.append(", ");
+                }
+                first = false;
+                ret.append(pattern.source).append('=').append(pattern.child);
+            }
+            return ret.append("}>").toString();
+        }
+    }
+
+    /**
+     * A function recognizing segments of a node that should be matched as patterns.
+     *
+     * @since 2.0.0
+     */
+    @FunctionalInterface
+    public interface PatternCompiler {
+        /**
+         * Get a matcher for a single segment, if it is a pattern.
+         *
+         * @param segment a lower-case segment of a node
+         * @return a predicate accepting lower-case segments matched by the pattern,
+         *     or {@code null} to store the segment literally
+         * @since 2.0.0
+         */
+        @Nullable Predicate<String> compile(String segment);
+    }
+
+    /**
+     * A child of a node reached by any segment matching a pattern.
+     */
+    static final class PatternChild {
+        final String source;
+        final Predicate<String> matcher;
+        final Node child;
+
+        PatternChild(final String source, final Predicate<String> matcher, final Node child) {
+            this.source = source;
+            this.matcher = matcher;
+            this.child = child;
+        }
+    }
+
+    /**
+     * A flattened, read-only form of the tree.
+     *
+     * <p>Nodes are numbered breadth-first from the root at index {@code 0}, so the
+     * children of each node occupy a contiguous range of indices. Within that
+     * range children are ordered by the hash of their segment, allowing lookups
+     * by binary search without any per-node objects.</p>
+     */
+    static final class Compiled {
+        private static final Comparator<String> SEGMENT_ORDER = Comparator.comparingInt(String::hashCode)
+            .thenComparing(Comparator.naturalOrder());
+
+        private final String[] segments;
+        private final int[] hashes;
+        private final int[] values;
+        // children of node i are [firstChild[i], firstChild[i + 1])
+        private final int[] firstChild;
+
+        private Compiled(final String[] segments, final int[] hashes, final int[] values, final int[] firstChild) {
+            this.segments = segments;
+            this.hashes = hashes;
+            this.values = values;
+            this.firstChild = firstChild;
+        }
+
+        static Compiled of(final Node root) {
+            final int count = countNodes(root);
+            final Node[] order = new Node[count];
+            final String[] segments = new String[count];
+            final int[] hashes = new int[count];
+            final int[] values = new int[count];
+            final int[] firstChild = new int[count + 1];
+
+            order[0] = root;
+            segments[0] = "";
+            int next = 1;
+            for (int i = 0; i < count; i++) {
+                final Node node = order[i];
+                values[i] = node.value;
+                hashes[i] = segments[i].hashCode();
+                firstChild[i] = next;
+
+                final String[] childKeys = new String[node.size];
+                int keyIdx = 0;
+                for (final @Nullable String key : node.keys) {
+                    if (key != null) {
+                        childKeys[keyIdx++] = key;
+                    }
+                }
+                Arrays.sort(childKeys, SEGMENT_ORDER);
+                for (final String key : childKeys) {
+                    order[next] = requireNonNull(node.child(key), "child");
+                    segments[next] = key.intern(); // shared between every tree containing this segment
+                    next++;
+                }
+            }
+            firstChild[count] = next;
+            return new Compiled(segments, hashes, values, firstChild);
+        }
+
+        private static int countNodes(final Node node) {
+            int count = 1;
+            for (final @Nullable Node child : node.children) {
+                if (child != null) {
+                    count += countNodes(child);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Find the index of the child whose segment is the ASCII-folded region {@code [start, end)} of {@code source}.
+         *
+         * @param parent the parent node's index
+         * @param source the string holding the path segment
+         * @param start the start index of the segment, inclusive
+         * @param end the end index of the segment, exclusive
+         * @param hash the {@link String#hashCode()} of the folded segment
+         * @return the child index, or {@code -1} if there is none
+         */
+        int child(final int parent, final String source, final int start, final int end, final int hash) {
+            final int min = this.firstChild[parent];
+            final int max = this.firstChild[parent + 1];
+            int lo = min;
+            int hi = max - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                final int midHash = this.hashes[mid];
+                if (midHash < hash) {
+                    lo = mid + 1;
+                } else if (midHash > hash) {
+                    hi = mid - 1;
+                } else {
+                    // check every segment sharing this hash
+                    for (int i = mid; i >= min && this.hashes[i] == hash; i--) {
+                        if (regionEqualsFolded(this.segments[i], source, start, end)) {
+                            return i;
+                        }
+                    }
+                    for (int i = mid + 1; i < max && this.hashes[i] == hash; i++) {
+                        if (regionEqualsFolded(this.segments[i], source, start, end)) {
+                            return i;
+                        }
+                    }
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        int get(final String node) {
+            final int length = node.length();
+            int current = 0;
+            int lastUndefinedVal = this.values[0];
+            int start = 0;
+            while (true) {
+                int end = start;
+                int hash = 0;
+                for (; end < length; end++) {
+                    final char c = node.charAt(end);
+                    if (c == '.') {
+                        break;
+                    } else if (c >= 0x80) {
+                        return this.getSplit(splitPerm(node));
+                    }
+                    hash = 31 * hash + foldAscii(c);
+                }
+
+                current = this.child(current, node, start, end, hash);
+                if (current == -1) {
+                    break;
+                }
+                if (Math.abs(this.values[current]) >= Math.abs(lastUndefinedVal)) {
+                    lastUndefinedVal = this.values[current];
+                }
+
+                if (end >= length) {
+                    break;
+                }
+                start = end + 1;
+            }
+            return lastUndefinedVal;
+        }
+
+        int getSplit(final String[] parts) {
+            int current = 0;
+            int lastUndefinedVal = this.values[0];
+            for (final String part : parts) {
+                current = this.child(current, part, 0, part.length(), part.hashCode());
+                if (current == -1) {
+                    break;
+                }
+                if (Math.abs(this.values[current]) >= Math.abs(lastUndefinedVal)) {
+                    lastUndefinedVal = this.values[current];
+                }
+            }
+            return lastUndefinedVal;
+        }
+
+        boolean anyInPrefixMatching(final String prefix, final IntPredicate test) {
+            final int length = prefix.length();
+            int current = 0;
+            int lastUndefinedVal = this.values[0];
+            int start = 0;
+            while (true) {
+                int end = start;
+                int hash = 0;
+                for (; end < length; end++) {
+                    final char c = prefix.charAt(end);
+                    if (c == '.') {
+                        break;
+                    } else if (c >= 0x80) {
+                        return this.anyInPrefixMatchingSplit(splitPerm(prefix), test);
+                    }
+                    hash = 31 * hash + foldAscii(c);
+                }
+
+                final int child = this.child(current, prefix, start, end, hash);
+                if (child == -1) {
+                    return test.test(lastUndefinedVal);
+                }
+                current = child;
+                if (Math.abs(this.values[current]) >= Math.abs(lastUndefinedVal)) {
+                    lastUndefinedVal = this.values[current];
+                }
+
+                if (end >= length) {
+                    break;
+                }
+                start = end + 1;
+            }
+            return this.anyChildMatching(current, lastUndefinedVal, test);
+        }
+
+        boolean anyInPrefixMatchingSplit(final String[] parts, final IntPredicate test) {
+            int current = 0;
+            int lastUndefinedVal = this.values[0];
+            for (final String part : parts) {
+                final int child = this.child(current, part, 0, part.length(), part.hashCode());
+                if (child == -1) {
+                    return test.test(lastUndefinedVal);
+                }
+                current = child;
+                if (Math.abs(this.values[current]) >= Math.abs(lastUndefinedVal)) {
+                    lastUndefinedVal = this.values[current];
+                }
+            }
+            return this.anyChildMatching(current, lastUndefinedVal, test);
+        }
+
+        private boolean anyChildMatching(final int prefixNode, final int prefixValue, final IntPredicate test) {
+            if (this.firstChild[prefixNode] == this.firstChild[prefixNode + 1]) {
+                return test.test(prefixValue);
+            }
+            return this.anyDescendantMatching(prefixNode, prefixValue, test);
+        }
+
+        private boolean anyDescendantMatching(final int parent, final int prefixValue, final IntPredicate test) {
+            for (int child = this.firstChild[parent]; child < this.firstChild[parent + 1]; child++) {
+                if (Math.abs(this.values[child]) >= Math.abs(prefixValue) && test.test(this.values[child])) {
+                    return true;
+                }
+                if (this.anyDescendantMatching(child, prefixValue, test)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void populateMap(final Map<String, Integer> values) {
+            for (int child = this.firstChild[0]; child < this.firstChild[1]; child++) {
+                this.populateMap(values, this.segments[child], child);
+            }
+        }
+
+        private void populateMap(final Map<String, Integer> values, final String prefix, final int node) {
+            if (this.values[node] != 0) {
+                values.put(prefix, this.values[node]);
+            }
+            for (int child = this.firstChild[node]; child < this.firstChild[node + 1]; child++) {
+                this.populateMap(values, prefix + '.' + this.segments[child], child);
+            }
+        }
+
+        /**
+         * Expand the subtree at {@code index} back into modifiable nodes.
+         *
+         * @param index the index of the subtree's root
+         * @return a new node
+         */
+        Node toNode(final int index) {
+            final Node ret = new Node();
+            ret.value = this.values[index];
+            for (int child = this.firstChild[index]; child < this.firstChild[index + 1]; child++) {
+                ret.putChild(this.segments[child], this.toNode(child));
+            }
+            return ret;
         }
     }
 }
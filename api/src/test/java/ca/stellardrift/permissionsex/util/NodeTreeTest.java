@@ -19,6 +19,7 @@ package ca.stellardrift.permissionsex.util;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -115,4 +116,125 @@ public class NodeTreeTest {
 
         assertFalse(nodes.anyInPrefixMatching("unrelated", n -> n > 0));
     }
+
+    @Test
+    void testCaseInsensitiveLookup() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("Generate.Rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+
+        final NodeTree nodes = NodeTree.of(testPermissions);
+
+        assertEquals(1, nodes.get("generate.rainbow"));
+        assertEquals(1, nodes.get("GENERATE.RAINBOW.double"));
+        assertEquals(-1, nodes.get("gEnErAtE.SuNsEt"));
+        assertTrue(nodes.anyInPrefixMatching("GENERATE", n -> n > 0));
+    }
+
+    @Test
+    void testEmptySegments() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("", 1);
+        testPermissions.put("a..b", -1);
+        testPermissions.put("trailing.", 1);
+
+        final NodeTree nodes = NodeTree.of(testPermissions);
+
+        assertEquals(1, nodes.get(""));
+        assertEquals(-1, nodes.get("a..b"));
+        assertEquals(0, nodes.get("a.b"));
+        assertEquals(1, nodes.get("trailing."));
+        assertEquals(0, nodes.get("trailing"));
+    }
+
+    @Test
+    void testNonAsciiLookup() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("caf\u00e9.menu", 1);
+        testPermissions.put("k.value", -1);
+
+        final NodeTree nodes = NodeTree.of(testPermissions);
+
+        assertEquals(1, nodes.get("CAF\u00c9.MENU"));
+        // KELVIN SIGN lower-cases to an ASCII 'k'
+        assertEquals(-1, nodes.get("\u212a.value"));
+        assertEquals(nodes.getSplit("\u212a.value"), nodes.get("\u212a.value"));
+    }
+
+    @Test
+    void testCompiled() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+        testPermissions.put("generate", 1);
+        testPermissions.put("generate.thunderstorm.explosive", -1);
+        testPermissions.put("my.action.group", -1);
+
+        final NodeTree nodes = NodeTree.compiledOf(testPermissions, -1);
+        assertTrue(nodes.compiled());
+        assertSame(nodes, nodes.compile());
+        assertEquals(testPermissions, nodes.asMap());
+
+        assertEquals(1, nodes.get("generate.rainbow"));
+        assertEquals(1, nodes.get("GENERATE.Rainbow.double"));
+        assertEquals(-1, nodes.get("generate.sunset.east"));
+        assertEquals(1, nodes.get("generate.thunderstorm"));
+        assertEquals(-1, nodes.get("generate.thunderstorm.explosive"));
+        assertEquals(-1, nodes.get("random.perm"));
+        assertTrue(nodes.anyInPrefixMatching("generate", n -> n < 0));
+        assertFalse(nodes.anyInPrefixMatching("my.action", n -> n > 0));
+
+        final NodeTree modified = nodes.withValue("generate.sunset", 1);
+        assertFalse(modified.compiled());
+        assertEquals(-1, nodes.get("generate.sunset"));
+        assertEquals(1, modified.get("generate.sunset"));
+    }
+
+    @Test
+    void testPatterns() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("worldedit.{brush,tool}.use", 1);
+        testPermissions.put("worldedit.brush", -2);
+        testPermissions.put("worldedit.{a,b,c}", 1);
+
+        final NodeTree nodes = NodeTree.of(testPermissions, 0, segment -> {
+            if (segment.equals("{brush,tool}")) {
+                return s -> s.equals("brush") || s.equals("tool");
+            } else if (segment.equals("{a,b,c}")) {
+                return s -> s.length() == 1 && s.charAt(0) >= 'a' && s.charAt(0) <= 'c';
+            }
+            return null;
+        });
+        assertSame(nodes, nodes.compile());
+        assertEquals(testPermissions, nodes.asMap());
+
+        assertEquals(1, nodes.get("worldedit.tool.use"));
+        assertEquals(1, nodes.get("WorldEdit.Tool.Use.extra"));
+        assertEquals(0, nodes.get("worldedit.tool"));
+        assertEquals(-2, nodes.get("worldedit.brush.use")); // strongest value wins, even at a parent
+        assertEquals(1, nodes.get("worldedit.b"));
+        assertEquals(0, nodes.get("worldedit.d"));
+        assertTrue(nodes.anyInPrefixMatching("worldedit.tool", n -> n > 0));
+        assertFalse(nodes.anyInPrefixMatching("worldedit.other", n -> n > 0));
+
+        final NodeTree modified = nodes.withValue("worldedit.tool.use", -1);
+        assertEquals(-1, modified.get("worldedit.tool.use"));
+        assertEquals(1, modified.get("worldedit.a"));
+    }
+
+    @Test
+    void testPatternTiesFollowOrder() {
+        final Map<String, Integer> testPermissions = new LinkedHashMap<>();
+        testPermissions.put("a.{b,c}", -1);
+        testPermissions.put("a.b", 1);
+        testPermissions.put("x.y", 1);
+        testPermissions.put("x.{y,z}", -1);
+
+        final NodeTree nodes = NodeTree.of(testPermissions, 0, segment -> segment.startsWith("{")
+            ? s -> s.equals("b") || s.equals("c") || s.equals("y") || s.equals("z")
+            : null);
+        assertEquals(-1, nodes.get("a.b")); // the pattern was given first
+        assertEquals(1, nodes.get("x.y")); // the literal was given first
+        assertEquals(-1, nodes.get("x.z"));
+    }
 }
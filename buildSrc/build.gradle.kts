@@ -53,6 +53,7 @@ dependencies {
     implementation("ca.stellardrift:gradle-plugin-configurate:$opinionatedVersion")
     implementation("com.github.jengelman.gradle.plugins:shadow:6.1.0")
     implementation("kr.entree:spigradle:2.2.3")
+    implementation("me.champeau.jmh:jmh-gradle-plugin:0.6.5")
     implementation("net.ltgt.gradle:gradle-errorprone-plugin:1.3.0")
     implementation(kotlin("gradle-plugin", "1.4.21"))
     implementation(kotlin("reflect"))
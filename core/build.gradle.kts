@@ -24,6 +24,7 @@ plugins {
     id("pex-component")
     `java-test-fixtures`
     id("ca.stellardrift.localization")
+    id("me.champeau.jmh")
 }
 
 useAutoService()
@@ -60,6 +61,15 @@ dependencies {
     testFixturesImplementation("com.h2database:h2:$h2Version")
     testFixturesImplementation("org.mariadb.jdbc:mariadb-java-client:2.7.2")
     testFixturesImplementation("org.postgresql:postgresql:42.2.19")
+
+    jmh(testFixtures(project))
+    val jolVersion: String by project
+    jmh("org.openjdk.jol:jol-core:$jolVersion")
+}
+
+val jmhVersion: String by project
+jmh {
+    this.jmhVersion.set(jmhVersion)
 }
 
 tasks.jar {
@@ -0,0 +1,117 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import ca.stellardrift.permissionsex.impl.logging.WrappingFormattedLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+import org.spongepowered.configurate.loader.ConfigurationLoader;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Compare loading a file data store's data file by parsing the JSON against reading its snapshot.
+ *
+ * <p>The file holds a few groups with large permission sets, and many users that each have a
+ * handful of permissions and a parent group.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileStartupBenchmark {
+    private static final int GROUPS = 20;
+
+    @Param({"1000", "10000"})
+    private int users;
+
+    private Path directory;
+    private ConfigurationLoader<BasicConfigurationNode> json;
+    private SnapshotLoader snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("pex-bench");
+        final Path file = this.directory.resolve("permissions.json");
+        final Supplier<GsonConfigurationLoader.Builder> builders = () -> GsonConfigurationLoader.builder()
+            .indent(4)
+            .lenient(true);
+
+        this.json = builders.get().path(file).build();
+        this.snapshot = new SnapshotLoader(builders, file, WrappingFormattedLogger.of(LoggerFactory.getLogger(FileStartupBenchmark.class), false));
+
+        final BasicConfigurationNode root = this.snapshot.createNode();
+        final ConfigurationNode subjects = root.node(FileDataStore.KEY_SUBJECTS);
+        for (int group = 0; group < GROUPS; group++) {
+            final ConfigurationNode segment = subjects.node("group", "group" + group).appendListNode();
+            for (int perm = 0; perm < 200; perm++) {
+                segment.node("permissions", "plugin" + group + ".feature" + perm).set(perm % 7 == 0 ? -1 : 1);
+            }
+            segment.node("options", "prefix").set("[group" + group + "]");
+        }
+        for (int user = 0; user < this.users; user++) {
+            final ConfigurationNode segment = subjects.node("user", new UUID(0, user).toString()).appendListNode();
+            segment.node("permissions", "personal.home").set(1);
+            segment.node("permissions", "personal.warp." + user % 50).set(1);
+            segment.node("options", "name").set("player" + user);
+            segment.node("parents").appendListNode().set("group:group" + user % GROUPS);
+        }
+        root.node("schema-version").set(4);
+        this.snapshot.save(root); // writes both the JSON file and its snapshot
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public BasicConfigurationNode parseJson() throws ConfigurateException {
+        return this.json.load();
+    }
+
+    @Benchmark
+    public BasicConfigurationNode readSnapshot() throws ConfigurateException {
+        return this.snapshot.load();
+    }
+}
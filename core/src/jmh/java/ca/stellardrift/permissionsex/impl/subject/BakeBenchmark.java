@@ -0,0 +1,125 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.subject;
+
+import ca.stellardrift.permissionsex.PermissionsEngine;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.impl.PermissionsEx;
+import ca.stellardrift.permissionsex.impl.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.subject.SubjectRef;
+import ca.stellardrift.permissionsex.subject.SubjectType;
+import ca.stellardrift.permissionsex.test.EmptyTestConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare baking a user with all inputs cached, on and off the synchronous path.
+ *
+ * <p>The user inherits from a chain of groups, each holding a few hundred
+ * permissions. Run with {@code -prof gc} to compare allocation per bake.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BakeBenchmark {
+    private static final SubjectType<String> GROUP = SubjectType.stringIdentBuilder("group").build();
+    private static final SubjectType<UUID> USER = SubjectType.builder("user", UUID.class)
+        .serializedBy(UUID::toString)
+        .deserializedBy(UUID::fromString)
+        .build();
+    private static final Set<ContextValue<?>> CONTEXTS = PermissionsEngine.GLOBAL_CONTEXT;
+
+    @Param({"1", "5"})
+    private int groupDepth;
+
+    private PermissionsEx<EmptyPlatformConfiguration> engine;
+    private CalculatedSubjectImpl<?> user;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.engine = new PermissionsEx<>(
+            LoggerFactory.getLogger(BakeBenchmark.class),
+            Files.createTempDirectory("pex-bench"),
+            ForkJoinPool.commonPool(),
+            url -> {
+                throw new UnsupportedOperationException();
+            }
+        );
+        try {
+            this.engine.initialize(new EmptyTestConfiguration());
+        } catch (final PermissionsLoadingException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        final SubjectTypeCollectionImpl<String> groups = this.engine.subjects(GROUP);
+        for (int i = 0; i < this.groupDepth; i++) {
+            final boolean hasParent = i + 1 < this.groupDepth;
+            final int groupIdx = i;
+            groups.persistentData().update("group" + i, data -> data.withSegment(CONTEXTS, segment -> {
+                for (int perm = 0; perm < 300; perm++) {
+                    segment = segment.withPermission("plugin" + groupIdx + ".feature" + perm, perm % 7 == 0 ? -1 : 1);
+                }
+                segment = segment.withOption("prefix", "[group" + groupIdx + "]");
+                return hasParent ? segment.plusParent(SubjectRef.subject(GROUP, "group" + (groupIdx + 1))) : segment;
+            })).join();
+        }
+
+        final UUID userId = UUID.randomUUID();
+        this.engine.subjects(USER).persistentData().update(userId, data -> data.withSegment(CONTEXTS, segment -> segment
+            .withPermission("personal.home", 1)
+            .plusParent(SubjectRef.subject(GROUP, "group0")))).join();
+
+        this.user = (CalculatedSubjectImpl<?>) this.engine.subjects(USER).get(userId).join();
+        this.user.permissions(CONTEXTS); // load every input into the caches
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.engine.close();
+    }
+
+    @Benchmark
+    public BakedSubjectData bakeImmediate() {
+        return InheritanceSubjectDataBaker.INSTANCE.bake(this.user, CONTEXTS).join();
+    }
+
+    @Benchmark
+    public BakedSubjectData bakeAsync() {
+        return InheritanceSubjectDataBaker.ASYNC_ONLY.bake(this.user, CONTEXTS).join();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.subject;
+
+import ca.stellardrift.permissionsex.impl.util.PCollections;
+import ca.stellardrift.permissionsex.util.NodeTree;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the heap retained by baked subject data, for both node tree representations.
+ *
+ * <p>Each invocation bakes a population of users sharing a handful of groups,
+ * then reports the retained size of the whole population divided by the number
+ * of subjects in the {@code retainedBytesPerSubject} counter. Objects shared
+ * between subjects are only counted once, as they would be on a live server.
+ * The reported time includes walking the heap graph, and is not meaningful.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BakedSubjectFootprintBenchmark {
+    private static final int GROUP_COUNT = 5;
+    private static final int SUBJECT_COUNT = 2000;
+    private static final String[] ACTIONS = {"use", "create", "delete", "list", "info", "admin", "bypass", "others"};
+
+    @Param({"500", "5000"})
+    private int permissionsPerGroup;
+
+    @Param({"false", "true"})
+    private boolean compiled;
+
+    private final List<Map<String, Integer>> groups = new ArrayList<>();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long retainedBytesPerSubject;
+    }
+
+    @Setup
+    public void setUp() {
+        final Random rand = new Random(42);
+        for (int group = 0; group < GROUP_COUNT; group++) {
+            final Map<String, Integer> permissions = new HashMap<>();
+            while (permissions.size() < this.permissionsPerGroup) {
+                permissions.put("plugin" + rand.nextInt(this.permissionsPerGroup / 4) + ".feature" + rand.nextInt(8)
+                    + '.' + ACTIONS[rand.nextInt(ACTIONS.length)], rand.nextInt(5) == 0 ? -1 : 1);
+            }
+            this.groups.add(permissions);
+        }
+    }
+
+    @Benchmark
+    public BakedSubjectData[] bakeSubjects(final Footprint footprint) {
+        final BakedSubjectData[] subjects = new BakedSubjectData[SUBJECT_COUNT];
+        for (int i = 0; i < SUBJECT_COUNT; i++) {
+            // Like the baker, combine each group's (shared) keys into a fresh map per subject
+            final Map<String, Integer> combined = new HashMap<>();
+            for (int group = 0; group <= i % GROUP_COUNT; group++) {
+                combined.putAll(this.groups.get(group));
+            }
+            combined.put("personal.home." + i, 1);
+
+            final NodeTree permissions = this.compiled ? NodeTree.compiledOf(combined, 0) : NodeTree.of(combined, 0);
+            subjects[i] = new BakedSubjectData(permissions, PCollections.vector(), PCollections.map());
+        }
+        footprint.retainedBytesPerSubject = GraphLayout.parseInstance((Object) subjects).totalSize() / SUBJECT_COUNT;
+        return subjects;
+    }
+}
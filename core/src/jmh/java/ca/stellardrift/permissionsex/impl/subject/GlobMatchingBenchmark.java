@@ -0,0 +1,139 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.subject;
+
+import ca.stellardrift.permissionsex.util.NodeTree;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare baked permission trees with globs expanded against trees matching globs at lookup time.
+ *
+ * <p>Each subject holds a set of literal permissions plus a number of
+ * character-class globs, each expanding to 48 permissions. {@code lookup}
+ * reports the time for a single permission check, while {@code footprint}
+ * reports the heap retained per subject in the {@code retainedBytesPerSubject}
+ * counter, counting matchers shared between subjects once.</p>
+ *
+ * <p>Run with {@code ./gradlew :core:jmh}.</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class GlobMatchingBenchmark {
+    private static final int LITERAL_COUNT = 500;
+    private static final int SUBJECT_COUNT = 500;
+    private static final int QUERY_COUNT = 4096;
+
+    @Param({"10", "100"})
+    private int globCount;
+
+    @Param({"false", "true"})
+    private boolean matchAtLookup;
+
+    private final GlobExpansionCache globs = new GlobExpansionCache();
+    private final Map<String, Integer> permissions = new HashMap<>();
+    private NodeTree tree;
+    private String[] queries;
+    private int index;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long retainedBytesPerSubject;
+    }
+
+    @Setup
+    public void setUp() {
+        final Random rand = new Random(42);
+        for (int i = 0; i < LITERAL_COUNT; i++) {
+            this.permissions.put("plugin" + i + ".feature" + rand.nextInt(8) + ".use", rand.nextInt(5) == 0 ? -1 : 1);
+        }
+        for (int i = 0; i < this.globCount; i++) {
+            this.permissions.put("tools" + i + ".{brush,tool,wand}.[abcdefghijklmnop]", 1);
+        }
+        this.tree = this.bake(this.permissions);
+
+        this.queries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            switch (rand.nextInt(3)) {
+                case 0:
+                    this.queries[i] = "tools" + rand.nextInt(this.globCount) + ".wand." + (char) ('a' + rand.nextInt(26));
+                    break;
+                case 1:
+                    this.queries[i] = "plugin" + rand.nextInt(LITERAL_COUNT) + ".feature" + rand.nextInt(8) + ".use";
+                    break;
+                default:
+                    this.queries[i] = "undefined" + rand.nextInt(100) + ".node";
+            }
+        }
+    }
+
+    private NodeTree bake(final Map<String, Integer> permissions) {
+        final Map<String, Integer> combined = new HashMap<>();
+        for (final Map.Entry<String, Integer> entry : permissions.entrySet()) {
+            if (this.matchAtLookup && this.globs.matchableBySegment(entry.getKey())) {
+                combined.put(entry.getKey(), entry.getValue());
+            } else {
+                for (final String expanded : this.globs.expand(entry.getKey())) {
+                    combined.put(expanded, entry.getValue());
+                }
+            }
+        }
+        return NodeTree.of(combined, 0, this.matchAtLookup ? this.globs::segmentPattern : segment -> null).compile();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public int lookup() {
+        return this.tree.get(this.queries[this.index++ & (QUERY_COUNT - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public NodeTree[] footprint(final Footprint footprint) {
+        final NodeTree[] subjects = new NodeTree[SUBJECT_COUNT];
+        for (int i = 0; i < SUBJECT_COUNT; i++) {
+            final Map<String, Integer> permissions = new HashMap<>(this.permissions);
+            permissions.put("personal.home." + i, 1);
+            subjects[i] = this.bake(permissions);
+        }
+        footprint.retainedBytesPerSubject = GraphLayout.parseInstance((Object) subjects).totalSize() / SUBJECT_COUNT;
+        return subjects;
+    }
+}
@@ -26,6 +26,7 @@ import ca.stellardrift.permissionsex.datastore.DataStore;
 import ca.stellardrift.permissionsex.datastore.DataStoreContext;
 import ca.stellardrift.permissionsex.datastore.DataStoreFactory;
 import ca.stellardrift.permissionsex.datastore.ProtoDataStore;
+import ca.stellardrift.permissionsex.impl.backend.AbstractDataStore;
 import ca.stellardrift.permissionsex.impl.backend.memory.MemoryDataStore;
 import ca.stellardrift.permissionsex.impl.config.PermissionsExConfiguration;
 import ca.stellardrift.permissionsex.exception.PEBKACException;
@@ -48,10 +49,13 @@ import ca.stellardrift.permissionsex.impl.subject.CalculatedSubjectImpl;
 import ca.stellardrift.permissionsex.rank.RankLadderCollection;
 import ca.stellardrift.permissionsex.subject.SubjectRef;
 import ca.stellardrift.permissionsex.subject.SubjectType;
+import ca.stellardrift.permissionsex.impl.subject.GlobExpansionCache;
+import ca.stellardrift.permissionsex.impl.subject.SubjectDependencyIndex;
 import ca.stellardrift.permissionsex.impl.subject.SubjectTypeCollectionImpl;
 import ca.stellardrift.permissionsex.impl.util.Util;
 import ca.stellardrift.permissionsex.subject.SubjectTypeCollection;
 import io.leangen.geantyref.TypeToken;
+import net.kyori.adventure.text.Component;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pcollections.PVector;
@@ -67,6 +71,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -116,6 +121,10 @@ public class PermissionsEx<P> implements Consumer<ContextInheritance>,
     private @MonotonicNonNull RankLadderCache rankLadderCache;
     private volatile @Nullable CompletableFuture<ContextInheritance> cachedInheritance;
     private final CacheListenerHolder<Boolean, ContextInheritance> cachedInheritanceListeners = new CacheListenerHolder<>();
+    private final SubjectDependencyIndex subjectDependencies = new SubjectDependencyIndex();
+    private final GlobExpansionCache globExpansions = new GlobExpansionCache();
+    private volatile @Nullable CompletableFuture<Set<ContextDefinition<?>>> cachedUsedContextTypes;
+    private int usedContextTypesVersion; // guarded by contextTypes
 
     // Mutable state
     private final RecordingPermissionCheckNotifier baseNotifier = new RecordingPermissionCheckNotifier();
@@ -230,6 +239,42 @@ public class PermissionsEx<P> implements Consumer<ContextInheritance>,
         return collection;
     }
 
+    /**
+     * Get the index of which calculated subjects depend on each subject's data.
+     *
+     * @return the dependency index
+     */
+    public SubjectDependencyIndex subjectDependencies() {
+        return this.subjectDependencies;
+    }
+
+    /**
+     * Get the cache of expanded permission globs used when baking subjects.
+     *
+     * @return the glob expansion cache
+     */
+    public GlobExpansionCache globExpansions() {
+        return this.globExpansions;
+    }
+
+    /**
+     * Send runtime statistics of the engine and its active data store, such as cache hit rates.
+     *
+     * @param receiver the receiver for each line
+     */
+    public void reportStatistics(final Consumer<Component> receiver) {
+        receiver.accept(STATISTICS_GLOB_EXPANSION.tr(
+            this.globExpansions.size(),
+            this.globExpansions.hitCount(),
+            this.globExpansions.missCount(),
+            String.format(Locale.ROOT, "%.1f", this.globExpansions.hitRate() * 100)
+        ));
+        final DataStore store = this.activeDataStore();
+        if (store instanceof AbstractDataStore<?, ?>) {
+            ((AbstractDataStore<?, ?>) store).reportStatistics(receiver);
+        }
+    }
+
     public SubjectType<?> subjectType(final String id) {
         return this.subjectTypeCache.get(id).type();
     }
@@ -460,6 +505,7 @@ public class PermissionsEx<P> implements Consumer<ContextInheritance>,
         newState.availableConversions = allResults;
 
         final @Nullable State<P> oldState = this.state.getAndSet(newState);
+        invalidateUsedContextTypes();
         if (oldState != null) {
             try {
                 oldState.activeDataStore.close();
@@ -612,7 +658,16 @@ public class PermissionsEx<P> implements Consumer<ContextInheritance>,
 
     @Override
     public CompletableFuture<Set<ContextDefinition<?>>> usedContextTypes() {
-        return state().activeDataStore.getDefinedContextKeys().thenCombine(transientData.getDefinedContextKeys(), (persist, trans) -> {
+        final @Nullable CompletableFuture<Set<ContextDefinition<?>>> cached = this.cachedUsedContextTypes;
+        if (cached != null) {
+            return cached;
+        }
+
+        final int version;
+        synchronized (this.contextTypes) {
+            version = this.usedContextTypesVersion;
+        }
+        final CompletableFuture<Set<ContextDefinition<?>>> computed = state().activeDataStore.getDefinedContextKeys().thenCombine(transientData.getDefinedContextKeys(), (persist, trans) -> {
             final Set<ContextDefinition<?>> build = new HashSet<>();
             for (final ContextDefinition<?> def : this.contextTypes.values()) {
                 if (persist.contains(def.name()) || trans.contains(def.name())) {
@@ -621,6 +676,31 @@ public class PermissionsEx<P> implements Consumer<ContextInheritance>,
             }
            return Collections.unmodifiableSet(build);
         });
+        computed.thenRun(() -> {
+            synchronized (this.contextTypes) {
+                // Only keep a successful result, and only if nothing changed while it was being computed
+                if (version == this.usedContextTypesVersion) {
+                    this.cachedUsedContextTypes = computed;
+                }
+            }
+        });
+        return computed;
+    }
+
+    /**
+     * Discard the cached set of context types in use, after a data store or context definition
+     * has changed.
+     */
+    private void invalidateUsedContextTypes() {
+        synchronized (this.contextTypes) {
+            this.usedContextTypesVersion++;
+            this.cachedUsedContextTypes = null;
+        }
+    }
+
+    @Override
+    public void contextKeysChanged(final DataStore store) {
+        invalidateUsedContextTypes();
     }
 
     @Override
@@ -629,11 +709,16 @@ public class PermissionsEx<P> implements Consumer<ContextInheritance>,
             ((PEXContextDefinition<T>) contextDefinition).update(config());
         }
        final @Nullable ContextDefinition<?> possibleOut =  this.contextTypes.putIfAbsent(contextDefinition.name(), contextDefinition);
+        final boolean registered;
         if (possibleOut instanceof SimpleContextDefinition.Fallback) {
-            return this.contextTypes.replace(contextDefinition.name(), possibleOut, contextDefinition);
+            registered = this.contextTypes.replace(contextDefinition.name(), possibleOut, contextDefinition);
         } else {
-            return possibleOut == null;
+            registered = possibleOut == null;
+        }
+        if (registered) {
+            invalidateUsedContextTypes();
         }
+        return registered;
     }
 
     @Override
@@ -660,6 +745,7 @@ public class PermissionsEx<P> implements Consumer<ContextInheritance>,
             ret = this.contextTypes.putIfAbsent(definitionKey, fallback);
             if (ret == null) {
                 ret = fallback;
+                invalidateUsedContextTypes();
             }
         }
         return ret;
@@ -38,8 +38,11 @@ import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.configurate.util.CheckedSupplier;
 import org.spongepowered.configurate.util.UnmodifiableCollections;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -61,6 +64,7 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T, C>, C> im
     protected final CacheListenerHolder<Map.Entry<String, String>, ImmutableSubjectData> listeners = new CacheListenerHolder<>();
     protected final CacheListenerHolder<String, RankLadder> rankLadderListeners = new CacheListenerHolder<>();
     protected final CacheListenerHolder<Boolean, ContextInheritance> contextInheritanceListeners = new CacheListenerHolder<>();
+    private final SubjectMetadataIndex metadata = new SubjectMetadataIndex();
 
     /**
      * Create the data store.
@@ -125,6 +129,24 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T, C>, C> im
         return ret;
     }
 
+    @Override
+    public final CompletableFuture<Map<String, ImmutableSubjectData>> getData(final String type, final Collection<String> identifiers, final @Nullable Function<String, Consumer<ImmutableSubjectData>> listeners) {
+        requireNonNull(type, "type");
+        requireNonNull(identifiers, "identifiers");
+
+        final CompletableFuture<Map<String, ImmutableSubjectData>> ret = identifiers.isEmpty()
+            ? CompletableFuture.completedFuture(Collections.emptyMap())
+            : getDataInternal(type, identifiers);
+        ret.thenRun(() -> {
+            if (listeners != null) {
+                for (final String identifier : identifiers) {
+                    this.listeners.addListener(UnmodifiableCollections.immutableMapEntry(type, identifier), listeners.apply(identifier));
+                }
+            }
+        });
+        return ret;
+    }
+
     @Override
     public final CompletableFuture<ImmutableSubjectData> setData(final String type, final String identifier, final @Nullable ImmutableSubjectData data) {
         requireNonNull(type, "type");
@@ -140,6 +162,89 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T, C>, C> im
                 });
     }
 
+    /**
+     * Send runtime statistics of this data store, such as cache hit rates.
+     *
+     * <p>By default, nothing is sent.</p>
+     *
+     * @param receiver the receiver for each line
+     */
+    public void reportStatistics(final Consumer<Component> receiver) {
+    }
+
+    /**
+     * Get the index of subject types and context keys held in this data store.
+     *
+     * @return the metadata index
+     */
+    protected final SubjectMetadataIndex metadata() {
+        return this.metadata;
+    }
+
+    /**
+     * Record a change to one subject in the metadata index.
+     *
+     * <p>Data stores should call this once a change has been applied, and tell the engine if
+     * the set of context keys in use has changed.</p>
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param existed whether the subject was present before this change
+     * @param keys the context keys now used by the subject, or {@code null} if the subject was removed
+     */
+    protected final void indexSubject(final String type, final String identifier, final boolean existed, final @Nullable Set<String> keys) {
+        if (this.metadata.update(type, identifier, existed, keys)) {
+            this.context.contextKeysChanged(this);
+        }
+    }
+
+    /**
+     * Record one subject in the metadata index after reading it again, such as after it was changed
+     * by another process sharing the same storage.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param typeCount the number of subjects of the type, counted after the change
+     * @param keys the context keys now used by the subject, or {@code null} if the subject does not exist
+     */
+    protected final void reindexSubject(final String type, final String identifier, final int typeCount, final @Nullable Set<String> keys) {
+        if (this.metadata.refresh(type, identifier, typeCount, keys)) {
+            this.context.contextKeysChanged(this);
+        }
+    }
+
+    /**
+     * Replace the contents of the metadata index, after loading every subject.
+     *
+     * @param subjectCounts the number of subjects of each type
+     * @param subjectKeys the context keys used by each subject
+     */
+    protected final void indexSubjects(final Map<String, Integer> subjectCounts, final Map<Map.Entry<String, String>, ? extends Set<String>> subjectKeys) {
+        if (this.metadata.reset(subjectCounts, subjectKeys)) {
+            this.context.contextKeysChanged(this);
+        }
+    }
+
+    @Override
+    public Set<String> getRegisteredTypes() {
+        return this.metadata.types();
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getDefinedContextKeys() {
+        return CompletableFuture.completedFuture(this.metadata.contextKeys());
+    }
+
+    /**
+     * Get the number of subjects of a certain type held in this data store.
+     *
+     * @param type the subject type
+     * @return the number of subjects
+     */
+    public int subjectCount(final String type) {
+        return this.metadata.subjectCount(type);
+    }
+
     protected <V> CompletableFuture<V> runAsync(CheckedSupplier<V, ?> supplier) {
         return Util.asyncFailableFuture(supplier, this.context.asyncExecutor());
     }
@@ -165,6 +270,29 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T, C>, C> im
 
     protected abstract CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier);
 
+    /**
+     * Load data for several subjects of one type.
+     *
+     * <p>By default each subject is loaded individually with {@link #getDataInternal(String, String)}.
+     * Data stores that can fetch many subjects in one round trip should override this.</p>
+     *
+     * @param type the subject type
+     * @param identifiers the subject identifiers, never empty
+     * @return a future completing with data for every requested identifier
+     */
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getDataInternal(final String type, final Collection<String> identifiers) {
+        final Map<String, CompletableFuture<ImmutableSubjectData>> futures = new HashMap<>(identifiers.size());
+        for (final String identifier : identifiers) {
+            futures.put(identifier, getDataInternal(type, identifier));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignore -> {
+                final Map<String, ImmutableSubjectData> result = new HashMap<>(futures.size());
+                futures.forEach((identifier, data) -> result.put(identifier, data.join()));
+                return result;
+            });
+    }
+
     protected abstract CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, @Nullable ImmutableSubjectData data);
 
     @Override
@@ -0,0 +1,214 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend;
+
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.impl.util.PCollections;
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pcollections.PSet;
+import org.spongepowered.configurate.util.UnmodifiableCollections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Summary information about the subjects held in a data store, kept up to date as subjects change.
+ *
+ * <p>The index tracks which subject types are in use, how many subjects each type has, and which
+ * context keys appear in any subject's segments. Every query is answered without looking at
+ * subject data.</p>
+ */
+public final class SubjectMetadataIndex {
+    // all guarded by this
+    private final Map<Map.Entry<String, String>, PSet<String>> subjectKeys = new HashMap<>(); // only subjects that use contexts
+    private final Map<String, Integer> keyUsages = new HashMap<>();
+    private final Map<String, Integer> subjectCounts = new HashMap<>();
+
+    private volatile PSet<String> contextKeys = PCollections.set();
+    private volatile PSet<String> types = PCollections.set();
+
+    /**
+     * Get the context keys used by a subject's segments.
+     *
+     * @param data the subject data
+     * @return the context keys
+     */
+    public static PSet<String> contextKeys(final ImmutableSubjectData data) {
+        PSet<String> keys = PCollections.set();
+        for (final Set<ContextValue<?>> contexts : data.activeContexts()) {
+            for (final ContextValue<?> context : contexts) {
+                keys = keys.plus(context.key());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Get every context key used in the data store.
+     *
+     * @return the context keys
+     */
+    public Set<String> contextKeys() {
+        return this.contextKeys;
+    }
+
+    /**
+     * Get every subject type with at least one subject.
+     *
+     * @return the subject types
+     */
+    public Set<String> types() {
+        return this.types;
+    }
+
+    /**
+     * Get the number of subjects of a certain type.
+     *
+     * @param type the subject type
+     * @return the number of subjects
+     */
+    public synchronized int subjectCount(final String type) {
+        return this.subjectCounts.getOrDefault(type, 0);
+    }
+
+    /**
+     * Get the number of subjects of every type with at least one subject.
+     *
+     * @return a copy of the subject counts
+     */
+    public synchronized Map<String, Integer> subjectCounts() {
+        return new HashMap<>(this.subjectCounts);
+    }
+
+    /**
+     * Get the context keys used by every subject that uses any contexts.
+     *
+     * @return a copy of the context keys, by subject type and identifier
+     */
+    public synchronized Map<Map.Entry<String, String>, PSet<String>> subjectKeys() {
+        return new HashMap<>(this.subjectKeys);
+    }
+
+    /**
+     * Record a change to one subject.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param existed whether the subject was present in the data store before this change
+     * @param keys the context keys now used by the subject, or {@code null} if the subject was removed
+     * @return whether the set of context keys used in the data store changed
+     */
+    public synchronized boolean update(final String type, final String identifier, final boolean existed, final @Nullable Set<String> keys) {
+        if (!existed && keys != null) {
+            this.subjectCounts.merge(type, 1, Integer::sum);
+            if (!this.types.contains(type)) {
+                this.types = this.types.plus(type);
+            }
+        } else if (existed && keys == null) {
+            if (this.subjectCounts.merge(type, -1, (a, b) -> a + b == 0 ? null : a + b) == null) {
+                this.types = this.types.minus(type);
+            }
+        }
+
+        return updateKeys(type, identifier, keys);
+    }
+
+    /**
+     * Record a subject read again after it was changed elsewhere, when whether it existed before is not known.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param typeCount the number of subjects of the type, counted after the change
+     * @param keys the context keys now used by the subject, or {@code null} if the subject does not exist
+     * @return whether the set of context keys used in the data store changed
+     */
+    public synchronized boolean refresh(final String type, final String identifier, final int typeCount, final @Nullable Set<String> keys) {
+        if (typeCount > 0) {
+            this.subjectCounts.put(type, typeCount);
+            if (!this.types.contains(type)) {
+                this.types = this.types.plus(type);
+            }
+        } else if (this.subjectCounts.remove(type) != null) {
+            this.types = this.types.minus(type);
+        }
+        return updateKeys(type, identifier, keys);
+    }
+
+    private boolean updateKeys(final String type, final String identifier, final @Nullable Set<String> keys) {
+        final Map.Entry<String, String> subject = UnmodifiableCollections.immutableMapEntry(type, identifier);
+        final PSet<String> newKeys = keys == null ? PCollections.set() : PCollections.asSet(keys);
+        final @Nullable PSet<String> oldKeys = newKeys.isEmpty() ? this.subjectKeys.remove(subject) : this.subjectKeys.put(subject, newKeys);
+        if (oldKeys == null ? newKeys.isEmpty() : oldKeys.equals(newKeys)) {
+            return false;
+        }
+
+        PSet<String> contextKeys = this.contextKeys;
+        for (final String key : newKeys) {
+            if (oldKeys == null || !oldKeys.contains(key)) {
+                if (this.keyUsages.merge(key, 1, Integer::sum) == 1) {
+                    contextKeys = contextKeys.plus(key);
+                }
+            }
+        }
+        if (oldKeys != null) {
+            for (final String key : oldKeys) {
+                if (!newKeys.contains(key) && this.keyUsages.merge(key, -1, (a, b) -> a + b == 0 ? null : a + b) == null) {
+                    contextKeys = contextKeys.minus(key);
+                }
+            }
+        }
+
+        final boolean changed = contextKeys != this.contextKeys;
+        this.contextKeys = contextKeys;
+        return changed;
+    }
+
+    /**
+     * Replace the contents of the index.
+     *
+     * @param subjectCounts the number of subjects of each type
+     * @param subjectKeys the context keys used by each subject, by subject type and identifier
+     * @return whether the set of context keys used in the data store changed
+     */
+    public synchronized boolean reset(final Map<String, Integer> subjectCounts, final Map<Map.Entry<String, String>, ? extends Set<String>> subjectKeys) {
+        this.subjectCounts.clear();
+        subjectCounts.forEach((type, count) -> {
+            if (count > 0) {
+                this.subjectCounts.put(type, count);
+            }
+        });
+        this.types = PCollections.asSet(this.subjectCounts.keySet());
+
+        this.subjectKeys.clear();
+        this.keyUsages.clear();
+        subjectKeys.forEach((subject, keys) -> {
+            if (!keys.isEmpty()) {
+                this.subjectKeys.put(subject, PCollections.asSet(keys));
+                for (final String key : keys) {
+                    this.keyUsages.merge(key, 1, Integer::sum);
+                }
+            }
+        });
+
+        final PSet<String> contextKeys = PCollections.asSet(this.keyUsages.keySet());
+        final boolean changed = !contextKeys.equals(this.contextKeys);
+        this.contextKeys = contextKeys;
+        return changed;
+    }
+}
@@ -32,7 +32,9 @@ import ca.stellardrift.permissionsex.impl.rank.FixedRankLadder;
 import ca.stellardrift.permissionsex.rank.RankLadder;
 import ca.stellardrift.permissionsex.impl.util.Util;
 import ca.stellardrift.permissionsex.subject.SubjectRef;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.auto.service.AutoService;
+import net.kyori.adventure.text.Component;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.spongepowered.configurate.BasicConfigurationNode;
@@ -54,15 +56,18 @@ import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
@@ -70,6 +75,7 @@ import static org.spongepowered.configurate.util.UnmodifiableCollections.immutab
 
 public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDataStore.Config> {
     static final String KEY_RANK_LADDERS = "rank-ladders";
+    static final String KEY_SUBJECTS = "subjects";
 
     @ConfigSerializable
     static class Config {
@@ -81,20 +87,50 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
         @Setting
         @Comment("Automatically reload the data file when changes have been made")
         boolean autoReload = true;
+        @Setting
+        @Comment("Milliseconds to wait after a change before writing the data file, so changes made close together are written at once")
+        long saveDelay = 0;
+        @Setting
+        @Comment("Keep a binary copy of the data file next to it, so unchanged data loads without parsing")
+        boolean snapshot = true;
     }
 
 
+    /**
+     * The most deserialized subjects kept, so the data file is not held in memory twice.
+     */
+    static final int SUBJECT_CACHE_SIZE = 4096;
+
     private @Nullable WatchServiceListener reloadService;
     private @MonotonicNonNull ConfigurationReference<BasicConfigurationNode> permissionsConfig;
-    private final AtomicInteger saveSuppressed = new AtomicInteger();
-    private final AtomicBoolean dirty = new AtomicBoolean();
+    private @MonotonicNonNull SaveScheduler saves;
+    // Bounded, since every subject is also held in the loaded configuration node
+    private final ConcurrentMap<Map.Entry<String, String>, CachedSubject> subjectCache = Caffeine.newBuilder()
+        .maximumSize(SUBJECT_CACHE_SIZE)
+        .<Map.Entry<String, String>, CachedSubject>build()
+        .asMap();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile @Nullable ConfigurationNode lastRoot;
+
+    /**
+     * Deserialized data for one subject, stamped with the generation of the data file it was read from.
+     */
+    static final class CachedSubject {
+        final long generation;
+        final FileSubjectData data;
+
+        CachedSubject(final long generation, final FileSubjectData data) {
+            this.generation = generation;
+            this.data = data;
+        }
+    }
 
     public FileDataStore(final DataStoreContext context, final ProtoDataStore<Config> properties) {
         super(context, properties);
     }
 
     private ConfigurationReference<BasicConfigurationNode> createLoader(Path file) throws ConfigurateException {
-        Function<Path, ConfigurationLoader<? extends BasicConfigurationNode>> loaderFunc = path -> GsonConfigurationLoader.builder()
+        Supplier<GsonConfigurationLoader.Builder> builders = () -> GsonConfigurationLoader.builder()
                 .defaultOptions(o -> {
                     o = o.serializers(s -> FilePermissionsExConfiguration.populateSerializers(s)
                             .register(SubjectRefSerializer.TYPE, new SubjectRefSerializer(this.context(), null)));
@@ -104,10 +140,11 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
                         return o;
                     }
                 })
-                .path(path)
                 .indent(4)
-                .lenient(true)
-                .build();
+                .lenient(true);
+        Function<Path, ConfigurationLoader<? extends BasicConfigurationNode>> loaderFunc = path -> config().snapshot
+                ? new SnapshotLoader(builders, path, this.context().logger())
+                : builders.get().path(path).build();
 
         ConfigurationReference<BasicConfigurationNode> ret;
         if (this.reloadService != null) {
@@ -130,7 +167,29 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
      * @param newNode The updated node
      */
     private void refresh(ConfigurationNode newNode) {
+        final @Nullable ConfigurationNode oldRoot = this.lastRoot;
+        this.lastRoot = newNode;
+        final long generation = this.generation.incrementAndGet();
+        reindex(newNode);
+
+        // Keep cached subjects whose section of the file is unchanged, and drop the rest
+        final Set<Map.Entry<String, String>> unchanged = new HashSet<>();
+        for (final Map.Entry<String, String> key : this.subjectCache.keySet()) {
+            this.subjectCache.computeIfPresent(key, (k, existing) -> {
+                if (oldRoot != null && Objects.equals(
+                    oldRoot.node(KEY_SUBJECTS, k.getKey(), k.getValue()).raw(),
+                    newNode.node(KEY_SUBJECTS, k.getKey(), k.getValue()).raw())) {
+                    unchanged.add(k);
+                    return new CachedSubject(generation, existing.data);
+                }
+                return null;
+            });
+        }
+
         this.listeners.getAllKeys().forEach(key -> {
+            if (unchanged.contains(key)) {
+                return;
+            }
             try {
                 this.listeners.call(key, getDataSync(key.getKey(), key.getValue()));
             } catch (PermissionsLoadingException e) {
@@ -145,6 +204,16 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
                 this.contextInheritanceListeners.call(key, getContextInheritanceInternal().join()));
 
         this.context().logger().info(Messages.FILE_RELOAD_AUTO.tr(config().file));
+        this.context().logger().debug("{} of {} cached subjects were unchanged by the reload", unchanged.size(), this.subjectCache.size());
+    }
+
+    /**
+     * Reload the data file from disk, notifying listeners of any subjects that changed.
+     *
+     * @throws ConfigurateException if unable to read the file
+     */
+    void reload() throws ConfigurateException {
+        this.permissionsConfig.load();
     }
 
     private Path migrateLegacy(Path permissionsFile, String extension, ConfigurationLoader<?> legacyLoader, String formatName) throws PermissionsLoadingException {
@@ -163,6 +232,7 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
 
     @Override
     protected void load() throws PermissionsLoadingException {
+        this.saves = new SaveScheduler(this::write, this.context().asyncExecutor(), config().saveDelay);
         if (config().autoReload) {
             try {
                 reloadService = WatchServiceListener.builder()
@@ -215,10 +285,45 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
                 throw new PermissionsLoadingException(Messages.FILE_ERROR_SCHEMA_MIGRATION_SAVE.tr(), ex);
             }
         }
+        final ConfigurationNode root = this.permissionsConfig.node();
+        this.lastRoot = root;
+        reindex(root);
+    }
+
+    /**
+     * Rebuild the metadata index from the contents of the data file.
+     *
+     * @param root the root node of the data file
+     */
+    private void reindex(final ConfigurationNode root) {
+        final Map<String, Integer> counts = new HashMap<>();
+        final Map<Map.Entry<String, String>, Set<String>> keys = new HashMap<>();
+        for (final Map.Entry<Object, ? extends ConfigurationNode> type : root.node(KEY_SUBJECTS).childrenMap().entrySet()) {
+            if (!type.getValue().isMap()) {
+                continue;
+            }
+            final String typeName = type.getKey().toString();
+            final Map<Object, ? extends ConfigurationNode> subjects = type.getValue().childrenMap();
+            counts.put(typeName, subjects.size());
+            for (final Map.Entry<Object, ? extends ConfigurationNode> subject : subjects.entrySet()) {
+                final Set<String> subjectKeys = FileSubjectData.contextKeys(subject.getValue());
+                if (!subjectKeys.isEmpty()) {
+                    keys.put(immutableMapEntry(typeName, subject.getKey().toString()), subjectKeys);
+                }
+            }
+        }
+        indexSubjects(counts, keys);
     }
 
     @Override
     public void close() {
+        if (this.saves != null) {
+            try {
+                this.saves.close();
+            } catch (final IOException e) {
+                this.context().logger().error(Messages.FILE_ERROR_SAVE.tr(config().file), e);
+            }
+        }
         if (this.reloadService != null) {
             try {
                 this.reloadService.close();
@@ -230,28 +335,50 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
     }
 
     private ConfigurationNode getSubjectsNode() {
-        return this.permissionsConfig.get("subjects");
+        return this.permissionsConfig.get(KEY_SUBJECTS);
     }
 
+    /**
+     * Mark the data file as changed, scheduling a write.
+     *
+     * @return a future completing once the change is written
+     */
     private CompletableFuture<Void> save() {
-        if (this.saveSuppressed.get() <= 0) {
-            return Util.asyncFailableFuture(() -> {
-                saveSync();
-                return null;
-            }, this.context().asyncExecutor());
-        } else {
-            return completedFuture(null);
-        }
+        return this.saves.markDirty();
     }
 
-    private void saveSync() throws ConfigurateException {
-        if (this.saveSuppressed.get() <= 0) {
-            if (this.dirty.compareAndSet(true, false)) {
-                this.permissionsConfig.save();
-            }
+    private void write(final int changes) throws ConfigurateException {
+        // Configurate writes to a temporary file and moves it into place, so readers never see a partial file
+        this.permissionsConfig.save();
+        if (changes > 1) {
+            this.context().logger().debug("Wrote {} changes to {} at once", changes, config().file);
         }
     }
 
+    /**
+     * Get the number of times the data file has been written.
+     *
+     * @return the number of writes
+     */
+    public long writeCount() {
+        return this.saves.writes();
+    }
+
+    /**
+     * Get the number of changes that were merged into a write alongside others, rather than
+     * written on their own.
+     *
+     * @return the number of writes avoided
+     */
+    public long skippedWriteCount() {
+        return this.saves.skippedWrites();
+    }
+
+    @Override
+    public void reportStatistics(final Consumer<Component> receiver) {
+        receiver.accept(Messages.FILE_STATISTICS_WRITES.tr(this.writeCount(), this.skippedWriteCount()));
+    }
+
     @Override
     public CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier) {
         try {
@@ -262,35 +389,65 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
     }
 
     private ImmutableSubjectData getDataSync(String type, String identifier) throws PermissionsLoadingException {
+        final long generation = this.generation.get();
         try {
-            return FileSubjectData.fromNode(getSubjectsNode().node(type, identifier));
-        } catch (SerializationException e) {
-            throw new PermissionsLoadingException(Messages.FILE_ERROR_DESERIALIZE_SUBJECT.tr(), e);
+            return this.subjectCache.compute(immutableMapEntry(type, identifier), (key, existing) -> {
+                if (existing != null && existing.generation == generation) {
+                    return existing;
+                }
+                try {
+                    return new CachedSubject(generation, FileSubjectData.fromNode(getSubjectsNode().node(type, identifier)));
+                } catch (final SerializationException | PermissionsLoadingException e) {
+                    throw new CompletionException(e);
+                }
+            }).data;
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof PermissionsLoadingException) {
+                throw (PermissionsLoadingException) e.getCause();
+            }
+            throw new PermissionsLoadingException(Messages.FILE_ERROR_DESERIALIZE_SUBJECT.tr(), e.getCause());
         }
     }
 
     @Override
     protected CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, final @Nullable ImmutableSubjectData data) {
-        try {
-            if (data == null) {
-                getSubjectsNode().node(type, identifier).raw(null);
-                dirty.set(true);
-                return save().thenApply(input -> null);
-            }
+        final Map.Entry<String, String> key = immutableMapEntry(type, identifier);
+        if (data == null) {
+            this.subjectCache.compute(key, (k, existing) -> {
+                final ConfigurationNode node = getSubjectsNode().node(type, identifier);
+                final boolean existed = !node.virtual();
+                node.raw(null);
+                indexSubject(type, identifier, existed, null);
+                return null;
+            });
+            return save().thenApply(input -> null);
+        }
 
-            final FileSubjectData fileData;
+        final FileSubjectData fileData;
 
-            if (data instanceof FileSubjectData) {
-                fileData = (FileSubjectData) data;
-            } else {
-                fileData = (FileSubjectData) new FileSubjectData().mergeFrom(data);
-            }
-            fileData.serialize(getSubjectsNode().node(type, identifier));
-            dirty.set(true);
-            return save().thenApply(none -> fileData);
-        } catch (SerializationException e) {
-            return Util.failedFuture(e);
+        if (data instanceof FileSubjectData) {
+            fileData = (FileSubjectData) data;
+        } else {
+            fileData = (FileSubjectData) new FileSubjectData().mergeFrom(data);
         }
+        final long generation = this.generation.get();
+        try {
+            // Written under the cache entry's lock, so a concurrent read can't cache older data
+            this.subjectCache.compute(key, (k, existing) -> {
+                final ConfigurationNode node = getSubjectsNode().node(type, identifier);
+                final boolean existed = !node.virtual();
+                try {
+                    fileData.serialize(node);
+                } catch (final SerializationException e) {
+                    throw new CompletionException(e);
+                }
+                indexSubject(type, identifier, existed, FileSubjectData.contextKeys(node));
+                return new CachedSubject(generation, fileData);
+            });
+        } catch (final CompletionException e) {
+            return Util.failedFuture(e.getCause());
+        }
+        return save().thenApply(none -> fileData);
     }
 
     @Override
@@ -305,25 +462,6 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
                 .map(Objects::toString);
     }
 
-    @Override
-    public Set<String> getRegisteredTypes() {
-        return Collections.unmodifiableSet(getSubjectsNode().childrenMap().entrySet().stream()
-                .filter(ent -> ent.getValue().isMap())
-                .map(Map.Entry::getKey)
-                .map(Object::toString)
-                .collect(Collectors.toSet()));
-    }
-
-    @Override
-    public CompletableFuture<Set<String>> getDefinedContextKeys() {
-        return CompletableFuture.completedFuture(getSubjectsNode().childrenMap().values().stream() // list of types
-                .flatMap(typeNode -> typeNode.childrenMap().values().stream()) // list of subjects
-                .flatMap(subjectNode -> subjectNode.childrenList().stream()) // list of segments
-                .flatMap(segmentNode -> segmentNode.node(FileSubjectData.KEY_CONTEXTS).childrenMap().entrySet().stream()) // list of contexts
-                .map(ctx -> ctx.getKey().toString()) // of context objets
-                .collect(PCollections.toPSet())); // to a set
-    }
-
     @Override
     public Stream<Map.Entry<SubjectRef<?>, ImmutableSubjectData>> getAll() {
         return getSubjectsNode().childrenMap().keySet().stream() // all subject types
@@ -379,7 +517,6 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
         } catch (SerializationException e) {
             throw new RuntimeException(e);
         }
-        dirty.set(true);
         return save().thenApply(none -> realInheritance);
     }
 
@@ -396,20 +533,19 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore, FileDa
         } catch (final SerializationException ex) {
             return Util.failedFuture(ex);
         }
-        this.dirty.set(true);
         return save().thenApply(none -> ladder);
     }
 
     @Override
     protected <T> T performBulkOperationSync(final Function<DataStore, T> function) throws Exception {
-        this.saveSuppressed.getAndIncrement();
+        this.saves.suppress();
         T ret;
         try {
             ret = function.apply(this);
         } finally {
-            this.saveSuppressed.getAndDecrement();
+            this.saves.release();
         }
-        saveSync();
+        this.saves.flush();
         return ret;
     }
 
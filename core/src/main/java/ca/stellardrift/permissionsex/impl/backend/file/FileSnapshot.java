@@ -0,0 +1,260 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary copy of a configuration tree, tied to the exact contents of the text file it
+ * was made from.
+ *
+ * <p>A snapshot holds a table of every distinct string in the tree, followed by the tree itself
+ * with strings stored as indices into the table. The header records the length and CRC-32 checksum
+ * of the text file, and a snapshot is only used when both still match.</p>
+ */
+final class FileSnapshot {
+    private static final int MAGIC = 0x50455853; // PEXS
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_MAP = 1;
+    private static final byte TAG_LIST = 2;
+    private static final byte TAG_STRING = 3;
+    private static final byte TAG_INT = 4;
+    private static final byte TAG_LONG = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_TRUE = 7;
+    private static final byte TAG_FALSE = 8;
+
+    private FileSnapshot() {
+    }
+
+    /**
+     * Compute the checksum of some file contents.
+     *
+     * @param contents the file contents
+     * @return the checksum
+     */
+    static long checksum(final byte[] contents) {
+        final CRC32 crc = new CRC32();
+        crc.update(contents, 0, contents.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Read the tree held in a snapshot, if the snapshot matches the given file contents.
+     *
+     * @param snapshot the snapshot file
+     * @param length the length of the text file
+     * @param checksum the checksum of the text file
+     * @return the raw value of the tree, or {@code null} if the snapshot is missing, stale, or unreadable
+     */
+    static @Nullable Object read(final Path snapshot, final long length, final long checksum) {
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC
+                || buffer.getInt() != FORMAT_VERSION
+                || buffer.getLong() != length
+                || buffer.getLong() != checksum) {
+                return null;
+            }
+
+            final String[] strings = new String[buffer.getInt()];
+            final byte[] scratch = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                final int size = buffer.getInt();
+                final byte[] bytes = size <= scratch.length ? scratch : new byte[size];
+                buffer.get(bytes, 0, size);
+                strings[i] = new String(bytes, 0, size, StandardCharsets.UTF_8);
+            }
+            return readValue(buffer, strings);
+        } catch (final IOException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ex) {
+            // A damaged snapshot is just a missed shortcut, the text file is still there
+            return null;
+        }
+    }
+
+    private static @Nullable Object readValue(final ByteBuffer buffer, final String[] strings) {
+        final byte tag = buffer.get();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_MAP: {
+                final int size = buffer.getInt();
+                final Map<String, @Nullable Object> map = new LinkedHashMap<>(size * 4 / 3 + 1);
+                for (int i = 0; i < size; i++) {
+                    final String key = strings[buffer.getInt()];
+                    map.put(key, readValue(buffer, strings));
+                }
+                return map;
+            }
+            case TAG_LIST: {
+                final int size = buffer.getInt();
+                final List<@Nullable Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer, strings));
+                }
+                return list;
+            }
+            case TAG_STRING:
+                return strings[buffer.getInt()];
+            case TAG_INT:
+                return buffer.getInt();
+            case TAG_LONG:
+                return buffer.getLong();
+            case TAG_DOUBLE:
+                return buffer.getDouble();
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            default:
+                throw new IllegalArgumentException("Unknown snapshot value tag " + tag);
+        }
+    }
+
+    /**
+     * Write a snapshot of a tree, replacing any existing snapshot.
+     *
+     * @param snapshot the snapshot file
+     * @param node the tree to write
+     * @param length the length of the text file the tree was written to
+     * @param checksum the checksum of the text file the tree was written to
+     * @throws IOException if unable to write, or if the tree holds a value the snapshot format
+     *     can't represent
+     */
+    static void write(final Path snapshot, final ConfigurationNode node, final long length, final long checksum) throws IOException {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        collectStrings(node, strings);
+
+        final Path temp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(length);
+            out.writeLong(checksum);
+            out.writeInt(strings.size());
+            for (final String value : strings.keySet()) {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            writeValue(out, node, strings);
+        } catch (final IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+
+        try {
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException ex) {
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void collectStrings(final ConfigurationNode node, final Map<String, Integer> strings) {
+        if (node.isMap()) {
+            for (final Map.Entry<Object, ? extends ConfigurationNode> child : node.childrenMap().entrySet()) {
+                strings.putIfAbsent(child.getKey().toString(), strings.size());
+                collectStrings(child.getValue(), strings);
+            }
+        } else if (node.isList()) {
+            for (final ConfigurationNode child : node.childrenList()) {
+                collectStrings(child, strings);
+            }
+        } else {
+            final @Nullable Object value = node.rawScalar();
+            if (value instanceof String) {
+                strings.putIfAbsent((String) value, strings.size());
+            }
+        }
+    }
+
+    private static void writeValue(final DataOutputStream out, final ConfigurationNode node, final Map<String, Integer> strings) throws IOException {
+        if (node.isMap()) {
+            final Map<Object, ? extends ConfigurationNode> children = node.childrenMap();
+            out.writeByte(TAG_MAP);
+            out.writeInt(children.size());
+            for (final Map.Entry<Object, ? extends ConfigurationNode> child : children.entrySet()) {
+                out.writeInt(strings.get(child.getKey().toString()));
+                writeValue(out, child.getValue(), strings);
+            }
+        } else if (node.isList()) {
+            final List<? extends ConfigurationNode> children = node.childrenList();
+            out.writeByte(TAG_LIST);
+            out.writeInt(children.size());
+            for (final ConfigurationNode child : children) {
+                writeValue(out, child, strings);
+            }
+        } else {
+            final @Nullable Object value = node.rawScalar();
+            if (value == null) {
+                out.writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                out.writeByte(TAG_STRING);
+                out.writeInt(strings.get(value));
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                out.writeByte(TAG_INT);
+                out.writeInt(((Number) value).intValue());
+            } else if (value instanceof Long) {
+                // Store numbers as the JSON parser would read them back, so both load paths agree
+                final long longValue = (Long) value;
+                if ((int) longValue == longValue) {
+                    out.writeByte(TAG_INT);
+                    out.writeInt((int) longValue);
+                } else {
+                    out.writeByte(TAG_LONG);
+                    out.writeLong(longValue);
+                }
+            } else if (value instanceof Float) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(Double.parseDouble(value.toString()));
+            } else if (value instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else {
+                throw new IOException("Unable to store value of " + value.getClass() + " in a snapshot");
+            }
+        }
+    }
+}
@@ -32,6 +32,22 @@ import java.util.Set;
 public final class FileSubjectData extends MemorySubjectData {
     static final String KEY_CONTEXTS = "contexts";
 
+    /**
+     * Get the context keys used by a subject's segments, without deserializing the subject.
+     *
+     * @param node the subject's node
+     * @return the context keys
+     */
+    static PSet<String> contextKeys(final ConfigurationNode node) {
+        PSet<String> keys = PCollections.set();
+        for (final ConfigurationNode segment : node.childrenList()) {
+            for (final Object key : segment.node(KEY_CONTEXTS).childrenMap().keySet()) {
+                keys = keys.plus(key.toString());
+            }
+        }
+        return keys;
+    }
+
     static FileSubjectData fromNode(ConfigurationNode node) throws SerializationException, PermissionsLoadingException {
         PMap<PSet<ContextValue<?>>, MemorySegment> map = PCollections.map();
         if (node.isList()) {
@@ -0,0 +1,218 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Schedules writes of a data file, merging changes made close together into a single write.
+ *
+ * <p>Each change is reported with {@link #markDirty()}. A write starts once the configured delay
+ * has passed since the first unsaved change, and covers every change made until it begins. Changes
+ * made while a write is running are collected for the next one. Writes are held back entirely
+ * while a bulk operation is in progress.</p>
+ */
+final class SaveScheduler {
+    private static final CompletableFuture<Void> COMPLETE = CompletableFuture.completedFuture(null);
+
+    private final Writer writer;
+    private final Executor executor;
+    private final long delayMillis;
+    private final @Nullable ScheduledExecutorService timer;
+    private final Object writeLock = new Object();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong skippedWrites = new AtomicLong();
+
+    // guarded by this
+    private int suppressed;
+    private int pendingChanges;
+    private @Nullable CompletableFuture<Void> pending;
+    private boolean scheduled;
+
+    /**
+     * Perform the actual write of the data file.
+     */
+    @FunctionalInterface
+    interface Writer {
+        /**
+         * Write the current state of the data.
+         *
+         * @param changes the number of changes covered by this write
+         * @throws IOException if unable to write
+         */
+        void write(int changes) throws IOException;
+    }
+
+    SaveScheduler(final Writer writer, final Executor executor, final long delayMillis) {
+        this.writer = requireNonNull(writer, "writer");
+        this.executor = requireNonNull(executor, "executor");
+        this.delayMillis = delayMillis;
+        if (delayMillis > 0) {
+            this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+                final Thread thread = new Thread(task, "PermissionsEx file save timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Record that data has changed and must be written.
+     *
+     * @return a future completing once the change has been written, or immediately if a bulk
+     *     operation is in progress
+     */
+    CompletableFuture<Void> markDirty() {
+        final CompletableFuture<Void> ret;
+        synchronized (this) {
+            if (this.pending == null) {
+                this.pending = new CompletableFuture<>();
+            } else {
+                this.skippedWrites.incrementAndGet();
+            }
+            this.pendingChanges++;
+            if (this.suppressed > 0) {
+                return COMPLETE;
+            }
+            ret = this.pending;
+            if (this.scheduled) {
+                return ret;
+            }
+            this.scheduled = true;
+        }
+        schedule();
+        return ret;
+    }
+
+    /**
+     * Hold back writes until a matching call to {@link #release()}.
+     */
+    synchronized void suppress() {
+        this.suppressed++;
+    }
+
+    /**
+     * Release one level of suppression, scheduling a write for any changes made in the meantime.
+     */
+    void release() {
+        synchronized (this) {
+            if (--this.suppressed > 0 || this.pending == null || this.scheduled) {
+                return;
+            }
+            this.scheduled = true;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (this.timer != null) {
+            this.timer.schedule(() -> this.executor.execute(this::run), this.delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.executor.execute(this::run);
+        }
+    }
+
+    private void run() {
+        synchronized (this) {
+            this.scheduled = false;
+            if (this.suppressed > 0) {
+                return; // picked up again on release
+            }
+        }
+        try {
+            flush();
+        } catch (final IOException ex) {
+            // already passed on to everyone waiting for this write
+        }
+    }
+
+    /**
+     * Write any pending changes immediately, on the calling thread.
+     *
+     * @throws IOException if unable to write
+     */
+    void flush() throws IOException {
+        synchronized (this.writeLock) {
+            final @Nullable CompletableFuture<Void> toComplete;
+            final int changes;
+            synchronized (this) {
+                toComplete = this.pending;
+                changes = this.pendingChanges;
+                this.pending = null;
+                this.pendingChanges = 0;
+            }
+            if (toComplete == null) {
+                return;
+            }
+
+            try {
+                this.writer.write(changes);
+                this.writes.incrementAndGet();
+                toComplete.complete(null);
+            } catch (final IOException | RuntimeException ex) {
+                toComplete.completeExceptionally(ex);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Write any pending changes and stop the save timer.
+     *
+     * @throws IOException if unable to write
+     */
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (this.timer != null) {
+                this.timer.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Get the number of writes performed.
+     *
+     * @return the write count
+     */
+    long writes() {
+        return this.writes.get();
+    }
+
+    /**
+     * Get the number of changes that were merged into another change's write rather than being
+     * written on their own.
+     *
+     * @return the skipped write count
+     */
+    long skippedWrites() {
+        return this.skippedWrites.get();
+    }
+}
@@ -0,0 +1,835 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import ca.stellardrift.permissionsex.context.ContextInheritance;
+import ca.stellardrift.permissionsex.datastore.DataStore;
+import ca.stellardrift.permissionsex.datastore.DataStoreContext;
+import ca.stellardrift.permissionsex.datastore.DataStoreFactory;
+import ca.stellardrift.permissionsex.datastore.ProtoDataStore;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.impl.backend.AbstractDataStore;
+import ca.stellardrift.permissionsex.impl.backend.memory.MemoryContextInheritance;
+import ca.stellardrift.permissionsex.impl.config.FilePermissionsExConfiguration;
+import ca.stellardrift.permissionsex.impl.config.SubjectRefSerializer;
+import ca.stellardrift.permissionsex.impl.rank.FixedRankLadder;
+import ca.stellardrift.permissionsex.impl.util.PCollections;
+import ca.stellardrift.permissionsex.impl.util.Util;
+import ca.stellardrift.permissionsex.rank.RankLadder;
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.subject.SubjectRef;
+import com.google.auto.service.AutoService;
+import net.kyori.adventure.text.Component;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pcollections.PSet;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+import org.spongepowered.configurate.objectmapping.ConfigSerializable;
+import org.spongepowered.configurate.objectmapping.meta.Comment;
+import org.spongepowered.configurate.objectmapping.meta.Setting;
+import org.spongepowered.configurate.serialize.SerializationException;
+import org.spongepowered.configurate.util.MapFactories;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.spongepowered.configurate.util.UnmodifiableCollections.immutableMapEntry;
+
+/**
+ * A file data store that spreads subjects across many smaller files.
+ *
+ * <p>Each subject type has its own directory, holding a fixed number of bucket files that
+ * subjects are assigned to by a hash of their identifier. Buckets are only read when a subject
+ * in them is first requested, and only buckets that have changed are written back. Once more
+ * buckets than configured are in memory, the least recently used buckets without unsaved changes
+ * are unloaded again. Rank ladders and context inheritance are kept in a separate global file.</p>
+ *
+ * <p>The number of subjects of each type and the context keys they use are saved to an index file
+ * whenever buckets are written, so they are known at startup without reading every bucket. If the
+ * index is missing, every bucket is read once in the background to rebuild it.</p>
+ */
+public final class ShardedFileDataStore extends AbstractDataStore<ShardedFileDataStore, ShardedFileDataStore.Config> {
+    static final String KEY_SCHEMA_VERSION = "schema-version";
+    static final String KEY_BUCKETS = "buckets";
+    static final String SUBJECTS_DIRECTORY = "subjects";
+    static final String GLOBAL_FILE = "global.json";
+    static final String INDEX_FILE = "index.json";
+    private static final String KEY_SUBJECTS = "subjects";
+    private static final String KEY_COUNT = "count";
+    private static final String KEY_CONTEXT_KEYS = "context-keys";
+    private static final String EXTENSION = ".json";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    @ConfigSerializable
+    static class Config {
+        @Setting
+        @Comment("Directory to store data in, relative to the PermissionsEx data folder")
+        String directory = "permissions";
+        @Setting
+        @Comment("Number of files the subjects of each type are spread across. Only used when the directory is first created")
+        int buckets = 256;
+        @Setting
+        @Comment("Place file entries in alphabetical order")
+        boolean alphabetizeEntries = false;
+        @Setting
+        @Comment("Milliseconds to wait after a change before writing changed files, so changes made close together are written at once")
+        long saveDelay = 0;
+        @Setting
+        @Comment("Number of files to keep in memory once read, across all subject types. Unchanged files beyond this are unloaded, least recently used first. -1 keeps every file")
+        int cachedBuckets = 1024;
+    }
+
+    private @MonotonicNonNull Path directory;
+    private @MonotonicNonNull Shard global;
+    private @MonotonicNonNull SaveScheduler saves;
+    private int buckets;
+    private final ConcurrentMap<Map.Entry<String, Integer>, Shard> shards = new ConcurrentHashMap<>();
+    // Buckets whose subjects are in the metadata index, which stay indexed when the bucket is unloaded
+    private final Set<Map.Entry<String, Integer>> indexedBuckets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong shardUses = new AtomicLong();
+    // Changes made to subjects, counted before each change is applied
+    private final AtomicLong subjectChanges = new AtomicLong();
+    // The subject changes covered by the index file on disk, or -1 if it may be out of date. Only used while writing
+    private long writtenIndexChanges = -1;
+    private volatile boolean indexComplete;
+    private volatile boolean closed;
+    private @MonotonicNonNull CompletableFuture<Void> indexed;
+
+    public ShardedFileDataStore(final DataStoreContext context, final ProtoDataStore<Config> properties) {
+        super(context, properties);
+    }
+
+    /**
+     * A single data file, read on first use and written only when it has changed.
+     */
+    static final class Shard {
+        private final GsonConfigurationLoader loader;
+        private final Path file;
+        final BasicConfigurationNode node;
+        private boolean dirty; // guarded by this
+        // set while holding this, once this shard has been removed from the loaded shards
+        private volatile boolean evicted;
+        volatile long lastUsed;
+
+        Shard(final GsonConfigurationLoader loader, final Path file) throws ConfigurateException {
+            this.loader = loader;
+            this.file = file;
+            this.node = loader.load();
+        }
+
+        synchronized void markDirty() {
+            this.dirty = true;
+        }
+
+        /**
+         * Write this file if it has changed since it was last written.
+         *
+         * @return whether the file was written
+         * @throws IOException if unable to write
+         */
+        synchronized boolean save() throws IOException {
+            if (!this.dirty) {
+                return false;
+            }
+            Files.createDirectories(this.file.getParent());
+            this.loader.save(this.node);
+            this.dirty = false;
+            return true;
+        }
+
+        /**
+         * Mark this file as unloaded, unless it has unsaved changes.
+         *
+         * <p>Changes must not be made to an evicted shard, and should instead be made
+         * to a newly loaded copy of the file.</p>
+         *
+         * @return whether the shard can be unloaded
+         */
+        synchronized boolean evict() {
+            if (this.dirty) {
+                return false;
+            }
+            this.evicted = true;
+            return true;
+        }
+
+        boolean evicted() {
+            return this.evicted;
+        }
+    }
+
+    private GsonConfigurationLoader createLoader(final Path file) {
+        return GsonConfigurationLoader.builder()
+                .defaultOptions(o -> {
+                    o = o.serializers(s -> FilePermissionsExConfiguration.populateSerializers(s)
+                            .register(SubjectRefSerializer.TYPE, new SubjectRefSerializer(this.context(), null)));
+                    if (config().alphabetizeEntries) {
+                        return o.mapFactory(MapFactories.sortedNatural());
+                    } else {
+                        return o;
+                    }
+                })
+                .path(file)
+                .indent(4)
+                .lenient(true)
+                .build();
+    }
+
+    private Shard loadShard(final Path file) throws PermissionsLoadingException {
+        try {
+            return new Shard(createLoader(file), file);
+        } catch (final ConfigurateException e) {
+            throw new PermissionsLoadingException(Messages.FILE_ERROR_LOAD.tr(file), e);
+        }
+    }
+
+    @Override
+    protected void load() throws PermissionsLoadingException {
+        this.directory = this.context().baseDirectory().resolve(config().directory);
+        this.saves = new SaveScheduler(this::write, this.context().asyncExecutor(), config().saveDelay);
+        this.global = loadShard(this.directory.resolve(GLOBAL_FILE));
+
+        if (this.global.node.childrenMap().isEmpty()) { // New data store, populate with default data
+            if (config().buckets <= 0) {
+                throw new PermissionsLoadingException(Messages.FILE_ERROR_BUCKETS.tr(config().buckets));
+            }
+            this.buckets = config().buckets;
+            this.indexComplete = true; // nothing to read yet
+            try {
+                performBulkOperationSync(input -> {
+                    this.global.node.node(KEY_BUCKETS).raw(this.buckets);
+                    this.global.node.node(KEY_SCHEMA_VERSION).raw(SchemaMigrations.LATEST_VERSION);
+                    this.global.markDirty();
+                    applyDefaultData();
+                    return null;
+                });
+            } catch (final PermissionsLoadingException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new PermissionsLoadingException(Messages.FILE_ERROR_INITIAL_DATA.tr(), e);
+            }
+            this.markFirstRun();
+        } else {
+            // Subjects are placed by bucket count, so the count the data was written with always wins
+            this.buckets = this.global.node.node(KEY_BUCKETS).getInt();
+            if (this.buckets <= 0) {
+                throw new PermissionsLoadingException(Messages.FILE_ERROR_BUCKETS.tr(this.buckets));
+            }
+        }
+        if (this.indexComplete || loadIndex()) {
+            this.indexComplete = true;
+            this.indexed = completedFuture(null);
+        } else {
+            // Index every subject in the background, rather than on the first thread asking about them
+            this.indexed = runAsync(this::loadAllShards);
+        }
+    }
+
+    private GsonConfigurationLoader createIndexLoader() {
+        return GsonConfigurationLoader.builder()
+                .path(this.directory.resolve(INDEX_FILE))
+                .indent(4)
+                .build();
+    }
+
+    /**
+     * Read the saved index, if it is present and was written for the current number of buckets.
+     *
+     * @return whether the index was read
+     */
+    private boolean loadIndex() {
+        final Path file = this.directory.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try {
+            final BasicConfigurationNode index = createIndexLoader().load();
+            if (index.node(KEY_BUCKETS).getInt() != this.buckets) {
+                return false;
+            }
+            final Map<String, Integer> counts = new HashMap<>();
+            final Map<Map.Entry<String, String>, Set<String>> keys = new HashMap<>();
+            for (final Map.Entry<Object, BasicConfigurationNode> type : index.node(KEY_SUBJECTS).childrenMap().entrySet()) {
+                final String typeName = type.getKey().toString();
+                counts.put(typeName, type.getValue().node(KEY_COUNT).getInt());
+                for (final Map.Entry<Object, BasicConfigurationNode> subject : type.getValue().node(KEY_CONTEXT_KEYS).childrenMap().entrySet()) {
+                    keys.put(immutableMapEntry(typeName, subject.getKey().toString()), new HashSet<>(subject.getValue().getList(String.class, Collections.emptyList())));
+                }
+            }
+            indexSubjects(counts, keys);
+            this.writtenIndexChanges = 0;
+            return true;
+        } catch (final ConfigurateException e) {
+            this.context().logger().warn(Messages.FILE_ERROR_INDEX_LOAD.tr(file), e);
+            return false;
+        }
+    }
+
+    /**
+     * Write the contents of the metadata index to the index file.
+     *
+     * @param counts the number of subjects of each type
+     * @param keys the context keys used by each subject
+     * @throws IOException if unable to write
+     */
+    private void writeIndex(final Map<String, Integer> counts, final Map<Map.Entry<String, String>, PSet<String>> keys) throws IOException {
+        final GsonConfigurationLoader loader = createIndexLoader();
+        final BasicConfigurationNode index = loader.createNode();
+        index.node(KEY_BUCKETS).raw(this.buckets);
+        final BasicConfigurationNode subjects = index.node(KEY_SUBJECTS);
+        counts.forEach((type, count) -> subjects.node(type, KEY_COUNT).raw(count));
+        for (final Map.Entry<Map.Entry<String, String>, PSet<String>> subject : keys.entrySet()) {
+            subjects.node(subject.getKey().getKey(), KEY_CONTEXT_KEYS, subject.getKey().getValue())
+                .setList(String.class, new ArrayList<>(subject.getValue()));
+        }
+        Files.createDirectories(this.directory);
+        loader.save(index);
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.indexed != null) {
+            // Stops at the next bucket, and must be done before the last write
+            this.indexed.exceptionally(err -> null).join();
+        }
+        if (this.saves != null) {
+            try {
+                this.saves.close();
+            } catch (final IOException e) {
+                this.context().logger().error(Messages.FILE_ERROR_SAVE.tr(this.directory), e);
+            }
+        }
+    }
+
+    @Override
+    public void reportStatistics(final Consumer<Component> receiver) {
+        receiver.accept(Messages.FILE_STATISTICS_WRITES.tr(this.saves.writes(), this.saves.skippedWrites()));
+    }
+
+    private void write(final int changes) throws IOException {
+        // The index file must never count changes that are not yet in their bucket, so it is removed
+        // before buckets are written, and written again only if no subject changed in the meantime
+        final long subjectChanges = this.subjectChanges.get();
+        final boolean indexOutdated = this.indexComplete && subjectChanges != this.writtenIndexChanges;
+        if (indexOutdated) {
+            Files.deleteIfExists(this.directory.resolve(INDEX_FILE));
+            this.writtenIndexChanges = -1;
+        }
+        int written = this.global.save() ? 1 : 0;
+        for (final Shard shard : this.shards.values()) {
+            if (shard.save()) {
+                written++;
+            }
+        }
+        if (indexOutdated) {
+            final Map<String, Integer> counts = this.metadata().subjectCounts();
+            final Map<Map.Entry<String, String>, PSet<String>> keys = this.metadata().subjectKeys();
+            if (this.subjectChanges.get() == subjectChanges) {
+                writeIndex(counts, keys);
+                this.writtenIndexChanges = subjectChanges;
+            }
+        }
+        this.context().logger().debug("Wrote {} changes across {} files in {}", changes, written, this.directory);
+        trimShards(config().cachedBuckets); // shards that had unsaved changes can now be unloaded
+    }
+
+    /**
+     * Unload the least recently used shards without unsaved changes, until at most {@code limit} are loaded.
+     *
+     * <p>Once over the limit, shards are unloaded down to three quarters of it, so a
+     * burst of loads does not sort the loaded shards every time. The most recently used
+     * shard is always kept, so a shard that was just loaded can be used.</p>
+     *
+     * @param limit the maximum number of shards to keep, or {@code -1} for no limit
+     */
+    void trimShards(final int limit) {
+        if (limit < 0 || this.shards.size() <= Math.max(limit, 1)) {
+            return;
+        }
+        final List<Map.Entry<Map.Entry<String, Integer>, Shard>> candidates = new ArrayList<>(this.shards.entrySet());
+        candidates.sort(Comparator.comparingLong(ent -> ent.getValue().lastUsed));
+        int excess = candidates.size() - Math.max(limit * 3 / 4, 1);
+        for (final Map.Entry<Map.Entry<String, Integer>, Shard> candidate : candidates) {
+            if (excess <= 0) {
+                break;
+            }
+            if (candidate.getValue().evict()) {
+                this.shards.remove(candidate.getKey(), candidate.getValue());
+                excess--;
+            }
+        }
+    }
+
+    private Path typeDirectory(final String type) {
+        return this.directory.resolve(SUBJECTS_DIRECTORY).resolve(escapeType(type));
+    }
+
+    /**
+     * Encode a subject type as a single directory name.
+     *
+     * <p>Lower-case ASCII letters, digits, {@code -} and {@code _} are kept as-is. Every other
+     * character is written as {@code %} followed by the hex value of each of its UTF-8 bytes, so
+     * types can not reach outside the subjects directory, and types differing only in case stay
+     * apart on case-insensitive file systems.</p>
+     *
+     * @param type the subject type
+     * @return the directory name
+     */
+    static String escapeType(final String type) {
+        if (type.isEmpty()) {
+            throw new IllegalArgumentException("Subject types must not be empty");
+        }
+        final StringBuilder ret = new StringBuilder(type.length());
+        for (final byte b : type.getBytes(StandardCharsets.UTF_8)) {
+            final int c = b & 0xff;
+            if (isKeptInDirectoryName(c)) {
+                ret.append((char) c);
+            } else {
+                ret.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Decode a directory name created by {@link #escapeType(String)}.
+     *
+     * @param name the directory name
+     * @return the subject type, or {@code null} if the name was not created for a subject type
+     */
+    static @Nullable String unescapeType(final String name) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '%' && i + 2 < name.length()) {
+                final int high = Character.digit(name.charAt(i + 1), 16);
+                final int low = Character.digit(name.charAt(i + 2), 16);
+                if (high == -1 || low == -1) {
+                    return null;
+                }
+                bytes.write(high << 4 | low);
+                i += 2;
+            } else if (c < 0x80 && isKeptInDirectoryName(c)) {
+                bytes.write(c);
+            } else {
+                return null;
+            }
+        }
+        if (bytes.size() == 0) {
+            return null;
+        }
+        final String type = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        // only accept the one spelling escapeType produces
+        return escapeType(type).equals(name) ? type : null;
+    }
+
+    private static boolean isKeptInDirectoryName(final int c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    private int bucket(final String identifier) {
+        return Math.floorMod(identifier.hashCode(), this.buckets);
+    }
+
+    private Path bucketFile(final String type, final int bucket) {
+        return typeDirectory(type).resolve(Integer.toHexString(bucket) + EXTENSION);
+    }
+
+    private @Nullable Shard loadedShard(final String type, final String identifier) {
+        return this.shards.get(immutableMapEntry(type, bucket(identifier)));
+    }
+
+    private Shard shard(final String type, final int bucket) throws PermissionsLoadingException {
+        final Map.Entry<String, Integer> key = immutableMapEntry(type, bucket);
+        while (true) {
+            final @Nullable Shard existing = this.shards.get(key);
+            if (existing != null) {
+                if (existing.evicted()) { // being unloaded, so read the file again
+                    this.shards.remove(key, existing);
+                    continue;
+                }
+                existing.lastUsed = this.shardUses.incrementAndGet();
+                return existing;
+            }
+            final Shard created = loadShard(bucketFile(type, bucket));
+            created.lastUsed = this.shardUses.incrementAndGet();
+            // Hold the new shard until its subjects are indexed, so no change can be indexed first
+            synchronized (created) {
+                final @Nullable Shard raced = this.shards.putIfAbsent(key, created);
+                if (raced != null) {
+                    continue;
+                }
+                if (!this.indexComplete && this.indexedBuckets.add(key)) {
+                    for (final Map.Entry<Object, ? extends ConfigurationNode> subject : created.node.childrenMap().entrySet()) {
+                        indexSubject(type, subject.getKey().toString(), false, FileSubjectData.contextKeys(subject.getValue()));
+                    }
+                }
+            }
+            trimShards(config().cachedBuckets);
+            return created;
+        }
+    }
+
+    private Shard shard(final String type, final String identifier) throws PermissionsLoadingException {
+        return shard(type, bucket(identifier));
+    }
+
+    /**
+     * Get every bucket of a type that has any data, loading them if necessary.
+     *
+     * @param type the subject type
+     * @return the type's buckets
+     */
+    private List<Shard> shards(final String type) {
+        final List<Shard> ret = new ArrayList<>();
+        for (int i = 0; i < this.buckets; i++) {
+            final @Nullable Shard loaded = this.shards.get(immutableMapEntry(type, i));
+            if (loaded != null) {
+                ret.add(loaded);
+            } else if (Files.isRegularFile(bucketFile(type, i))) {
+                try {
+                    ret.add(shard(type, i));
+                } catch (final PermissionsLoadingException ex) {
+                    this.context().logger().error(Messages.FILE_ERROR_LOAD.tr(bucketFile(type, i)), ex);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of bucket files currently held in memory.
+     *
+     * @return the loaded bucket count
+     */
+    int loadedShardCount() {
+        return this.shards.size();
+    }
+
+    @Override
+    public CompletableFuture<ImmutableSubjectData> getDataInternal(final String type, final String identifier) {
+        if (loadedShard(type, identifier) == null) {
+            // Keep disk reads off the calling thread
+            return runAsync(() -> getDataSync(type, identifier));
+        }
+        try {
+            return completedFuture(getDataSync(type, identifier));
+        } catch (final PermissionsLoadingException e) {
+            return Util.failedFuture(e);
+        }
+    }
+
+    private ImmutableSubjectData getDataSync(final String type, final String identifier) throws PermissionsLoadingException {
+        final Shard shard = shard(type, identifier);
+        try {
+            synchronized (shard) {
+                return FileSubjectData.fromNode(shard.node.node(identifier));
+            }
+        } catch (final SerializationException e) {
+            throw new PermissionsLoadingException(Messages.FILE_ERROR_DESERIALIZE_SUBJECT.tr(), e);
+        }
+    }
+
+    @Override
+    protected CompletableFuture<ImmutableSubjectData> setDataInternal(final String type, final String identifier, final @Nullable ImmutableSubjectData data) {
+        try {
+            final @Nullable FileSubjectData fileData;
+            if (data == null) {
+                fileData = null;
+            } else if (data instanceof FileSubjectData) {
+                fileData = (FileSubjectData) data;
+            } else {
+                fileData = (FileSubjectData) new FileSubjectData().mergeFrom(data);
+            }
+
+            Shard shard = shard(type, identifier);
+            while (true) {
+                synchronized (shard) {
+                    if (!shard.evicted()) {
+                        this.subjectChanges.incrementAndGet();
+                        final ConfigurationNode node = shard.node.node(identifier);
+                        final boolean existed = !node.virtual();
+                        if (fileData == null) {
+                            node.raw(null);
+                            indexSubject(type, identifier, existed, null);
+                        } else {
+                            fileData.serialize(node);
+                            indexSubject(type, identifier, existed, FileSubjectData.contextKeys(node));
+                        }
+                        shard.markDirty();
+                        break;
+                    }
+                }
+                shard = shard(type, identifier); // unloaded since it was looked up, so change a fresh copy
+            }
+            return this.saves.markDirty().thenApply(none -> fileData);
+        } catch (final PermissionsLoadingException | SerializationException e) {
+            return Util.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isRegistered(final String type, final String identifier) {
+        return runAsync(() -> {
+            final Shard shard = shard(type, identifier);
+            synchronized (shard) {
+                return !shard.node.node(identifier).virtual();
+            }
+        });
+    }
+
+    @Override
+    public Stream<String> getAllIdentifiers(final String type) {
+        final List<String> identifiers = new ArrayList<>();
+        for (final Shard shard : shards(type)) {
+            synchronized (shard) {
+                for (final Object key : shard.node.childrenMap().keySet()) {
+                    identifiers.add(key.toString());
+                }
+            }
+        }
+        return identifiers.stream();
+    }
+
+    /**
+     * Load every bucket file, so the metadata index covers all subjects.
+     *
+     * <p>Buckets index their subjects as they are loaded, so this only reads from disk once. This
+     * is run in the background when the data store is loaded without an index file, and the
+     * completed index is written once it is done.</p>
+     */
+    private void loadAllShards() {
+        final Path subjects = this.directory.resolve(SUBJECTS_DIRECTORY);
+        if (Files.isDirectory(subjects)) {
+            try (Stream<Path> children = Files.list(subjects)) {
+                for (final Path child : (Iterable<Path>) children::iterator) {
+                    final @Nullable String type = unescapeType(child.getFileName().toString());
+                    if (type == null || !Files.isDirectory(child)) {
+                        continue;
+                    }
+                    for (int i = 0; i < this.buckets; i++) {
+                        if (this.closed) {
+                            return;
+                        }
+                        if (Files.isRegularFile(bucketFile(type, i))) {
+                            try {
+                                shard(type, i);
+                            } catch (final PermissionsLoadingException ex) {
+                                this.context().logger().error(Messages.FILE_ERROR_LOAD.tr(bucketFile(type, i)), ex);
+                            }
+                        }
+                    }
+                }
+            } catch (final IOException e) {
+                this.context().logger().error(Messages.FILE_ERROR_LOAD.tr(subjects), e);
+                return;
+            }
+        }
+        this.indexComplete = true;
+        this.saves.markDirty();
+    }
+
+    /**
+     * Get every subject type with a directory holding any bucket file.
+     *
+     * @return the types found on disk
+     */
+    private Set<String> typesOnDisk() {
+        final Set<String> types = new HashSet<>();
+        final Path subjects = this.directory.resolve(SUBJECTS_DIRECTORY);
+        if (!Files.isDirectory(subjects)) {
+            return types;
+        }
+        try (Stream<Path> children = Files.list(subjects)) {
+            for (final Path child : (Iterable<Path>) children::iterator) {
+                final @Nullable String type = unescapeType(child.getFileName().toString());
+                if (type != null && Files.isDirectory(child)) {
+                    try (Stream<Path> files = Files.list(child)) {
+                        if (files.anyMatch(file -> file.getFileName().toString().endsWith(EXTENSION))) {
+                            types.add(type);
+                        }
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            this.context().logger().error(Messages.FILE_ERROR_LOAD.tr(subjects), e);
+        }
+        return types;
+    }
+
+    @Override
+    public Set<String> getRegisteredTypes() {
+        if (this.indexComplete) {
+            return super.getRegisteredTypes();
+        }
+        // Until the index is complete, include types that have any file on disk
+        final Set<String> types = typesOnDisk();
+        types.addAll(super.getRegisteredTypes());
+        return Collections.unmodifiableSet(types);
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getDefinedContextKeys() {
+        if (this.indexComplete) {
+            return super.getDefinedContextKeys();
+        }
+        return this.indexed.thenCompose(ignore -> super.getDefinedContextKeys());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>While the index is being rebuilt, this only counts subjects in the buckets read so far.</p>
+     */
+    @Override
+    public int subjectCount(final String type) {
+        return super.subjectCount(type);
+    }
+
+    @Override
+    public Stream<Map.Entry<SubjectRef<?>, ImmutableSubjectData>> getAll() {
+        return getRegisteredTypes().stream()
+                .flatMap(type -> getAll(type).map(pair -> immutableMapEntry(this.context().deserializeSubjectRef(type, pair.getKey()), pair.getValue())));
+    }
+
+    private ConfigurationNode getRankLaddersNode() {
+        return this.global.node.node(FileDataStore.KEY_RANK_LADDERS);
+    }
+
+    @Override
+    public Stream<String> getAllRankLadders() {
+        synchronized (this.global) {
+            return getRankLaddersNode().childrenMap().keySet()
+                    .stream()
+                    .map(Object::toString)
+                    .collect(Collectors.toList())
+                    .stream();
+        }
+    }
+
+    @Override
+    public CompletableFuture<RankLadder> getRankLadderInternal(final String ladder) {
+        synchronized (this.global) {
+            return completedFuture(new FixedRankLadder(ladder, getRankLaddersNode().node(ladder.toLowerCase()).childrenList().stream()
+                    .map(node -> {
+                        try {
+                            return node.get(SubjectRef.TYPE);
+                        } catch (final SerializationException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    })
+                    .collect(PCollections.toPVector())));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hasRankLadder(final String ladder) {
+        synchronized (this.global) {
+            return completedFuture(!getRankLaddersNode().node(ladder.toLowerCase()).virtual());
+        }
+    }
+
+    @Override
+    public CompletableFuture<RankLadder> setRankLadderInternal(final String identifier, final @Nullable RankLadder ladder) {
+        synchronized (this.global) {
+            final ConfigurationNode childNode = getRankLaddersNode().node(identifier.toLowerCase());
+            try {
+                childNode.raw(null);
+                if (ladder != null) {
+                    for (final SubjectRef<?> rank : ladder.ranks()) {
+                        childNode.appendListNode().set(SubjectRef.TYPE, rank);
+                    }
+                }
+            } catch (final SerializationException ex) {
+                return Util.failedFuture(ex);
+            }
+            this.global.markDirty();
+        }
+        return this.saves.markDirty().thenApply(none -> ladder);
+    }
+
+    @Override
+    public CompletableFuture<ContextInheritance> getContextInheritanceInternal() {
+        synchronized (this.global) {
+            try {
+                return completedFuture(this.global.node.get(MemoryContextInheritance.class));
+            } catch (final SerializationException e) {
+                return Util.failedFuture(e);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<ContextInheritance> setContextInheritanceInternal(final ContextInheritance inheritance) {
+        final MemoryContextInheritance realInheritance = MemoryContextInheritance.fromExistingContextInheritance(inheritance);
+        synchronized (this.global) {
+            try {
+                this.global.node.set(MemoryContextInheritance.class, realInheritance);
+            } catch (final SerializationException e) {
+                return Util.failedFuture(e);
+            }
+            this.global.markDirty();
+        }
+        return this.saves.markDirty().thenApply(none -> realInheritance);
+    }
+
+    @Override
+    protected <T> T performBulkOperationSync(final Function<DataStore, T> function) throws Exception {
+        this.saves.suppress();
+        T ret;
+        try {
+            ret = function.apply(this);
+        } finally {
+            this.saves.release();
+        }
+        this.saves.flush();
+        return ret;
+    }
+
+    @AutoService(DataStoreFactory.class)
+    public static class Factory extends AbstractDataStore.Factory<ShardedFileDataStore, Config> {
+        static final String TYPE = "sharded-file";
+
+        public Factory() {
+            super(TYPE, Config.class, ShardedFileDataStore::new);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import ca.stellardrift.permissionsex.logging.FormattedLogger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+import org.spongepowered.configurate.loader.ConfigurationLoader;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A JSON loader that keeps a {@link FileSnapshot} next to the file it manages.
+ *
+ * <p>Loading checks the snapshot against the JSON file's checksum and only parses the JSON when
+ * the snapshot is missing or out of date. Every save or full parse writes a fresh snapshot.</p>
+ */
+final class SnapshotLoader implements ConfigurationLoader<BasicConfigurationNode> {
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private final Supplier<GsonConfigurationLoader.Builder> builders;
+    private final ConfigurationOptions defaultOptions;
+    private final Path file;
+    private final Path snapshot;
+    private final FormattedLogger logger;
+    private final AtomicInteger snapshotLoads = new AtomicInteger();
+    private final AtomicBoolean warnedWriteFailed = new AtomicBoolean();
+
+    /**
+     * Create a loader.
+     *
+     * @param builders a source of loader builders configured with every option except the
+     *     source and sink
+     * @param file the JSON file
+     * @param logger the logger to report snapshots that could not be written to
+     */
+    SnapshotLoader(final Supplier<GsonConfigurationLoader.Builder> builders, final Path file, final FormattedLogger logger) {
+        this.builders = builders;
+        this.logger = logger;
+        this.defaultOptions = builders.get().build().defaultOptions();
+        this.file = file;
+        this.snapshot = file.resolveSibling(file.getFileName() + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Get how many loads were answered from the snapshot rather than by parsing JSON.
+     *
+     * @return the number of snapshot loads
+     */
+    int snapshotLoads() {
+        return this.snapshotLoads.get();
+    }
+
+    @Override
+    public ConfigurationOptions defaultOptions() {
+        return this.defaultOptions;
+    }
+
+    @Override
+    public BasicConfigurationNode load(final ConfigurationOptions options) throws ConfigurateException {
+        final byte[] contents;
+        try {
+            contents = Files.readAllBytes(this.file);
+        } catch (final NoSuchFileException ex) {
+            return createNode(options);
+        } catch (final IOException ex) {
+            throw new ConfigurateException(ex);
+        }
+
+        final long checksum = FileSnapshot.checksum(contents);
+        final @Nullable Object snapshot = FileSnapshot.read(this.snapshot, contents.length, checksum);
+        if (snapshot != null) {
+            this.snapshotLoads.incrementAndGet();
+            return createNode(options).raw(snapshot);
+        }
+
+        final BasicConfigurationNode node = this.builders.get()
+            .source(() -> new BufferedReader(new InputStreamReader(new ByteArrayInputStream(contents), StandardCharsets.UTF_8)))
+            .build()
+            .load(options);
+        writeSnapshot(node, contents.length, checksum);
+        return node;
+    }
+
+    @Override
+    public ConfigurationReference<BasicConfigurationNode> loadToReference() throws ConfigurateException {
+        return ConfigurationReference.fixed(this);
+    }
+
+    @Override
+    public void save(final ConfigurationNode node) throws ConfigurateException {
+        // Render in memory first, so the snapshot's checksum describes exactly what was written
+        final StringWriter text = new StringWriter();
+        this.builders.get()
+            .sink(() -> new BufferedWriter(text))
+            .build()
+            .save(node);
+        final byte[] contents = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            final Path directory = this.file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            final Path temp = Files.createTempFile(directory, this.file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, contents);
+                try {
+                    Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException ex) {
+                    Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (final IOException ex) {
+            throw new ConfigurateException(ex);
+        }
+        writeSnapshot(node, contents.length, FileSnapshot.checksum(contents));
+    }
+
+    private void writeSnapshot(final ConfigurationNode node, final long length, final long checksum) {
+        try {
+            FileSnapshot.write(this.snapshot, node, length, checksum);
+        } catch (final IOException ex) {
+            // The JSON file is authoritative, and a snapshot that isn't replaced no longer matches it,
+            // so loading still works, only without the fast path
+            if (this.warnedWriteFailed.compareAndSet(false, true)) {
+                this.logger.warn(Messages.FILE_ERROR_SNAPSHOT_WRITE.tr(this.snapshot), ex);
+            } else {
+                this.logger.debug("Unable to write snapshot {}", this.snapshot, ex);
+            }
+        }
+    }
+
+    @Override
+    public BasicConfigurationNode createNode(final ConfigurationOptions options) {
+        return BasicConfigurationNode.root(options);
+    }
+}
@@ -18,11 +18,11 @@ package ca.stellardrift.permissionsex.impl.backend.memory;
 
 import ca.stellardrift.permissionsex.datastore.DataStoreContext;
 import ca.stellardrift.permissionsex.impl.backend.AbstractDataStore;
+import ca.stellardrift.permissionsex.impl.backend.SubjectMetadataIndex;
 import ca.stellardrift.permissionsex.impl.config.FilePermissionsExConfiguration;
 import ca.stellardrift.permissionsex.datastore.DataStore;
 import ca.stellardrift.permissionsex.datastore.DataStoreFactory;
 import ca.stellardrift.permissionsex.datastore.ProtoDataStore;
-import ca.stellardrift.permissionsex.context.ContextValue;
 import ca.stellardrift.permissionsex.context.ContextInheritance;
 import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
 import ca.stellardrift.permissionsex.impl.util.PCollections;
@@ -37,14 +37,11 @@ import org.spongepowered.configurate.objectmapping.ConfigSerializable;
 import org.spongepowered.configurate.objectmapping.meta.Comment;
 import org.spongepowered.configurate.objectmapping.meta.Setting;
 
-import java.util.Collection;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.spongepowered.configurate.util.UnmodifiableCollections.immutableMapEntry;
@@ -107,6 +104,8 @@ public class MemoryDataStore extends AbstractDataStore<MemoryDataStore, MemoryDa
                 final @Nullable ImmutableSubjectData existingData = data.putIfAbsent(key, ret);
                 if (existingData != null) {
                     ret = existingData;
+                } else {
+                    indexSubject(type, identifier, false, PCollections.set());
                 }
             }
         }
@@ -116,7 +115,10 @@ public class MemoryDataStore extends AbstractDataStore<MemoryDataStore, MemoryDa
     @Override
     public CompletableFuture<ImmutableSubjectData> setDataInternal(final String type, final String identifier, final ImmutableSubjectData data) {
         if (config().track) {
-            this.data.put(immutableMapEntry(type, identifier), data);
+            this.data.compute(immutableMapEntry(type, identifier), (key, existing) -> {
+                indexSubject(type, identifier, existing != null, SubjectMetadataIndex.contextKeys(data));
+                return data;
+            });
         }
         return completedFuture(data);
     }
@@ -156,22 +158,6 @@ public class MemoryDataStore extends AbstractDataStore<MemoryDataStore, MemoryDa
                 .map(Map.Entry::getValue);
     }
 
-    @Override
-    public Set<String> getRegisteredTypes() {
-        return this.data.keySet().stream()
-                .map(Map.Entry::getKey)
-                .collect(PCollections.toPSet());
-    }
-
-    @Override
-    public CompletableFuture<Set<String>> getDefinedContextKeys() {
-        return CompletableFuture.completedFuture(data.values().stream()
-                .flatMap(data -> data.activeContexts().stream())
-                .flatMap(Collection::stream)
-                .map(ContextValue::key)
-                .collect(Collectors.toSet()));
-    }
-
     @Override
     public Stream<Map.Entry<SubjectRef<?>, ImmutableSubjectData>> getAll() {
         return this.data.entrySet().stream()
@@ -82,6 +82,8 @@ public final class FilePermissionsExConfiguration<T> implements PermissionsExCon
         private boolean debug;
         @Setting
         private List<String> serverTags;
+        @Setting
+        private boolean matchGlobsAtLookup;
 
         T platform;
 
@@ -201,6 +203,11 @@ public final class FilePermissionsExConfiguration<T> implements PermissionsExCon
         return Collections.unmodifiableList(this.instance.serverTags);
     }
 
+    @Override
+    public boolean isGlobMatchingAtLookupEnabled() {
+        return this.instance.matchGlobsAtLookup;
+    }
+
     @Override
     public void validate() throws PEBKACException {
         this.instance.validate();
@@ -35,6 +35,15 @@ public interface PermissionsExConfiguration<PlatformType> {
 
     List<String> getServerTags();
 
+    /**
+     * Get whether permission globs should be kept as patterns in baked data
+     * and matched when permissions are checked, rather than expanded into
+     * every permission they match.
+     *
+     * @return whether globs are matched at lookup time
+     */
+    boolean isGlobMatchingAtLookupEnabled();
+
     void validate() throws PEBKACException;
 
     /**
@@ -55,6 +55,10 @@ public class CalculatedSubjectImpl<I> implements Consumer<ImmutableSubjectData>,
     private @MonotonicNonNull ToDataSubjectRefImpl<I> transientRef;
 
     private final AsyncLoadingCache<Set<ContextValue<?>>, BakedSubjectData> data;
+    /**
+     * Subjects visited by bakes of this subject's data, maintained by the {@link SubjectDependencyIndex}.
+     */
+    final Set<SubjectRef<?>> dependencies = ConcurrentHashMap.newKeySet();
     private final Set<Consumer<CalculatedSubject>> updateListeners = Collections.newSetFromMap(new ConcurrentHashMap<>());
     private @MonotonicNonNull CachingValue<Set<ContextValue<?>>> activeContexts;
 
@@ -126,14 +130,6 @@ public class CalculatedSubjectImpl<I> implements Consumer<ImmutableSubjectData>,
         return parents;
     }
 
-    /**
-     * Contexts that have been queried recently enough to still be cached
-     * @return A set of context sets that are in the lookup cache
-     */
-    private Set<Set<ContextValue<?>>> getCachedContexts() {
-        return data.synchronous().asMap().keySet();
-    }
-
     @Override
     public Set<ContextValue<?>> activeContexts() {
         if (this.activeContexts == null) {
@@ -218,19 +214,18 @@ public class CalculatedSubjectImpl<I> implements Consumer<ImmutableSubjectData>,
 
     @Override
     public void accept(ImmutableSubjectData newData) {
-        data.synchronous().invalidateAll();
-        getManager().loadedSubjectTypes().stream()
-                .flatMap(type -> type.activeSubjects().stream())
-                .map(it -> (CalculatedSubjectImpl<?>) it)
-                .filter(subj -> {
-                    for (Set<ContextValue<?>> ent : subj.getCachedContexts()) {
-                        if (subj.parents(ent).contains(this.identifier)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                })
-                .forEach(subj -> subj.data.synchronous().invalidateAll());
+        this.invalidate();
+    }
+
+    /**
+     * Clear all baked data for this subject, and notify listeners.
+     *
+     * <p>This is called by the {@link SubjectDependencyIndex} whenever data
+     * for any subject visited while baking this subject changes.</p>
+     */
+    void invalidate() {
+        this.data.synchronous().invalidateAll();
+        getManager().subjectDependencies().forget(this);
         updateListeners.forEach(listener -> listener.accept(this));
     }
 
@@ -0,0 +1,234 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.subject;
+
+import ca.stellardrift.permissionsex.util.glob.GlobParseException;
+import ca.stellardrift.permissionsex.util.glob.Globs;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A bounded cache of the literal permissions each permission glob expands to.
+ *
+ * <p>Only permissions containing glob syntax are cached. Any other permission
+ * is its own single expansion, so is returned without touching the cache.</p>
+ *
+ * <p>Globs that can be matched one segment at a time can instead be kept as
+ * patterns in baked data, with the {@link #segmentPattern(String) matcher} for
+ * each segment shared between every subject using it.</p>
+ */
+public final class GlobExpansionCache {
+    private static final int MAXIMUM_WEIGHT = 1 << 16;
+
+    private final LoadingCache<String, List<String>> expansions = Caffeine.newBuilder()
+        .maximumWeight(MAXIMUM_WEIGHT)
+        .<String, List<String>>weigher((key, value) -> value.size() + 1)
+        .recordStats()
+        .build(GlobExpansionCache::expand0);
+    private final LoadingCache<String, Optional<SegmentPattern>> segmentPatterns = Caffeine.newBuilder()
+        .maximumWeight(MAXIMUM_WEIGHT)
+        .<String, Optional<SegmentPattern>>weigher((key, value) -> value.map(pattern -> pattern.matches.size()).orElse(0) + 1)
+        .build(GlobExpansionCache::segmentPattern0);
+
+    /**
+     * Get the literal permissions matched by {@code permission}.
+     *
+     * <p>Permissions that are not valid globs are treated as literals.</p>
+     *
+     * @param permission the permission glob
+     * @return an unmodifiable list of expanded permissions
+     */
+    List<String> expand(final String permission) {
+        if (!isGlob(permission)) {
+            return Collections.singletonList(permission);
+        }
+        return this.expansions.get(permission);
+    }
+
+    private static boolean isGlob(final String permission) {
+        return permission.indexOf('{') != -1 || permission.indexOf('[') != -1;
+    }
+
+    private static boolean hasGlobSyntax(final String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            switch (segment.charAt(i)) {
+                case '{': case '}': case '[': case ']': case ',':
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get whether {@code permission} is a glob that can be matched one segment at a time.
+     *
+     * <p>This is true when every segment of the permission containing glob
+     * syntax is a valid glob by itself, so the permission matches exactly the
+     * nodes its expansion would hold. Globs with escapes are always expanded.</p>
+     *
+     * @param permission the permission
+     * @return whether the permission can be stored as a pattern
+     */
+    boolean matchableBySegment(final String permission) {
+        if (!isGlob(permission) || permission.indexOf('\\') != -1) {
+            return false;
+        }
+        int start = 0;
+        while (true) {
+            int end = permission.indexOf('.', start);
+            if (end == -1) {
+                end = permission.length();
+            }
+            final String segment = permission.substring(start, end);
+            if (hasGlobSyntax(segment) && !this.segmentPatterns.get(segment.toLowerCase(Locale.ROOT)).isPresent()) {
+                return false;
+            }
+            if (end == permission.length()) {
+                return true;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Get a matcher for a single lower-case segment of a node.
+     *
+     * <p>This is usable as a {@link ca.stellardrift.permissionsex.util.NodeTree.PatternCompiler}.</p>
+     *
+     * @param segment the segment
+     * @return a matcher, or {@code null} if the segment is not a valid glob
+     */
+    @Nullable Predicate<String> segmentPattern(final String segment) {
+        if (!hasGlobSyntax(segment)) {
+            return null;
+        }
+        return this.segmentPatterns.get(segment).orElse(null);
+    }
+
+    private static Optional<SegmentPattern> segmentPattern0(final String segment) {
+        if (!isGlob(segment)) { // only closing brackets or separators, which are not valid on their own
+            return Optional.empty();
+        }
+        try {
+            final Set<String> matches = new HashSet<>();
+            for (final String matched : Globs.parse(segment)) {
+                matches.add(matched);
+            }
+            return Optional.of(new SegmentPattern(segment, matches));
+        } catch (final GlobParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static List<String> expand0(final String permission) {
+        try {
+            final List<String> ret = new ArrayList<>();
+            for (final String matched : Globs.parse(permission)) {
+                ret.add(matched);
+            }
+            return Collections.unmodifiableList(ret);
+        } catch (final GlobParseException e) { // If the permission is not a valid glob, assume it's a literal
+            return Collections.singletonList(permission);
+        }
+    }
+
+    /**
+     * Get the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long hitCount() {
+        return this.expansions.stats().hitCount();
+    }
+
+    /**
+     * Get the number of lookups that required parsing a glob.
+     *
+     * @return the miss count
+     */
+    public long missCount() {
+        return this.expansions.stats().missCount();
+    }
+
+    /**
+     * Get the fraction of lookups answered from the cache.
+     *
+     * @return the hit rate, or {@code 1} if no lookups have been made
+     */
+    public double hitRate() {
+        return this.expansions.stats().hitRate();
+    }
+
+    /**
+     * Get the approximate number of globs currently cached.
+     *
+     * @return the cache size
+     */
+    public long size() {
+        return this.expansions.estimatedSize();
+    }
+
+    /**
+     * Discard all cached expansions.
+     */
+    public void clear() {
+        this.expansions.invalidateAll();
+        this.segmentPatterns.invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        final CacheStats stats = this.expansions.stats();
+        return "GlobExpansionCache{size=" + this.size() + ", hits=" + stats.hitCount() + ", misses=" + stats.missCount() + '}';
+    }
+
+    /**
+     * A matcher for every literal a single-segment glob expands to.
+     */
+    static final class SegmentPattern implements Predicate<String> {
+        private final String source;
+        final Set<String> matches;
+
+        SegmentPattern(final String source, final Set<String> matches) {
+            this.source = source;
+            this.matches = matches;
+        }
+
+        @Override
+        public boolean test(final String segment) {
+            return this.matches.contains(segment);
+        }
+
+        @Override
+        public String toString() {
+            return "SegmentPattern{" + this.source + '}';
+        }
+    }
+}
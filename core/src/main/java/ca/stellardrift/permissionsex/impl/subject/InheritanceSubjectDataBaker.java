@@ -17,7 +17,9 @@
 package ca.stellardrift.permissionsex.impl.subject;
 
 import ca.stellardrift.permissionsex.impl.PermissionsEx;
+import ca.stellardrift.permissionsex.context.ContextInheritance;
 import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.impl.subject.InheritedDataCache.InheritedData;
 import ca.stellardrift.permissionsex.impl.util.PCollections;
 import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
 import ca.stellardrift.permissionsex.subject.Segment;
@@ -25,8 +27,6 @@ import ca.stellardrift.permissionsex.subject.SubjectRef;
 import ca.stellardrift.permissionsex.subject.SubjectType;
 import ca.stellardrift.permissionsex.util.NodeTree;
 import ca.stellardrift.permissionsex.impl.util.Util;
-import ca.stellardrift.permissionsex.util.glob.GlobParseException;
-import ca.stellardrift.permissionsex.util.glob.Globs;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -34,33 +34,44 @@ import org.pcollections.PSet;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Handles baking of subject data inheritance tree and context tree into a single data set
  */
 class InheritanceSubjectDataBaker implements SubjectDataBaker {
     private static final int CIRCULAR_INHERITANCE_THRESHOLD = 3;
-    static final SubjectDataBaker INSTANCE = new InheritanceSubjectDataBaker();
+    static final SubjectDataBaker INSTANCE = new InheritanceSubjectDataBaker(true);
+    /**
+     * A baker that never takes the synchronous path, for comparison.
+     */
+    static final SubjectDataBaker ASYNC_ONLY = new InheritanceSubjectDataBaker(false);
+
+    private final boolean allowImmediate;
 
-    private InheritanceSubjectDataBaker() {
+    private InheritanceSubjectDataBaker(final boolean allowImmediate) {
+        this.allowImmediate = allowImmediate;
     }
 
-    private static final class BakeState {
-        // Accumulators
-        final Map<String, Integer> combinedPermissions = new HashMap<>();
+    private static class Accumulator {
+        // Ordered by when each value was set, nearest subject first, to break ties between patterns at lookup
+        final Map<String, Integer> combinedPermissions = new LinkedHashMap<>();
         final List<SubjectRef<?>> parents = new ArrayList<>();
         final Map<String, String> options = new HashMap<>();
         int defaultValue;
+    }
 
-        // State objects
+    private static final class BakeState extends Accumulator {
         final CalculatedSubjectImpl<?> base;
         final PermissionsEx<?> pex;
         final Set<ContextValue<?>> activeContexts;
@@ -73,24 +84,33 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
     }
 
     private static CompletableFuture<Set<ContextValue<?>>> processContexts(PermissionsEx<?> pex, Set<ContextValue<?>> rawContexts) {
-        return pex.contextInheritance().thenApply(inheritance -> {
-            // Step one: calculate context inheritance
-            final Queue<ContextValue<?>> inProgressContexts = new ArrayDeque<>(rawContexts);
-            PSet<ContextValue<?>> contexts = PCollections.set();
-            @Nullable ContextValue<?> context;
-            while ((context = inProgressContexts.poll()) != null) {
-                if (!contexts.contains(context)) {
-                    contexts = contexts.plus(context);
-                    inProgressContexts.addAll(inheritance.parents(context));
-                }
+        return pex.contextInheritance().thenApply(inheritance -> processContexts(inheritance, rawContexts));
+    }
+
+    private static Set<ContextValue<?>> processContexts(final ContextInheritance inheritance, final Set<ContextValue<?>> rawContexts) {
+        // Step one: calculate context inheritance
+        final Queue<ContextValue<?>> inProgressContexts = new ArrayDeque<>(rawContexts);
+        PSet<ContextValue<?>> contexts = PCollections.set();
+        @Nullable ContextValue<?> context;
+        while ((context = inProgressContexts.poll()) != null) {
+            if (!contexts.contains(context)) {
+                contexts = contexts.plus(context);
+                inProgressContexts.addAll(inheritance.parents(context));
             }
+        }
 
-            return contexts;
-        });
+        return contexts;
     }
 
     @Override
     public CompletableFuture<BakedSubjectData> bake(CalculatedSubjectImpl<?> data, Set<ContextValue<?>> activeContexts) {
+        if (this.allowImmediate) {
+            final @Nullable BakedSubjectData immediate = bakeImmediately(data, activeContexts);
+            if (immediate != null) {
+                return CompletableFuture.completedFuture(immediate);
+            }
+        }
+
         final SubjectRef<?> subject = data.identifier();
         return processContexts(data.getManager(), activeContexts)
                 .thenCompose(processedContexts -> {
@@ -99,15 +119,12 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
                     final Multiset<SubjectRef<?>> visitedSubjects = HashMultiset.create();
                     CompletableFuture<Void> ret = visitSubject(state, subject, visitedSubjects, 0);
 
-                    final SubjectType<SubjectType<?>> fallbackType = data.getManager().fallbacksType();
-                    if (state.parents.isEmpty()
-                        && state.combinedPermissions.isEmpty()
-                        && state.options.isEmpty()
-                        && state.defaultValue == 0
-                        && !(subject.type().equals(fallbackType)
-                            && subject.identifier().equals(fallbackType))) { // If we have no data, include the fallback subject
-                        ret = ret.thenCompose(none -> visitSubject(state, SubjectRef.subject(fallbackType, subject.type()), visitedSubjects, 0));
-                    }
+                    ret = ret.thenCompose(none -> {
+                        if (needsFallback(state, subject)) { // If we have no data, include the fallback subject
+                            return visitSubject(state, SubjectRef.subject(data.getManager().fallbacksType(), subject.type()), visitedSubjects, 0);
+                        }
+                        return Util.<Void>emptyFuture();
+                    });
 
                     final SubjectRef<SubjectType<?>> defIdentifier = data.data().getCache().getDefaultIdentifier();
                     if (!subject.equals(defIdentifier)) {
@@ -116,7 +133,229 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
                     }
                     return ret.thenApply(none -> state);
 
-                }).thenApply(state -> new BakedSubjectData(NodeTree.of(state.combinedPermissions, state.defaultValue), PCollections.asVector(state.parents), PCollections.asMap(state.options)));
+                }).thenApply(InheritanceSubjectDataBaker::toBaked);
+    }
+
+    /**
+     * Attempt to bake subject data on the calling thread.
+     *
+     * <p>This succeeds when context inheritance and the data of every subject
+     * visited is already cached, which is the case for most bakes once a
+     * server has warmed up. Otherwise, the bake must be performed
+     * asynchronously so the missing data can be loaded.</p>
+     *
+     * @param data the subject to bake
+     * @param activeContexts the contexts to bake in
+     * @return the baked data, or {@code null} if any input was not yet loaded
+     */
+    private @Nullable BakedSubjectData bakeImmediately(final CalculatedSubjectImpl<?> data, final Set<ContextValue<?>> activeContexts) {
+        final CompletableFuture<ContextInheritance> inheritance = data.getManager().contextInheritance();
+        if (!inheritance.isDone() || inheritance.isCompletedExceptionally()) {
+            return null;
+        }
+
+        final SubjectRef<?> subject = data.identifier();
+        final BakeState state = new BakeState(data, processContexts(inheritance.join(), activeContexts));
+        final Multiset<SubjectRef<?>> visitedSubjects = HashMultiset.create();
+        if (!visitSubjectImmediately(state, subject, visitedSubjects, 0)) {
+            return null;
+        }
+
+        if (needsFallback(state, subject)) { // If we have no data, include the fallback subject
+            if (!visitSubjectImmediately(state, SubjectRef.subject(data.getManager().fallbacksType(), subject.type()), visitedSubjects, 0)) {
+                return null;
+            }
+        }
+
+        final SubjectRef<SubjectType<?>> defIdentifier = data.data().getCache().getDefaultIdentifier();
+        if (!subject.equals(defIdentifier)) {
+            if (!visitSubjectImmediately(state, defIdentifier, visitedSubjects, 1)
+                || !visitSubjectImmediately(state, SubjectRef.subject(data.getManager().defaultsType(), data.getManager().defaultsType()), visitedSubjects, 2)) { // Force in global defaults
+                return null;
+            }
+        }
+        return toBaked(state);
+    }
+
+    private static boolean needsFallback(final BakeState state, final SubjectRef<?> subject) {
+        final SubjectType<SubjectType<?>> fallbackType = state.pex.fallbacksType();
+        return state.parents.isEmpty()
+            && state.combinedPermissions.isEmpty()
+            && state.options.isEmpty()
+            && state.defaultValue == 0
+            && !(subject.type().equals(fallbackType)
+                && subject.identifier().equals(fallbackType));
+    }
+
+    private static BakedSubjectData toBaked(final BakeState state) {
+        final NodeTree permissions;
+        if (state.pex.config().isGlobMatchingAtLookupEnabled()) {
+            permissions = NodeTree.of(state.combinedPermissions, state.defaultValue, state.pex.globExpansions()::segmentPattern).compile();
+        } else {
+            permissions = NodeTree.compiledOf(state.combinedPermissions, state.defaultValue);
+        }
+        return new BakedSubjectData(permissions, PCollections.asVector(state.parents), PCollections.asMap(state.options));
+    }
+
+    private <I> boolean visitSubjectImmediately(BakeState state, SubjectRef<I> subject, Multiset<SubjectRef<?>> visitedSubjects, int inheritanceLevel) {
+        if (inheritanceLevel > 0) { // Inherited subjects are shared between many bakes
+            final @Nullable InheritedData inherited = inheritedData(state.pex, state.activeContexts, subject, inheritanceLevel, new HashSet<>());
+            if (inherited == null) {
+                return false;
+            } else if (inherited != InheritedData.CIRCULAR) {
+                merge(state, inherited);
+                for (final InheritedDataCache.MemberListener member : inherited.members.keySet()) {
+                    recordDependency(state, member.subject);
+                }
+                return true;
+            }
+            // otherwise, fall through to walk the cycle in place, with the usual warnings
+        }
+
+        if (visitedSubjects.count(subject) > CIRCULAR_INHERITANCE_THRESHOLD) {
+            state.pex.logger().warn(Messages.BAKER_ERROR_CIRCULAR_INHERITANCE.tr(state.base.identifier(), subject));
+            return true;
+        }
+        visitedSubjects.add(subject);
+        SubjectTypeCollectionImpl<I> type = state.pex.subjects(subject.type());
+        final Consumer<ImmutableSubjectData> dependencyListener = state.pex.subjectDependencies().record(subject, state.base);
+        final @Nullable ImmutableSubjectData persistent = type.persistentData().dataIfPresent(subject.identifier(), dependencyListener);
+        final @Nullable ImmutableSubjectData transientData = type.transientData().dataIfPresent(subject.identifier(), dependencyListener);
+        if (persistent == null || transientData == null) {
+            return false;
+        }
+
+        for (Set<ContextValue<?>> combo : processContexts(persistent.activeContexts(), transientData.activeContexts(), state.activeContexts, state.pex)) {
+            if (type.type().transientHasPriority()) {
+                if (!visitSubjectSingleImmediately(state, transientData, combo, visitedSubjects, inheritanceLevel)
+                    || !visitSubjectSingleImmediately(state, persistent, combo, visitedSubjects, inheritanceLevel)) {
+                    return false;
+                }
+            } else {
+                if (!visitSubjectSingleImmediately(state, persistent, combo, visitedSubjects, inheritanceLevel)
+                    || !visitSubjectSingleImmediately(state, transientData, combo, visitedSubjects, inheritanceLevel)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the data contributed by a subject and its ancestors at a certain inheritance level,
+     * baking and caching it if necessary.
+     *
+     * @param pex the engine
+     * @param activeContexts the processed active contexts
+     * @param subject the subject to start at
+     * @param inheritanceLevel the level the subject is being inherited at
+     * @param path subjects being baked further down this subtree, for detecting cycles
+     * @return the inherited data, {@link InheritedData#CIRCULAR} if the subtree contains a cycle,
+     *     or {@code null} if some subject's data was not loaded
+     */
+    private <I> @Nullable InheritedData inheritedData(
+            final PermissionsEx<?> pex,
+            final Set<ContextValue<?>> activeContexts,
+            final SubjectRef<I> subject,
+            final int inheritanceLevel,
+            final Set<SubjectRef<?>> path) {
+        final InheritedDataCache cache = pex.subjectDependencies().inheritedData();
+        final InheritedDataCache.Key key = new InheritedDataCache.Key(subject, activeContexts, inheritanceLevel);
+        final @Nullable InheritedData existing = cache.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (!path.add(key.subject)) {
+            return InheritedData.CIRCULAR;
+        }
+
+        final SubjectTypeCollectionImpl<I> type = pex.subjects(subject.type());
+        final InheritedDataCache.MemberListener listener = cache.listener(key.subject);
+        final long generation = listener.generation(); // before reading, so any later change is noticed
+        final @Nullable ImmutableSubjectData persistent = type.persistentData().dataIfPresent(subject.identifier(), listener);
+        final @Nullable ImmutableSubjectData transientData = type.transientData().dataIfPresent(subject.identifier(), listener);
+        if (persistent == null || transientData == null) {
+            return null;
+        }
+
+        final Accumulator accumulator = new Accumulator();
+        final Map<InheritedDataCache.MemberListener, Long> members = new HashMap<>();
+        members.put(listener, generation);
+        for (Set<ContextValue<?>> combo : processContexts(persistent.activeContexts(), transientData.activeContexts(), activeContexts, pex)) {
+            final ImmutableSubjectData first = type.type().transientHasPriority() ? transientData : persistent;
+            final ImmutableSubjectData second = first == persistent ? transientData : persistent;
+            for (final ImmutableSubjectData data : new ImmutableSubjectData[] {first, second}) {
+                final Segment active = data.segment(combo);
+                visitSingle(pex, accumulator, active, key.levelClass);
+                for (final SubjectRef<?> parent : active.parents()) {
+                    final @Nullable InheritedData parentData = inheritedData(pex, activeContexts, parent, key.levelClass + 1, path);
+                    if (parentData == null || parentData == InheritedData.CIRCULAR) {
+                        return parentData;
+                    }
+                    merge(accumulator, parentData);
+                    // keep the oldest generation seen, so a subject changed mid-bake is never trusted
+                    parentData.members.forEach((member, seen) -> members.merge(member, seen, Math::min));
+                }
+            }
+        }
+        path.remove(key.subject);
+
+        final InheritedData ret = new InheritedData(
+            Collections.unmodifiableMap(accumulator.combinedPermissions),
+            Collections.unmodifiableList(accumulator.parents),
+            Collections.unmodifiableMap(accumulator.options),
+            accumulator.defaultValue,
+            Collections.unmodifiableMap(members)
+        );
+        cache.put(pex, key, ret);
+        return ret;
+    }
+
+    /**
+     * Merge already-baked inherited data into an accumulator.
+     *
+     * <p>This has the same result as visiting every segment that contributed
+     * to {@code data} in order, since each accumulated value only ever keeps
+     * the first strongest value seen.</p>
+     *
+     * @param accumulator the destination
+     * @param data the inherited data
+     */
+    private void merge(final Accumulator accumulator, final InheritedData data) {
+        for (final Map.Entry<String, Integer> ent : data.permissions.entrySet()) {
+            putPermIfNecessary(accumulator, ent.getKey(), ent.getValue());
+        }
+        accumulator.parents.addAll(data.parents);
+        for (final Map.Entry<String, String> ent : data.options.entrySet()) {
+            accumulator.options.putIfAbsent(ent.getKey(), ent.getValue());
+        }
+        if (Math.abs(data.defaultValue) > Math.abs(accumulator.defaultValue)) {
+            accumulator.defaultValue = data.defaultValue;
+        }
+    }
+
+    private <I> void recordDependency(final BakeState state, final SubjectRef<I> subject) {
+        final SubjectTypeCollectionImpl<I> type = state.pex.subjects(subject.type());
+        final Consumer<ImmutableSubjectData> dependencyListener = state.pex.subjectDependencies().record(subject, state.base);
+        type.persistentData().addListener(subject.identifier(), dependencyListener);
+        type.transientData().addListener(subject.identifier(), dependencyListener);
+    }
+
+    private boolean visitSubjectSingleImmediately(
+            BakeState state,
+            ImmutableSubjectData data,
+            Set<ContextValue<?>> activeCombo,
+            Multiset<SubjectRef<?>> visitedSubjects,
+            int inheritanceLevel) {
+        final Segment active = data.segment(activeCombo);
+        visitSingle(state.pex, state, active, inheritanceLevel);
+        for (final SubjectRef<?> parent : active.parents()) {
+            if (!visitSubjectImmediately(state, parent, visitedSubjects, inheritanceLevel + 1)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private <I> CompletableFuture<Void> visitSubject(BakeState state, SubjectRef<I> subject, Multiset<SubjectRef<?>> visitedSubjects, int inheritanceLevel) {
@@ -126,10 +365,11 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
         }
         visitedSubjects.add(subject);
         SubjectTypeCollectionImpl<I> type = state.pex.subjects(subject.type());
-        return type.persistentData().data(subject.identifier(), state.base).thenCombine(type.transientData().data(subject.identifier(), state.base), (persistent, transientData) -> {
+        final Consumer<ImmutableSubjectData> dependencyListener = state.pex.subjectDependencies().record(subject, state.base);
+        return type.persistentData().data(subject.identifier(), dependencyListener).thenCombine(type.transientData().data(subject.identifier(), dependencyListener), (persistent, transientData) -> {
             CompletableFuture<Void> ret = Util.emptyFuture();
 
-            for (Set<ContextValue<?>> combo : processContexts(persistent.activeContexts(), transientData.activeContexts(), state)) {
+            for (Set<ContextValue<?>> combo : processContexts(persistent.activeContexts(), transientData.activeContexts(), state.activeContexts, state.pex)) {
                 if (type.type().transientHasPriority()) {
                     ret = visitSubjectSingle(state, transientData, ret, combo, visitedSubjects, inheritanceLevel);
                     ret = visitSubjectSingle(state, persistent, ret, combo, visitedSubjects, inheritanceLevel);
@@ -142,11 +382,15 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
         }).thenCompose(res -> res);
     }
 
-    private List<PSet<ContextValue<?>>> processContexts(Set<? extends Set<ContextValue<?>>> possibilities, Set<? extends Set<ContextValue<?>>> transientPossibilities, BakeState state) {
+    private List<PSet<ContextValue<?>>> processContexts(
+            Set<? extends Set<ContextValue<?>>> possibilities,
+            Set<? extends Set<ContextValue<?>>> transientPossibilities,
+            Set<ContextValue<?>> activeContexts,
+            PermissionsEx<?> pex) {
         List<PSet<ContextValue<?>>> ret = new ArrayList<>();
         Set<PSet<ContextValue<?>>> seen = new HashSet<>(possibilities.size());
-        processSingleDataContexts(ret, seen, possibilities, state);
-        processSingleDataContexts(ret, seen, transientPossibilities, state);
+        processSingleDataContexts(ret, seen, possibilities, activeContexts, pex);
+        processSingleDataContexts(ret, seen, transientPossibilities, activeContexts, pex);
         ret.sort(Comparator.<Set<ContextValue<?>>>comparingInt(Set::size).reversed());
         return ret;
     }
@@ -157,9 +401,15 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
      *
      * @param accum Accumulator of context sets
      * @param possibilities The possible contexts provided by the subject data
-     * @param state The bake state
+     * @param activeContexts The processed active contexts
+     * @param pex The engine
      */
-    private void processSingleDataContexts(List<PSet<ContextValue<?>>> accum, Set<PSet<ContextValue<?>>> seen, Set<? extends Set<ContextValue<?>>> possibilities, BakeState state) {
+    private void processSingleDataContexts(
+            List<PSet<ContextValue<?>>> accum,
+            Set<PSet<ContextValue<?>>> seen,
+            Set<? extends Set<ContextValue<?>>> possibilities,
+            Set<ContextValue<?>> activeContexts,
+            PermissionsEx<?> pex) {
         nextSegment: for (Set<ContextValue<?>> rawSegmentContexts : possibilities) {
             final PSet<ContextValue<?>> segmentContexts = PCollections.asSet(rawSegmentContexts);
             if (seen.contains(segmentContexts)) {
@@ -169,8 +419,8 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
 
             for (ContextValue<?> value : segmentContexts) {
                 boolean matched = false;
-                for (ContextValue<?> possibility : state.activeContexts) {
-                    if (checkSingleContextMatch(value, possibility, state.pex)) {
+                for (ContextValue<?> possibility : activeContexts) {
+                    if (checkSingleContextMatch(value, possibility, pex)) {
                         matched = true;
                         break;
                     }
@@ -199,22 +449,27 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
             Multiset<SubjectRef<?>> visitedSubjects,
             int inheritanceLevel) {
         final Segment active = data.segment(activeCombo);
-        initial = initial.thenRun(() -> visitSingle(state, active, inheritanceLevel));
+        initial = initial.thenRun(() -> visitSingle(state.pex, state, active, inheritanceLevel));
         for (final SubjectRef<?> parent : active.parents()) {
             initial = initial.thenCompose(none -> visitSubject(state, parent, visitedSubjects, inheritanceLevel + 1));
         }
         return initial;
     }
 
-    private void putPermIfNecessary(final BakeState state, final String perm, final int val) {
+    private void putPermIfNecessary(final Accumulator state, final String perm, final int val) {
         final Integer existing = state.combinedPermissions.get(perm);
-        if (existing == null || Math.abs(val) > Math.abs(existing)) {
+        if (existing == null) {
+            state.combinedPermissions.put(perm, val);
+        } else if (Math.abs(val) > Math.abs(existing)) {
+            // the value now comes from a further subject, so it ranks behind everything seen so far
+            state.combinedPermissions.remove(perm);
             state.combinedPermissions.put(perm, val);
         }
     }
 
     private void visitSingle(
-            final BakeState state,
+            final PermissionsEx<?> pex,
+            final Accumulator state,
             final Segment data,
             final int inheritanceLevel) {
 
@@ -227,12 +482,13 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
                 perm = perm.substring(1);
             }
 
-            try {
-                for (String matched : Globs.parse(perm)) {
-                    putPermIfNecessary(state, matched, ent.getValue());
-                }
-            } catch (GlobParseException e) { // If the permission is not a valid glob, assume it's a literal
-                putPermIfNecessary(state, perm, ent.getValue());
+            final GlobExpansionCache globs = pex.globExpansions();
+            if (pex.config().isGlobMatchingAtLookupEnabled() && globs.matchableBySegment(perm)) {
+                putPermIfNecessary(state, perm, ent.getValue()); // matched when the baked tree is queried
+                continue;
+            }
+            for (final String matched : globs.expand(perm)) {
+                putPermIfNecessary(state, matched, ent.getValue());
             }
         }
 
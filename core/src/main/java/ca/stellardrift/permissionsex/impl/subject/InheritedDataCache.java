@@ -0,0 +1,272 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.subject;
+
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.impl.PermissionsEx;
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.subject.SubjectRef;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A cache of the merged data contributed by a subject and all of its ancestors.
+ *
+ * <p>Groups are usually inherited by many users at once, so rather than each
+ * user's bake walking the same group chain, the chain is baked once per
+ * subject, context set and inheritance depth, and merged into each user.</p>
+ *
+ * <p>Each entry is invalidated when the data of any subject it contains changes,
+ * through listeners registered on the subject data caches. Every change also
+ * advances a per-subject generation, and a subtree read before a change is never
+ * stored after it.</p>
+ */
+final class InheritedDataCache {
+    /**
+     * The deepest inheritance level that affects baking.
+     *
+     * <p>Permissions prefixed with {@code #} are only inherited up to level 1,
+     * so every level past this one bakes identically.</p>
+     */
+    static final int MAX_LEVEL_CLASS = 2;
+
+    private final Cache<Key, InheritedData> entries = Caffeine.newBuilder()
+        .maximumSize(4096)
+        .expireAfterWrite(5, TimeUnit.MINUTES)
+        .<Key, InheritedData>removalListener((key, value, cause) -> {
+            // a replaced entry was re-indexed by the put that replaced it
+            if (key != null && value != null && (cause == RemovalCause.EXPLICIT || cause.wasEvicted())) {
+                this.unindex(key, value);
+            }
+        })
+        .build();
+    private final ConcurrentMap<SubjectRef<?>, MemberListener> members = new ConcurrentHashMap<>();
+
+    @Nullable InheritedData get(final Key key) {
+        return this.entries.getIfPresent(key);
+    }
+
+    /**
+     * Get the listener that invalidates every entry containing {@code subject}.
+     *
+     * <p>This should be registered on the subject's data before reading it, and its
+     * {@link MemberListener#generation() generation} recorded before that.</p>
+     *
+     * @param subject the subject
+     * @return the listener
+     */
+    MemberListener listener(final SubjectRef<?> subject) {
+        return this.members.computeIfAbsent(SubjectRef.mapKeySafe(subject), MemberListener::new);
+    }
+
+    /**
+     * Store a baked subtree, unless any subject in it has changed since it was read.
+     *
+     * @param engine the engine
+     * @param key the key
+     * @param data the baked subtree
+     * @return whether the subtree was stored
+     */
+    boolean put(final PermissionsEx<?> engine, final Key key, final InheritedData data) {
+        if (!current(data)) {
+            return false;
+        }
+        for (final MemberListener stamped : data.members.keySet()) {
+            final MemberListener listener = this.members.compute(stamped.subject, (k, existing) -> {
+                final MemberListener ret = existing == null ? stamped : existing;
+                if (ret == stamped) {
+                    ret.keys.put(key, data);
+                }
+                return ret;
+            });
+            if (listener != stamped) { // forgotten and replaced since the read
+                this.entries.invalidate(key);
+                return false;
+            }
+            register(engine, listener.subject, listener);
+        }
+        this.entries.put(key, data);
+
+        // A change between the first check and indexing would not have seen this key
+        if (!current(data)) {
+            this.entries.invalidate(key);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean current(final InheritedData data) {
+        for (final Map.Entry<MemberListener, Long> member : data.members.entrySet()) {
+            if (member.getKey().generation() != member.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <I> void register(final PermissionsEx<?> engine, final SubjectRef<I> member, final Consumer<ImmutableSubjectData> listener) {
+        final SubjectTypeCollectionImpl<I> type = engine.subjects(member.type());
+        type.persistentData().addListener(member.identifier(), listener);
+        type.transientData().addListener(member.identifier(), listener);
+    }
+
+    /**
+     * Invalidate every entry containing {@code subject}.
+     *
+     * @param subject the changed subject
+     */
+    void invalidate(final SubjectRef<?> subject) {
+        final @Nullable MemberListener listener = this.members.get(SubjectRef.mapKeySafe(subject));
+        if (listener != null) {
+            listener.invalidate();
+        }
+    }
+
+    private void unindex(final Key key, final InheritedData data) {
+        for (final MemberListener member : data.members.keySet()) {
+            this.members.computeIfPresent(member.subject, (k, existing) -> {
+                existing.keys.remove(key, data); // only if not since re-indexed with newer data
+                return existing.keys.isEmpty() ? null : existing;
+            });
+        }
+    }
+
+    final class MemberListener implements Consumer<ImmutableSubjectData> {
+        final SubjectRef<?> subject;
+        final Map<Key, InheritedData> keys = new ConcurrentHashMap<>();
+        private final AtomicLong generation = new AtomicLong();
+
+        MemberListener(final SubjectRef<?> subject) {
+            this.subject = subject;
+        }
+
+        /**
+         * Get the number of times this subject has changed.
+         *
+         * @return the generation
+         */
+        long generation() {
+            return this.generation.get();
+        }
+
+        /**
+         * Invalidate every entry containing this subject.
+         */
+        void invalidate() {
+            this.generation.incrementAndGet();
+            InheritedDataCache.this.entries.invalidateAll(this.keys.keySet());
+        }
+
+        @Override
+        public void accept(final ImmutableSubjectData newData) {
+            this.invalidate();
+        }
+
+        @Override
+        public String toString() {
+            return "MemberListener{subject=" + this.subject + ", keys=" + this.keys.size() + '}';
+        }
+    }
+
+    /**
+     * The key for a single baked inheritance subtree.
+     */
+    static final class Key {
+        final SubjectRef<?> subject;
+        final Set<ContextValue<?>> contexts;
+        final int levelClass;
+
+        Key(final SubjectRef<?> subject, final Set<ContextValue<?>> contexts, final int levelClass) {
+            this.subject = SubjectRef.mapKeySafe(subject);
+            this.contexts = contexts;
+            this.levelClass = Math.min(levelClass, MAX_LEVEL_CLASS);
+        }
+
+        @Override
+        public boolean equals(final @Nullable Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Key)) return false;
+
+            final Key that = (Key) other;
+            return this.levelClass == that.levelClass
+                && this.subject.equals(that.subject)
+                && this.contexts.equals(that.contexts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.subject, this.contexts, this.levelClass);
+        }
+
+        @Override
+        public String toString() {
+            return "Key{subject=" + this.subject + ", contexts=" + this.contexts + ", levelClass=" + this.levelClass + '}';
+        }
+    }
+
+    /**
+     * Data from a subject and its ancestors, merged in inheritance order.
+     */
+    static final class InheritedData {
+        /**
+         * Marker for a subtree that could not be cached because it contains an inheritance cycle.
+         */
+        static final InheritedData CIRCULAR = new InheritedData(
+            Collections.emptyMap(),
+            Collections.emptyList(),
+            Collections.emptyMap(),
+            0,
+            Collections.emptyMap()
+        );
+
+        final Map<String, Integer> permissions;
+        final List<SubjectRef<?>> parents;
+        final Map<String, String> options;
+        final int defaultValue;
+        /**
+         * Every subject contributing to this data, with its generation when read.
+         */
+        final Map<MemberListener, Long> members;
+
+        InheritedData(
+            final Map<String, Integer> permissions,
+            final List<SubjectRef<?>> parents,
+            final Map<String, String> options,
+            final int defaultValue,
+            final Map<MemberListener, Long> members
+        ) {
+            this.permissions = permissions;
+            this.parents = parents;
+            this.options = options;
+            this.defaultValue = defaultValue;
+            this.members = members;
+        }
+    }
+}
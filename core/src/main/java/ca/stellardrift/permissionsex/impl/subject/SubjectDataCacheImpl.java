@@ -23,15 +23,21 @@ import ca.stellardrift.permissionsex.subject.InvalidIdentifierException;
 import ca.stellardrift.permissionsex.subject.SubjectDataCache;
 import ca.stellardrift.permissionsex.subject.SubjectRef;
 import ca.stellardrift.permissionsex.subject.SubjectType;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.errorprone.annotations.concurrent.LazyInit;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
@@ -73,7 +79,7 @@ public final class SubjectDataCacheImpl<I> implements SubjectDataCache<I> {
         this.dataStore = newDataStore;
         AsyncLoadingCache<I, ImmutableSubjectData> oldCache = this.cache.getAndSet(Caffeine.newBuilder()
                         .maximumSize(512)
-                        .buildAsync((key, executor) -> dataStore.getData(this.type.name(), this.type.serializeIdentifier(key), clearListener(key))));
+                        .buildAsync(new DataLoader()));
         if (oldCache != null) {
             oldCache.synchronous().asMap().forEach((k, v) -> {
                     data(k, null).thenAccept(data -> listeners.call(k, data));
@@ -95,6 +101,35 @@ public final class SubjectDataCacheImpl<I> implements SubjectDataCache<I> {
         return ret;
     }
 
+    @Override
+    public CompletableFuture<Map<I, ImmutableSubjectData>> data(final Collection<? extends I> identifiers) {
+        requireNonNull(identifiers, "identifiers");
+
+        return cache.get().getAll(identifiers);
+    }
+
+    /**
+     * Get data for a subject only if it has already been loaded into this cache.
+     *
+     * <p>If data is present, the listener will be registered just like in {@link #data(Object, Consumer)}.</p>
+     *
+     * @param identifier the subject identifier
+     * @param listener an optional listener to receive updates to the subject's data
+     * @return the data, or {@code null} if it is not yet available
+     */
+    public @Nullable ImmutableSubjectData dataIfPresent(final I identifier, final @Nullable Consumer<ImmutableSubjectData> listener) {
+        requireNonNull(identifier, "identifier");
+
+        final @Nullable CompletableFuture<ImmutableSubjectData> existing = this.cache.get().getIfPresent(identifier);
+        if (existing == null || !existing.isDone() || existing.isCompletedExceptionally()) {
+            return null;
+        }
+        if (listener != null) {
+            listeners.addListener(identifier, listener);
+        }
+        return existing.join();
+    }
+
     @Override
     public CompletableFuture<ToDataSubjectRefImpl<I>> referenceTo(final I identifier) {
         return referenceTo(identifier, true);
@@ -140,13 +175,16 @@ public final class SubjectDataCacheImpl<I> implements SubjectDataCache<I> {
 
     @Override
     public void cacheAll() {
+        final List<I> identifiers = new ArrayList<>();
         dataStore.getAllIdentifiers(this.type.name()).forEach(ident -> {
             try {
-                cache.get().synchronous().refresh(this.type.parseIdentifier(ident));
+                identifiers.add(this.type.parseIdentifier(ident));
             } catch (final InvalidIdentifierException ex) {
                 // TODO: log this
             }
         });
+        // Entries already cached are kept current by their data store listeners
+        cache.get().getAll(identifiers);
     }
 
     @Override
@@ -184,6 +222,36 @@ public final class SubjectDataCacheImpl<I> implements SubjectDataCache<I> {
         return ret;
     }
 
+    /**
+     * Loads subject data from the current data store, fetching several subjects at once where possible.
+     */
+    private final class DataLoader implements AsyncCacheLoader<I, ImmutableSubjectData> {
+
+        @Override
+        public CompletableFuture<ImmutableSubjectData> asyncLoad(final I key, final Executor executor) {
+            return dataStore.getData(type.name(), type.serializeIdentifier(key), clearListener(key));
+        }
+
+        @Override
+        public CompletableFuture<Map<I, ImmutableSubjectData>> asyncLoadAll(final Iterable<? extends I> keys, final Executor executor) {
+            final Map<String, I> bySerialized = new HashMap<>();
+            for (final I key : keys) {
+                bySerialized.put(type.serializeIdentifier(key), key);
+            }
+            return dataStore.getData(type.name(), bySerialized.keySet(), serialized -> clearListener(bySerialized.get(serialized)))
+                .thenApply(loaded -> {
+                    final Map<I, ImmutableSubjectData> result = new HashMap<>(loaded.size());
+                    loaded.forEach((serialized, data) -> {
+                        final @Nullable I key = bySerialized.get(serialized);
+                        if (key != null) {
+                            result.put(key, data);
+                        }
+                    });
+                    return result;
+                });
+        }
+    }
+
     @Override
     public void addListener(final I identifier, final Consumer<ImmutableSubjectData> listener) {
         requireNonNull(identifier, "identifier");
@@ -0,0 +1,132 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.subject;
+
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.subject.SubjectRef;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A reverse index from subjects to the calculated subjects whose baked data depends on them.
+ *
+ * <p>Entries are added by the baker for every subject visited while walking a
+ * calculated subject's inheritance, so a change to any subject reaches all of
+ * its transitive dependents without scanning every active subject.</p>
+ *
+ * <p>Dependents are held weakly, so subjects removed from their type's cache
+ * do not need to be explicitly removed.</p>
+ */
+public final class SubjectDependencyIndex {
+    private final ConcurrentMap<SubjectRef<?>, Dependents> dependents = new ConcurrentHashMap<>();
+    private final InheritedDataCache inheritedData = new InheritedDataCache();
+
+    /**
+     * Get the cache of inherited data shared between bakes.
+     *
+     * @return the inherited data cache
+     */
+    InheritedDataCache inheritedData() {
+        return this.inheritedData;
+    }
+
+    /**
+     * Record that the baked data of {@code dependent} depends on {@code subject}.
+     *
+     * @param subject the subject visited while baking
+     * @param dependent the calculated subject being baked
+     * @return a listener that will invalidate every dependent of {@code subject}
+     *     when its data changes. The listener is strongly held by this index.
+     */
+    Consumer<ImmutableSubjectData> record(final SubjectRef<?> subject, final CalculatedSubjectImpl<?> dependent) {
+        requireNonNull(subject, "subject");
+        requireNonNull(dependent, "dependent");
+        final SubjectRef<?> key = SubjectRef.mapKeySafe(subject);
+        dependent.dependencies.add(key);
+        return this.dependents.compute(key, (k, existing) -> {
+            final Dependents ret = existing == null ? new Dependents(k) : existing;
+            ret.subjects.add(dependent);
+            return ret;
+        });
+    }
+
+    /**
+     * Remove {@code dependent} from the dependents of every subject its previous bakes visited.
+     *
+     * <p>This is called whenever a subject's baked data is cleared, and the
+     * index will be repopulated for that subject by its next bake.</p>
+     *
+     * @param dependent the calculated subject
+     */
+    void forget(final CalculatedSubjectImpl<?> dependent) {
+        for (final SubjectRef<?> subject : dependent.dependencies) {
+            dependent.dependencies.remove(subject);
+            this.dependents.computeIfPresent(subject, (k, existing) -> {
+                existing.subjects.remove(dependent);
+                return existing.subjects.isEmpty() ? null : existing;
+            });
+        }
+    }
+
+    /**
+     * Get a snapshot of the calculated subjects depending on {@code subject}.
+     *
+     * @param subject the subject
+     * @return the subjects depending on the provided subject
+     */
+    public Set<CalculatedSubjectImpl<?>> dependents(final SubjectRef<?> subject) {
+        final @Nullable Dependents ret = this.dependents.get(SubjectRef.mapKeySafe(subject));
+        if (ret == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<>(ret.subjects));
+    }
+
+    /**
+     * Dependents of a single subject.
+     */
+    final class Dependents implements Consumer<ImmutableSubjectData> {
+        private final SubjectRef<?> subject;
+        final Set<CalculatedSubjectImpl<?>> subjects = Collections.newSetFromMap(Caffeine.newBuilder().weakKeys().<CalculatedSubjectImpl<?>, Boolean>build().asMap());
+
+        Dependents(final SubjectRef<?> subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        public void accept(final ImmutableSubjectData newData) {
+            // Shared inherited data must be gone before any dependent re-bakes
+            SubjectDependencyIndex.this.inheritedData.invalidate(this.subject);
+            // Copy, since invalidating a subject will remove it from this set
+            final List<CalculatedSubjectImpl<?>> toInvalidate = new ArrayList<>(this.subjects);
+            for (final CalculatedSubjectImpl<?> subject : toInvalidate) {
+                subject.invalidate();
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import ca.stellardrift.permissionsex.subject.SubjectType;
 import ca.stellardrift.permissionsex.subject.SubjectTypeCollection;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -80,6 +81,10 @@ public class SubjectTypeCollectionImpl<I> implements SubjectTypeCollection<I> {
     public void uncache(final I identifier) {
         this.persistentData.invalidate(identifier);
         this.transientData.invalidate(identifier);
+        final @Nullable CalculatedSubject existing = this.cache.synchronous().getIfPresent(identifier);
+        if (existing != null) {
+            this.pex.subjectDependencies().forget((CalculatedSubjectImpl<?>) existing);
+        }
         this.cache.synchronous().invalidate(identifier);
     }
 
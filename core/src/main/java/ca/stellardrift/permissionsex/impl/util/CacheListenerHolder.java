@@ -63,6 +63,18 @@ public class CacheListenerHolder<Key, CacheType> {
         getListeners(key).remove(listener);
     }
 
+    /**
+     * Get whether any listeners are registered for a key.
+     *
+     * @param key the key
+     * @return whether the key has listeners
+     */
+    public boolean hasListeners(Key key) {
+        requireNonNull(key, "key");
+        final Set<Consumer<CacheType>> listeners = this.listeners.get(key);
+        return listeners != null && !listeners.isEmpty();
+    }
+
     public Iterable<Key> getAllKeys() {
         return Collections.unmodifiableSet(this.listeners.keySet());
     }
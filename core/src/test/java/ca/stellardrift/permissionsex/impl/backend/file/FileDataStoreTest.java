@@ -0,0 +1,124 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import ca.stellardrift.permissionsex.context.ContextDefinition;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.datastore.DataStoreFactory;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.impl.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.impl.config.FilePermissionsExConfiguration;
+import ca.stellardrift.permissionsex.impl.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.impl.util.PCollections;
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.test.EmptyTestConfiguration;
+import ca.stellardrift.permissionsex.test.PermissionsExTest;
+import org.junit.jupiter.api.Test;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileDataStoreTest extends PermissionsExTest {
+
+    @Override
+    protected PermissionsExConfiguration<EmptyPlatformConfiguration> populate() {
+        final BasicConfigurationNode config = BasicConfigurationNode.root(FilePermissionsExConfiguration.PEX_OPTIONS);
+        try {
+            config.node("file").set("permissions.json");
+            config.node("auto-reload").set(false);
+            return new EmptyTestConfiguration(requireNonNull(DataStoreFactory.forType("file"), "factory")
+                .create("file", config));
+        } catch (final SerializationException | PermissionsLoadingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private FileDataStore store() {
+        return (FileDataStore) dataStore();
+    }
+
+    private void grant(final String identifier) {
+        final ImmutableSubjectData data = store().getData("group", identifier, null).join();
+        store().setData("group", identifier, data.withSegment(PCollections.set(), s -> s.withPermission("test." + identifier, 1))).join();
+    }
+
+    @Test
+    public void testSubjectDataCached() {
+        grant("a");
+        final ImmutableSubjectData first = store().getData("group", "a", null).join();
+        assertSame(first, store().getData("group", "a", null).join());
+    }
+
+    @Test
+    public void testReloadNotifiesChangedSubjects() throws IOException {
+        grant("a");
+        grant("b");
+
+        final AtomicInteger aUpdates = new AtomicInteger();
+        final AtomicInteger bUpdates = new AtomicInteger();
+        final Consumer<ImmutableSubjectData> aListener = data -> aUpdates.incrementAndGet();
+        final Consumer<ImmutableSubjectData> bListener = data -> bUpdates.incrementAndGet();
+        final ImmutableSubjectData aBefore = store().getData("group", "a", aListener).join();
+        store().getData("group", "b", bListener).join();
+
+        // Edit one subject outside of PermissionsEx
+        final Path file = manager().baseDirectory().resolve("permissions.json");
+        final String contents = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Files.write(file, contents.replace("\"test.b\"", "\"test.edited\"").getBytes(StandardCharsets.UTF_8));
+        store().reload();
+
+        assertEquals(0, aUpdates.get());
+        assertEquals(1, bUpdates.get());
+        assertSame(aBefore, store().getData("group", "a", null).join());
+        assertEquals(1, store().getData("group", "b", null).join().segment(PCollections.set()).permissions().get("test.edited").intValue());
+    }
+
+    @Test
+    public void testMetadataIndex() {
+        final ContextDefinition<?> definition = requireNonNull(manager().contextDefinition("test-key", true), "definition");
+        assertFalse(manager().usedContextTypes().join().contains(definition));
+        final int groups = store().subjectCount("group");
+
+        grant("a");
+        final ImmutableSubjectData data = store().getData("group", "a", null).join();
+        final Set<ContextValue<?>> contexts = PCollections.set(new ContextValue<String>("test-key", "value"));
+        store().setData("group", "a", data.withSegment(contexts, s -> s.withPermission("test.contextual", 1))).join();
+
+        assertTrue(store().getDefinedContextKeys().join().contains("test-key"));
+        assertTrue(store().getRegisteredTypes().contains("group"));
+        assertEquals(groups + 1, store().subjectCount("group"));
+        assertTrue(manager().usedContextTypes().join().contains(definition));
+
+        store().setData("group", "a", null).join();
+        assertFalse(store().getDefinedContextKeys().join().contains("test-key"));
+        assertEquals(groups, store().subjectCount("group"));
+        assertFalse(manager().usedContextTypes().join().contains(definition));
+    }
+}
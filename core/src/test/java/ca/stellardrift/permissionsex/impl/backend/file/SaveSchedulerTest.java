@@ -0,0 +1,92 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SaveSchedulerTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<Integer> writes = new ArrayList<>();
+    private final SaveScheduler scheduler = new SaveScheduler(this.writes::add, this.tasks::add, 0);
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    void testChangesMerged() {
+        final CompletableFuture<Void> first = this.scheduler.markDirty();
+        final CompletableFuture<Void> second = this.scheduler.markDirty();
+        final CompletableFuture<Void> third = this.scheduler.markDirty();
+        assertEquals(1, this.tasks.size());
+        assertFalse(first.isDone());
+
+        runTasks();
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertTrue(third.isDone());
+        assertEquals(1, this.writes.size());
+        assertEquals(3, this.writes.get(0).intValue());
+        assertEquals(1, this.scheduler.writes());
+        assertEquals(2, this.scheduler.skippedWrites());
+
+        this.scheduler.markDirty();
+        runTasks();
+        assertEquals(2, this.scheduler.writes());
+    }
+
+    @Test
+    void testSuppressed() throws IOException {
+        this.scheduler.suppress();
+        assertTrue(this.scheduler.markDirty().isDone());
+        this.scheduler.markDirty();
+        assertTrue(this.tasks.isEmpty());
+
+        this.scheduler.release();
+        this.scheduler.flush();
+        assertEquals(1, this.writes.size());
+
+        // the write scheduled on release has nothing left to do
+        runTasks();
+        assertEquals(1, this.writes.size());
+    }
+
+    @Test
+    void testFailedWrite() {
+        final SaveScheduler failing = new SaveScheduler(changes -> {
+            throw new IOException("disk full");
+        }, this.tasks::add, 0);
+        final CompletableFuture<Void> result = failing.markDirty();
+        runTasks();
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(0, failing.writes());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.datastore.DataStoreFactory;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.impl.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.impl.config.FilePermissionsExConfiguration;
+import ca.stellardrift.permissionsex.impl.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.impl.util.PCollections;
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.test.EmptyTestConfiguration;
+import ca.stellardrift.permissionsex.test.PermissionsExTest;
+import org.junit.jupiter.api.Test;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardedFileDataStoreTest extends PermissionsExTest {
+    private static final int BUCKETS = 4;
+
+    @Override
+    protected PermissionsExConfiguration<EmptyPlatformConfiguration> populate() {
+        final BasicConfigurationNode config = BasicConfigurationNode.root(FilePermissionsExConfiguration.PEX_OPTIONS);
+        try {
+            config.node("buckets").set(BUCKETS);
+            return new EmptyTestConfiguration(requireNonNull(DataStoreFactory.forType(ShardedFileDataStore.Factory.TYPE), "factory")
+                .create("sharded", config));
+        } catch (final SerializationException | PermissionsLoadingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private ShardedFileDataStore store() {
+        return (ShardedFileDataStore) dataStore();
+    }
+
+    private void grant(final String identifier) {
+        final ImmutableSubjectData data = store().getData("group", identifier, null).join();
+        store().setData("group", identifier, data.withSegment(PCollections.set(), s -> s.withPermission("test." + identifier, 1))).join();
+    }
+
+    @Test
+    public void testOnlyChangedBucketsWritten() {
+        final Path groups = manager().baseDirectory().resolve("permissions").resolve(ShardedFileDataStore.SUBJECTS_DIRECTORY).resolve("group");
+        // "a" and "b" hash to different buckets
+        grant("a");
+        assertTrue(Files.isRegularFile(groups.resolve(Integer.toHexString(Math.floorMod("a".hashCode(), BUCKETS)) + ".json")));
+        assertFalse(Files.exists(groups.resolve(Integer.toHexString(Math.floorMod("b".hashCode(), BUCKETS)) + ".json")));
+
+        grant("b");
+        assertTrue(Files.isRegularFile(groups.resolve(Integer.toHexString(Math.floorMod("b".hashCode(), BUCKETS)) + ".json")));
+        assertTrue(Files.isRegularFile(manager().baseDirectory().resolve("permissions").resolve(ShardedFileDataStore.GLOBAL_FILE)));
+    }
+
+    @Test
+    public void testLazyLoading() {
+        final int loadedAtStart = store().loadedShardCount();
+        assertTrue(store().getData("group", "a", null).join().segments().isEmpty());
+        assertEquals(loadedAtStart + 1, store().loadedShardCount());
+
+        grant("a");
+        grant("c");
+        assertEquals(PCollections.set("a", "c"), store().getAllIdentifiers("group").collect(Collectors.toSet()));
+        assertTrue(store().getRegisteredTypes().contains("group"));
+        assertEquals(1, store().getData("group", "c", null).join().segment(PCollections.set()).permissions().get("test.c").intValue());
+    }
+
+    @Test
+    public void testUnloadedBucketsReload() {
+        grant("a");
+        grant("b");
+        final int groups = store().subjectCount("group");
+
+        store().trimShards(1);
+        assertTrue(store().loadedShardCount() <= 1);
+
+        assertEquals(1, store().getData("group", "a", null).join().segment(PCollections.set()).permissions().get("test.a").intValue());
+        grant("c");
+        assertEquals(groups + 1, store().subjectCount("group")); // reloaded buckets are not counted twice
+        assertEquals(1, store().getData("group", "c", null).join().segment(PCollections.set()).permissions().get("test.c").intValue());
+    }
+
+    @Test
+    public void testIndexLoadedWithoutReadingBuckets() throws IOException {
+        grant("a");
+        grant("b");
+        final ImmutableSubjectData data = store().getData("group", "c", null).join();
+        store().setData("group", "c", data.withSegment(PCollections.set(new ContextValue<String>("test-key", "value")), s -> s.withPermission("test.c", 1))).join();
+        final int groups = store().subjectCount("group");
+
+        manager().reload().join();
+        assertTrue(store().loadedShardCount() <= 2); // only the buckets checked for legacy defaults
+        assertEquals(groups, store().subjectCount("group"));
+        assertTrue(store().getDefinedContextKeys().join().contains("test-key"));
+
+        // Without the index, every bucket is read to rebuild it
+        final Path index = manager().baseDirectory().resolve("permissions").resolve(ShardedFileDataStore.INDEX_FILE);
+        Files.delete(index);
+        manager().reload().join();
+        assertEquals(groups, store().subjectCount("group"));
+        assertTrue(store().getDefinedContextKeys().join().contains("test-key"));
+        assertTrue(Files.isRegularFile(index));
+    }
+
+    @Test
+    public void testTypeDirectoryEscaped() {
+        assertEquals("group", ShardedFileDataStore.escapeType("group"));
+        assertEquals("%2E%2E%2Fup", ShardedFileDataStore.escapeType("../up"));
+        assertEquals("%47roup", ShardedFileDataStore.escapeType("Group"));
+        assertEquals("../up", ShardedFileDataStore.unescapeType("%2E%2E%2Fup"));
+        assertNull(ShardedFileDataStore.unescapeType("%2e%2e"));
+        assertNull(ShardedFileDataStore.unescapeType("Group"));
+
+        final ImmutableSubjectData data = store().getData("../up", "a", null).join();
+        store().setData("../up", "a", data.withSegment(PCollections.set(), s -> s.withPermission("test", 1))).join();
+        assertFalse(Files.exists(manager().baseDirectory().resolve("permissions").resolve("up")));
+        assertTrue(Files.isDirectory(manager().baseDirectory().resolve("permissions").resolve(ShardedFileDataStore.SUBJECTS_DIRECTORY).resolve("%2E%2E%2Fup")));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.impl.backend.file;
+
+import ca.stellardrift.permissionsex.impl.logging.WrappingFormattedLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotLoaderTest {
+
+    private static SnapshotLoader loader(final Path file) {
+        return new SnapshotLoader(() -> GsonConfigurationLoader.builder().indent(4).lenient(true), file, WrappingFormattedLogger.of(LoggerFactory.getLogger(SnapshotLoaderTest.class), false));
+    }
+
+    private static BasicConfigurationNode sample(final SnapshotLoader loader) throws IOException {
+        final BasicConfigurationNode root = loader.createNode();
+        root.node("subjects", "group", "admin").appendListNode().node("permissions", "pex.*").set(1);
+        root.node("subjects", "group", "default").appendListNode().node("options", "weight").set(2.5d);
+        root.node("subjects", "user", "steve").appendListNode().node("parents").appendListNode().set("group:admin");
+        root.node("schema-version").set(4L);
+        root.node("flag").set(true);
+        return root;
+    }
+
+    @Test
+    void testSnapshotRoundTrip(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("permissions.json");
+        final BasicConfigurationNode original = sample(loader(file));
+        loader(file).save(original);
+        assertTrue(Files.isRegularFile(tempDir.resolve("permissions.json" + SnapshotLoader.SNAPSHOT_SUFFIX)));
+
+        final SnapshotLoader reader = loader(file);
+        final BasicConfigurationNode fromSnapshot = reader.load();
+        assertEquals(1, reader.snapshotLoads());
+        assertEquals(GsonConfigurationLoader.builder().path(file).build().load().raw(), fromSnapshot.raw());
+    }
+
+    @Test
+    void testChangedFileIsParsed(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("permissions.json");
+        loader(file).save(sample(loader(file)));
+
+        final String contents = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Files.write(file, contents.replace("pex.*", "pex.edited").getBytes(StandardCharsets.UTF_8));
+
+        final SnapshotLoader reader = loader(file);
+        final BasicConfigurationNode loaded = reader.load();
+        assertEquals(0, reader.snapshotLoads());
+        assertEquals(1, loaded.node("subjects", "group", "admin", 0, "permissions", "pex.edited").getInt());
+
+        // The parse refreshed the snapshot
+        final SnapshotLoader second = loader(file);
+        assertEquals(loaded.raw(), second.load().raw());
+        assertEquals(1, second.snapshotLoads());
+    }
+}
@@ -44,6 +44,7 @@ import java.util.concurrent.ExecutionException;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class SubjectDataBakerTest extends PermissionsExTest {
+    private EmptyTestConfiguration config;
 
     static Set<ContextValue<?>> cSet(final ContextValue<?>... values) {
         return PCollections.set(values);
@@ -73,6 +74,114 @@ public class SubjectDataBakerTest extends PermissionsExTest {
         assertEquals(1, subjectS.permissions(PermissionsEx.GLOBAL_CONTEXT).get("test.permission.child"));
     }
 
+    /**
+     * Arrangement:
+     * grandparent
+     *    parent
+     *       subject
+     * a change to grandparent must invalidate the baked data of both parent and subject
+     */
+    @Test
+    public void testTransitiveInvalidation() {
+        SubjectTypeCollectionImpl<String> groupCache = manager().subjects(SUBJECTS_GROUP);
+        CalculatedSubject grandparent = groupCache.get("grandparent").join();
+        CalculatedSubject parent = groupCache.get("parent").join();
+        parent.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.plusParent(grandparent.identifier())).join();
+        CalculatedSubject subject = groupCache.get("subject").join();
+        subject.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.plusParent(parent.identifier())).join();
+
+        assertEquals(0, subject.permission(PermissionsEx.GLOBAL_CONTEXT, "test.inherited"));
+        assertTrue(manager().subjectDependencies().dependents(grandparent.identifier()).contains(subject));
+
+        grandparent.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.withPermission("test.inherited", 1)).join();
+
+        assertEquals(1, parent.permission(PermissionsEx.GLOBAL_CONTEXT, "test.inherited"));
+        assertEquals(1, subject.permission(PermissionsEx.GLOBAL_CONTEXT, "test.inherited"));
+    }
+
+    /**
+     * Arrangement:
+     * base
+     *    member
+     *       first, second
+     * both subjects share the baked data of member, which must follow changes to base
+     */
+    @Test
+    public void testSharedInheritedData() {
+        SubjectTypeCollectionImpl<String> groupCache = manager().subjects(SUBJECTS_GROUP);
+        CalculatedSubject base = groupCache.get("base").join();
+        base.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.withPermission("test.base", 1).withPermission("#test.hidden", 1)).join();
+        CalculatedSubject member = groupCache.get("member").join();
+        member.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.plusParent(base.identifier()).withPermission("test.base", -2)).join();
+        CalculatedSubject first = groupCache.get("first").join();
+        first.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.plusParent(member.identifier())).join();
+        CalculatedSubject second = groupCache.get("second").join();
+        second.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.plusParent(member.identifier()).withPermission("test.base", 1)).join();
+
+        assertEquals(-2, first.permission(PermissionsEx.GLOBAL_CONTEXT, "test.base"));
+        assertEquals(-2, second.permission(PermissionsEx.GLOBAL_CONTEXT, "test.base"));
+        assertEquals(1, member.permission(PermissionsEx.GLOBAL_CONTEXT, "test.hidden"));
+        assertEquals(0, first.permission(PermissionsEx.GLOBAL_CONTEXT, "test.hidden"));
+
+        base.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.withPermission("test.added", 1)).join();
+
+        assertEquals(1, first.permission(PermissionsEx.GLOBAL_CONTEXT, "test.added"));
+        assertEquals(1, second.permission(PermissionsEx.GLOBAL_CONTEXT, "test.added"));
+    }
+
+    @Test
+    public void testGlobExpansionsCached() {
+        CalculatedSubject subject = manager().subjects(SUBJECTS_GROUP).get("globbed").join();
+        subject.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.withPermission("test.{first,second}", 1)).join();
+
+        assertEquals(1, subject.permission(PermissionsEx.GLOBAL_CONTEXT, "test.first"));
+        final long misses = manager().globExpansions().missCount();
+        final long hits = manager().globExpansions().hitCount();
+
+        subject.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.withPermission("test.other", 1)).join();
+
+        assertEquals(1, subject.permission(PermissionsEx.GLOBAL_CONTEXT, "test.second"));
+        assertEquals(misses, manager().globExpansions().missCount());
+        assertTrue(manager().globExpansions().hitCount() > hits);
+    }
+
+    /**
+     * Arrangement:
+     * base
+     *    member
+     * ties between a glob and a literal, or two globs, resolve to the nearest subject's value
+     * whether globs are expanded while baking or matched at lookup
+     */
+    @Test
+    public void testGlobMatchingModesAgree() {
+        SubjectTypeCollectionImpl<String> groupCache = manager().subjects(SUBJECTS_GROUP);
+        CalculatedSubject base = groupCache.get("base").join();
+        base.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.withPermission("a.b", 1)
+            .withPermission("a.{d,e}", -1)
+            .withPermission("p.{q,s}", -1)).join();
+        CalculatedSubject member = groupCache.get("member").join();
+        member.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.plusParent(base.identifier())
+            .withPermission("a.{b,c}", -1)
+            .withPermission("a.d", 1)
+            .withPermission("p.{q,r}", 1)).join();
+
+        final String[] queries = {"a.b", "a.c", "a.d", "a.e", "p.q", "p.r", "p.s"};
+        final int[] expanded = new int[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            expanded[i] = member.permission(PermissionsEx.GLOBAL_CONTEXT, queries[i]);
+        }
+        assertEquals(-1, expanded[0]);
+        assertEquals(1, expanded[2]);
+        assertEquals(1, expanded[4]);
+
+        this.config.globMatchingAtLookup(true);
+        base.data().update(PermissionsEx.GLOBAL_CONTEXT, old -> old.withPermission("unrelated", 1)).join(); // force a rebake
+
+        for (int i = 0; i < queries.length; i++) {
+            assertEquals(expanded[i], member.permission(PermissionsEx.GLOBAL_CONTEXT, queries[i]), queries[i]);
+        }
+    }
+
     @Test
     public void testFallbackSubject() {
         this.manager().fallbacks().transientData().update(SUBJECTS_USER, old -> old.withSegment(PermissionsEx.GLOBAL_CONTEXT, s -> s.withPermission("messages.welcome", 1))).join();
@@ -173,7 +282,8 @@ public class SubjectDataBakerTest extends PermissionsExTest {
 
     @Override
     protected PermissionsExConfiguration<EmptyPlatformConfiguration> populate() {
-        return new EmptyTestConfiguration();
+        this.config = new EmptyTestConfiguration();
+        return this.config;
     }
 
     private static final SimpleContextDefinition WORLD_CONTEXT = SimpleContextDefinition.context("world", (s, a) -> {});
@@ -29,6 +29,7 @@ import java.util.Objects;
 public final class EmptyTestConfiguration implements PermissionsExConfiguration<EmptyPlatformConfiguration> {
     private final ProtoDataStore<?> defaultDataStore;
     private final EmptyPlatformConfiguration platformConfig = new EmptyPlatformConfiguration();
+    private volatile boolean globMatchingAtLookup;
 
     public EmptyTestConfiguration() {
         this(MemoryDataStore.create("test"));
@@ -62,6 +63,22 @@ public final class EmptyTestConfiguration implements PermissionsExConfiguration<
         return Collections.emptyList();
     }
 
+    @Override
+    public boolean isGlobMatchingAtLookupEnabled() {
+        return this.globMatchingAtLookup;
+    }
+
+    /**
+     * Set whether globs are matched when baked data is queried, taking effect on the next bake.
+     *
+     * @param enabled whether to match globs at lookup
+     * @return this configuration
+     */
+    public EmptyTestConfiguration globMatchingAtLookup(final boolean enabled) {
+        this.globMatchingAtLookup = enabled;
+        return this;
+    }
+
     @Override
     public void validate() {
     }
@@ -8,6 +8,9 @@ dependencies {
     api(project(":api"))
     implementation(project(":core"))
     implementation("com.google.guava:guava:21.0")
+    implementation("com.github.ben-manes.caffeine:caffeine:2.9.0") {
+        exclude("com.google.errorprone")
+    }
 
     implementation(platform("org.jdbi:jdbi3-bom:3.18.0"))
     implementation("org.jdbi:jdbi3-core")
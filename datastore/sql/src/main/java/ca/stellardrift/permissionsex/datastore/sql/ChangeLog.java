@@ -0,0 +1,218 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.datastore.sql;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Polls the change log table for changes made by other servers sharing the same database.
+ *
+ * <p>Every write appends a row naming what changed and which server changed it. Each server
+ * remembers the id of the last row it has seen, and periodically reads any newer rows written by
+ * other servers. Rows older than {@link #RETENTION_MILLIS} are deleted.</p>
+ *
+ * <p>Ids are allocated before a transaction commits, so a row can become visible after rows with
+ * higher ids. When a gap appears in the ids seen, rows after the gap are remembered and the gap is
+ * checked again on later polls, for up to {@link #GAP_TIMEOUT_MILLIS}. Gaps from transactions that
+ * were rolled back never fill, and are skipped after that time.</p>
+ */
+final class ChangeLog {
+    static final long RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final long GAP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final SqlDataStore store;
+    private final Handler handler;
+    private final String node = UUID.randomUUID().toString();
+    private final long intervalMillis;
+    private final @Nullable ScheduledExecutorService timer;
+    // guarded by this
+    private long lastSeen; // every change up to this id has been handled
+    private final Set<Long> seenAfterGap = new HashSet<>();
+    private long gapSince;
+    private long lastPruned;
+
+    /**
+     * Receives changes made by other servers.
+     */
+    interface Handler {
+        /**
+         * Handle a batch of changes, in the order they were made.
+         *
+         * @param changes the changes
+         */
+        void changed(List<Change> changes);
+    }
+
+    /**
+     * One row of the change log.
+     */
+    static final class Change {
+        final long id;
+        final String node;
+        final int kind;
+        final @Nullable String type;
+        final @Nullable String identifier;
+
+        Change(final long id, final String node, final int kind, final @Nullable String type, final @Nullable String identifier) {
+            this.id = id;
+            this.node = node;
+            this.kind = kind;
+            this.type = type;
+            this.identifier = identifier;
+        }
+
+        @Override
+        public String toString() {
+            return "Change{id=" + this.id + ", node=" + this.node + ", kind=" + this.kind
+                + ", type=" + this.type + ", identifier=" + this.identifier + '}';
+        }
+    }
+
+    /**
+     * Create a change log.
+     *
+     * @param store the data store to read changes from
+     * @param handler the handler to receive changes made elsewhere
+     * @param intervalMillis how often to check for changes, or {@code 0} to not check automatically
+     */
+    ChangeLog(final SqlDataStore store, final Handler handler, final long intervalMillis) {
+        this.store = requireNonNull(store, "store");
+        this.handler = requireNonNull(handler, "handler");
+        this.intervalMillis = intervalMillis;
+        if (intervalMillis > 0) {
+            this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+                final Thread thread = new Thread(task, "PermissionsEx SQL change poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Get the identifier this server writes changes under.
+     *
+     * @return the node identifier
+     */
+    String node() {
+        return this.node;
+    }
+
+    /**
+     * Skip changes made before now, and start polling if enabled.
+     *
+     * @param dao the dao to read the current position with
+     * @throws SQLException if unable to read the latest change
+     */
+    void start(final SqlDao dao) throws SQLException {
+        synchronized (this) {
+            this.lastSeen = dao.getLatestChangeId();
+            this.lastPruned = System.currentTimeMillis();
+        }
+        if (this.timer != null) {
+            this.timer.scheduleWithFixedDelay(this::pollLogging, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void pollLogging() {
+        try {
+            poll();
+        } catch (final SQLException | RuntimeException ex) {
+            this.store.logger().warn(Messages.ERROR_POLLING_CHANGES.tr(), ex);
+        }
+    }
+
+    /**
+     * Read new changes and pass those made by other servers to the handler.
+     *
+     * @return the number of changes made by other servers
+     * @throws SQLException if unable to read changes
+     */
+    synchronized int poll() throws SQLException {
+        final List<Change> changes;
+        final long now = System.currentTimeMillis();
+        try (SqlDao dao = this.store.getDao()) {
+            changes = dao.getChangesSince(this.lastSeen);
+            if (now - this.lastPruned > RETENTION_MILLIS / 4) {
+                dao.pruneChanges(now - RETENTION_MILLIS);
+                this.lastPruned = now;
+            }
+        }
+
+        final List<Change> foreign = new ArrayList<>(changes.size());
+        for (final Change change : changes) {
+            if (this.seenAfterGap.add(change.id) && !change.node.equals(this.node)) {
+                foreign.add(change);
+            }
+        }
+        advance(now);
+
+        if (!foreign.isEmpty()) {
+            this.store.logger().debug("Received {} changes from other servers", foreign.size());
+            this.handler.changed(foreign);
+        }
+        return foreign.size();
+    }
+
+    private void advance(final long now) {
+        while (this.seenAfterGap.remove(this.lastSeen + 1)) {
+            this.lastSeen++;
+        }
+
+        if (this.seenAfterGap.isEmpty()) {
+            this.gapSince = 0;
+        } else if (this.gapSince == 0) {
+            this.gapSince = now;
+        } else if (now - this.gapSince > GAP_TIMEOUT_MILLIS) {
+            this.lastSeen = Collections.max(this.seenAfterGap);
+            this.seenAfterGap.clear();
+            this.gapSince = 0;
+        }
+    }
+
+    /**
+     * Stop polling for changes, waiting for a poll in progress to finish.
+     */
+    void close() {
+        if (this.timer != null) {
+            this.timer.shutdown();
+            try {
+                if (!this.timer.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    this.timer.shutdownNow();
+                }
+            } catch (final InterruptedException ex) {
+                this.timer.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -42,17 +42,27 @@ import static org.spongepowered.configurate.util.UnmodifiableCollections.immutab
  * Schema migrations for the SQL database
  */
 public class SchemaMigrations {
-    public static final int VERSION_LATEST = 3;
+    public static final int VERSION_LATEST = 4;
 
     public static List<SchemaMigration> getMigrations() {
         List<SchemaMigration> migrations = new ArrayList<>();
         migrations.add(0, SchemaMigrations.initialToZero());
         migrations.add(1, SchemaMigrations.zeroToOne());
         migrations.add(2, SchemaMigrations.oneToTwo());
-        migrations.add(VERSION_LATEST, SchemaMigrations.twoToThree());
+        migrations.add(3, SchemaMigrations.twoToThree());
+        migrations.add(VERSION_LATEST, SchemaMigrations.threeToFour());
         return migrations;
     }
 
+    public static SchemaMigration threeToFour() {
+        return dao -> {
+            // Change log, for other servers sharing the database to pick up changes
+            dao.createChangesTable();
+            // Parent order, which decides which parent's data takes priority
+            dao.addInheritancePositions();
+        };
+    }
+
     // Pre-2.x only needs to support MySQL because tbh nobody uses SQLite
     public static SchemaMigration twoToThree() {
         // The big one
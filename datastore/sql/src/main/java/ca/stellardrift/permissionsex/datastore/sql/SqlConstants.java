@@ -21,4 +21,9 @@ public class SqlConstants {
     public static final int UNALLOCATED = -1;
     public static final int VERSION_NOT_INITIALIZED = -2;
     public static final int VERSION_PRE_VERSIONING = -1;
+
+    // Kinds of entries in the change log
+    public static final int CHANGE_SUBJECT = 1;
+    public static final int CHANGE_RANK_LADDER = 2;
+    public static final int CHANGE_CONTEXT_INHERITANCE = 3;
 }
@@ -26,7 +26,9 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pcollections.PMap;
 import org.pcollections.PSet;
 import org.pcollections.PVector;
+import org.spongepowered.configurate.util.CheckedFunction;
 import org.spongepowered.configurate.util.CheckedSupplier;
+import org.spongepowered.configurate.util.UnmodifiableCollections;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -39,7 +41,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -50,6 +60,8 @@ import java.util.Set;
 public abstract class SqlDao implements AutoCloseable {
     private final Connection conn;
     private final SqlDataStore ds;
+    // ids read or allocated in the current transaction, only cached once it commits
+    private final List<SqlSubjectRef<?>> uncommittedSubjectIds = new ArrayList<>();
     int holdOpen, transactionLevel;
 
     protected SqlDao(SqlDataStore ds) throws SQLException {
@@ -77,6 +89,10 @@ public abstract class SqlDao implements AutoCloseable {
         return "SELECT id FROM {}subjects WHERE type=? AND identifier=?";
     }
 
+    protected String getGetSubjectRefsTypeNamesQuery() {
+        return "SELECT id, identifier FROM {}subjects WHERE type=? AND identifier IN (%s)";
+    }
+
     protected String getDeleteSubjectIdQuery() {
         return "DELETE FROM {}subjects WHERE id=?";
     }
@@ -89,24 +105,28 @@ public abstract class SqlDao implements AutoCloseable {
         return "INSERT INTO {}subjects (type, identifier) VALUES (?, ?)";
     }
 
-    protected String getSelectContextsSegmentQuery() {
-        return "SELECT `key`, `value` FROM {}contexts WHERE segment=?";
+    // Queries for loading the segments of many subjects at once.
+    // Each has a single IN clause filtering by subject id, where %s is replaced with the parameter list
+
+    protected String getSelectSegmentsSubjectsQuery() {
+        return "SELECT `id`, `subject`, `perm_default` FROM {}segments WHERE `subject` IN (%s) ORDER BY `id` ASC";
     }
 
-    protected String getSelectSegmentsSubjectQuery() {
-        return "SELECT id, perm_default FROM {}segments WHERE subject=?";
+    protected String getSelectContextsSubjectsQuery() {
+        return "SELECT c.`segment`, c.`key`, c.`value` FROM {}contexts c JOIN {}segments s ON c.`segment`=s.`id` WHERE s.`subject` IN (%s)";
     }
 
-    protected String getSelectPermissionsSegmentQuery() {
-        return "SELECT `key`, `value` FROM {}permissions WHERE segment=?";
+    protected String getSelectPermissionsSubjectsQuery() {
+        return "SELECT p.`segment`, p.`key`, p.`value` FROM {}permissions p JOIN {}segments s ON p.`segment`=s.`id` WHERE s.`subject` IN (%s)";
     }
 
-    protected String getSelectOptionsSegmentQuery() {
-        return "SELECT `key`, `value` FROM {}options WHERE segment=?";
+    protected String getSelectOptionsSubjectsQuery() {
+        return "SELECT o.`segment`, o.`key`, o.`value` FROM {}options o JOIN {}segments s ON o.`segment`=s.`id` WHERE s.`subject` IN (%s)";
     }
 
-    protected String getSelectInheritanceSegmentQuery() {
-        return "SELECT * FROM {}inheritance LEFT JOIN ({}subjects) on ({}inheritance.parent={}subjects.id) WHERE segment=?";
+    protected String getSelectInheritanceSubjectsQuery() {
+        return "SELECT i.`segment`, p.`id`, p.`type`, p.`identifier` FROM {}inheritance i JOIN {}segments s ON i.`segment`=s.`id` "
+            + "LEFT JOIN {}subjects p ON i.`parent`=p.`id` WHERE s.`subject` IN (%s) ORDER BY i.`segment`, i.`position`";
     }
 
     protected String getInsertSegmentQuery() {
@@ -133,6 +153,10 @@ public abstract class SqlDao implements AutoCloseable {
         return "DELETE FROM {}options WHERE segment=?";
     }
 
+    protected String getSelectOptionsSegmentQuery() {
+        return "SELECT `key`, `value` FROM {}options WHERE segment=? FOR UPDATE";
+    }
+
     protected abstract String getInsertOptionUpdatingQuery();
 
     protected abstract String getInsertPermissionUpdatingQuery();
@@ -145,12 +169,25 @@ public abstract class SqlDao implements AutoCloseable {
         return "DELETE FROM {}permissions WHERE segment=?";
     }
 
+    protected String getSelectPermissionsSegmentQuery() {
+        return "SELECT `key`, `value` FROM {}permissions WHERE segment=? FOR UPDATE";
+    }
+
     protected String getUpdatePermissionDefaultQuery() {
         return "UPDATE {}segments SET perm_default=? WHERE id=?";
     }
 
     protected String getInsertInheritanceQuery() {
-        return "INSERT INTO {}inheritance (`segment`, `parent`) VALUES (?, ?)";
+        return "INSERT INTO {}inheritance (`segment`, `parent`, `position`) VALUES (?, ?, ?)";
+    }
+
+    protected String getInsertInheritanceFirstQuery() {
+        return "INSERT INTO {}inheritance (`segment`, `parent`, `position`) "
+            + "SELECT ?, ?, COALESCE(MIN(`position`), 0) - 1 FROM {}inheritance WHERE segment=?";
+    }
+
+    protected String getUpdateInheritancePositionQuery() {
+        return "UPDATE {}inheritance SET `position`=? WHERE segment=? AND parent=?";
     }
 
     protected String getDeleteInheritanceParentQuery() {
@@ -161,6 +198,14 @@ public abstract class SqlDao implements AutoCloseable {
         return "DELETE FROM {}inheritance WHERE segment=?";
     }
 
+    protected String getSelectInheritanceSegmentQuery() {
+        return "SELECT `parent`, `position` FROM {}inheritance WHERE segment=? FOR UPDATE";
+    }
+
+    protected String getAddInheritancePositionQuery() {
+        return "ALTER TABLE {}inheritance ADD COLUMN `position` int NOT NULL DEFAULT 0";
+    }
+
     protected String getInsertContextQuery() {
         return "INSERT INTO {}contexts (segment, `key`, `value`) VALUES (?, ?, ?)";
     }
@@ -169,6 +214,32 @@ public abstract class SqlDao implements AutoCloseable {
         return "DELETE FROM {}contexts WHERE segment=?";
     }
 
+    protected abstract String getCreateChangesTableQuery();
+
+    /**
+     * Get a query to index the change log by creation time, so old changes can be pruned without
+     * scanning the whole table.
+     *
+     * @return the query, or {@code null} if the table is created with the index
+     */
+    protected abstract @Nullable String getCreateChangesCreatedIndexQuery();
+
+    protected String getInsertChangeQuery() {
+        return "INSERT INTO {}changes (`node`, `kind`, `type`, `identifier`, `created`) VALUES (?, ?, ?, ?, ?)";
+    }
+
+    protected String getSelectChangesSinceQuery() {
+        return "SELECT `id`, `node`, `kind`, `type`, `identifier` FROM {}changes WHERE `id` > ? ORDER BY `id` ASC";
+    }
+
+    protected String getSelectLatestChangeQuery() {
+        return "SELECT MAX(`id`) FROM {}changes";
+    }
+
+    protected String getDeleteChangesBeforeQuery() {
+        return "DELETE FROM {}changes WHERE `created` < ?";
+    }
+
     protected String getSelectContextInheritanceQuery() {
         return "SELECT `child_key`, `child_value`, `parent_key`, `parent_value` FROM {}context_inheritance ORDER BY `child_key`, `child_value`, `id` ASC";
     }
@@ -213,8 +284,21 @@ public abstract class SqlDao implements AutoCloseable {
         return "SELECT DISTINCT `key` FROM {}contexts";
     }
 
+    protected String getSelectSubjectCountsQuery() {
+        return "SELECT `type`, COUNT(*) FROM {}subjects GROUP BY `type`";
+    }
+
+    protected String getSelectSubjectCountTypeQuery() {
+        return "SELECT COUNT(*) FROM {}subjects WHERE `type`=?";
+    }
+
+    protected String getSelectSubjectContextKeysQuery() {
+        return "SELECT DISTINCT s.`type`, s.`identifier`, c.`key` FROM {}contexts c JOIN {}segments seg ON c.`segment`=seg.`id` "
+            + "JOIN {}subjects s ON seg.`subject`=s.`id`";
+    }
+
     public PreparedStatement prepareStatement(String query) throws SQLException {
-        return conn.prepareStatement(this.ds.insertPrefix(query));
+        return prepareStatement(query, Statement.NO_GENERATED_KEYS);
     }
 
     protected PreparedStatement prepareStatement(String query, int params) throws SQLException {
@@ -222,16 +306,33 @@ public abstract class SqlDao implements AutoCloseable {
     }
 
     protected <T> T executeInTransaction(CheckedSupplier<T, SQLException> func) throws SQLException {
-        transactionLevel++;
-        conn.setAutoCommit(false);
+        final boolean outermost = transactionLevel++ == 0;
+        if (outermost) {
+            conn.setAutoCommit(false);
+        }
         try {
             T ret = func.get();
-            if (--transactionLevel <= 0) {
+            if (outermost) {
                 conn.commit();
+                for (final SqlSubjectRef<?> ref : this.uncommittedSubjectIds) {
+                    this.ds.subjectIds().put(ref.rawType(), ref.rawIdentifier(), ref.id());
+                }
             }
             return ret;
+        } catch (final Throwable ex) {
+            // Roll back explicitly, so nothing from a failed transaction is committed when auto-commit is restored
+            if (outermost) {
+                try {
+                    conn.rollback();
+                } catch (final SQLException rollbackEx) {
+                    ex.addSuppressed(rollbackEx);
+                }
+            }
+            throw ex;
         } finally {
-            if (transactionLevel <= 0) {
+            transactionLevel--;
+            if (outermost) {
+                this.uncommittedSubjectIds.clear();
                 conn.setAutoCommit(true);
             }
         }
@@ -272,6 +373,11 @@ public abstract class SqlDao implements AutoCloseable {
     }
 
     public Optional<SqlSubjectRef<?>> getSubjectRef(int id) throws SQLException {
+        final Map.@Nullable Entry<String, String> cached = this.ds.subjectIds().subject(id);
+        if (cached != null) {
+            return Optional.of(new SqlSubjectRef<>(this.ds.ctx(), id, cached.getKey(), cached.getValue()));
+        }
+
         try (PreparedStatement stmt = prepareStatement(getGetSubjectRefIdQuery())) {
             stmt.setInt(1, id);
             ResultSet res = stmt.executeQuery();
@@ -279,11 +385,16 @@ public abstract class SqlDao implements AutoCloseable {
             if (!res.next()) {
                 return Optional.empty();
             }
-            return Optional.of(new SqlSubjectRef<>(this.ds.ctx(), id, res.getString(1), res.getString(2)));
+            return Optional.of(subjectRef(id, res.getString(1), res.getString(2)));
         }
     }
 
     public Optional<SqlSubjectRef<?>> getSubjectRef(String type, String name) throws SQLException {
+        final @Nullable Integer cached = this.ds.subjectIds().id(type, name);
+        if (cached != null) {
+            return Optional.of(new SqlSubjectRef<>(this.ds.ctx(), cached, type, name));
+        }
+
         try (PreparedStatement stmt = prepareStatement(getGetSubjectRefTypeNameQuery())) {
             stmt.setString(1, type);
             stmt.setString(2, name);
@@ -292,14 +403,77 @@ public abstract class SqlDao implements AutoCloseable {
             if (!res.next()) {
                 return Optional.empty();
             }
-            return Optional.of(new SqlSubjectRef<>(this.ds.ctx(), res.getInt(1), type, name));
+            return Optional.of(subjectRef(res.getInt(1), type, name));
+        }
+    }
+
+    /**
+     * Resolve the subjects of one type with any of the given identifiers.
+     *
+     * <p>Identifiers with no stored subject are absent from the result.</p>
+     *
+     * @param type the subject type
+     * @param names the identifiers to look up
+     * @return a map from identifier to subject reference
+     * @throws SQLException if unable to query the database
+     */
+    public Map<String, SqlSubjectRef<?>> getSubjectRefs(final String type, final Collection<String> names) throws SQLException {
+        final Map<String, SqlSubjectRef<?>> result = new HashMap<>(names.size());
+        final List<String> batch = new ArrayList<>(Math.min(names.size(), SEGMENT_BATCH_SIZE));
+        for (final String name : names) {
+            final @Nullable Integer cached = this.ds.subjectIds().id(type, name);
+            if (cached != null) {
+                result.put(name, new SqlSubjectRef<>(this.ds.ctx(), cached, type, name));
+                continue;
+            }
+            batch.add(name);
+            if (batch.size() == SEGMENT_BATCH_SIZE) {
+                loadSubjectRefBatch(type, batch, result);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadSubjectRefBatch(type, batch, result);
+        }
+        return result;
+    }
+
+    private void loadSubjectRefBatch(final String type, final List<String> names, final Map<String, SqlSubjectRef<?>> result) throws SQLException {
+        final int paramCount = paddedParameterCount(names.size());
+        try (PreparedStatement stmt = prepareStatement(String.format(getGetSubjectRefsTypeNamesQuery(), parameterList(paramCount)))) {
+            stmt.setString(1, type);
+            for (int i = 0; i < paramCount; i++) {
+                stmt.setString(i + 2, names.get(Math.min(i, names.size() - 1)));
+            }
+            // The database's collation may match names case-insensitively, so results are keyed by
+            // the requested name, like a lookup of a single subject
+            final Map<String, List<String>> requested = new HashMap<>(names.size());
+            for (final String name : names) {
+                requested.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> new ArrayList<>(1)).add(name);
+            }
+            final ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                final String stored = rs.getString(2);
+                final @Nullable List<String> matching = requested.get(stored.toLowerCase(Locale.ROOT));
+                if (matching == null) {
+                    continue;
+                }
+                for (final String name : matching) {
+                    if (name.equals(stored) || !result.containsKey(name)) { // prefer an exact match
+                        result.put(name, subjectRef(rs.getInt(1), type, name));
+                    }
+                }
+            }
         }
     }
 
     public boolean removeSubject(SqlSubjectRef<?> ref) throws SQLException {
         try (PreparedStatement stmt = prepareStatement(getDeleteSubjectIdQuery())) {
             stmt.setInt(1, ref.id());
-            return stmt.executeUpdate() > 0;
+            final boolean removed = stmt.executeUpdate() > 0;
+            this.uncommittedSubjectIds.removeIf(pending -> pending.id() == ref.id());
+            this.ds.subjectIds().invalidate(ref.rawType(), ref.rawIdentifier(), ref.id());
+            return removed;
         }
     }
 
@@ -307,7 +481,42 @@ public abstract class SqlDao implements AutoCloseable {
         try (PreparedStatement stmt = prepareStatement(getDeleteSubjectTypeNameQuery())) {
             stmt.setString(1, type);
             stmt.setString(2, name);
-            return stmt.executeUpdate() > 0;
+            final boolean removed = stmt.executeUpdate() > 0;
+            this.uncommittedSubjectIds.removeIf(pending -> pending.rawType().equals(type) && pending.rawIdentifier().equals(name));
+            this.ds.subjectIds().invalidate(type, name);
+            return removed;
+        }
+    }
+
+    /**
+     * Create a reference to a subject read from the database, remembering its id for later lookups.
+     *
+     * @param id the subject id
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @return a new subject reference
+     */
+    private SqlSubjectRef<?> subjectRef(final int id, final @Nullable String type, final @Nullable String identifier) {
+        final SqlSubjectRef<?> ref = new SqlSubjectRef<>(this.ds.ctx(), id, type, identifier);
+        if (type != null && identifier != null) { // null when joined against a missing subject
+            cacheSubjectId(ref);
+        }
+        return ref;
+    }
+
+    /**
+     * Remember the id of a subject, once it is known to be committed.
+     *
+     * <p>Within a transaction the subject may have been created by that transaction, so it is
+     * only cached when the transaction commits.</p>
+     *
+     * @param ref the subject, with its id
+     */
+    private void cacheSubjectId(final SqlSubjectRef<?> ref) {
+        if (this.transactionLevel > 0) {
+            this.uncommittedSubjectIds.add(ref);
+        } else {
+            this.ds.subjectIds().put(ref.rawType(), ref.rawIdentifier(), ref.id());
         }
     }
 
@@ -318,6 +527,12 @@ public abstract class SqlDao implements AutoCloseable {
     }
 
     public void allocateSubjectRef(final SqlSubjectRef<?> ref) throws SQLException {
+        final @Nullable Integer cached = this.ds.subjectIds().id(ref.rawType(), ref.rawIdentifier());
+        if (cached != null) {
+            ref.id(cached);
+            return;
+        }
+
         executeInTransaction(() -> {
             try (PreparedStatement stmt = prepareStatement(getGetSubjectRefTypeNameQuery())) {
                 stmt.setString(1, ref.rawType());
@@ -336,6 +551,7 @@ public abstract class SqlDao implements AutoCloseable {
                     }
                 }
             }
+            cacheSubjectId(ref);
             return ref;
         });
     }
@@ -348,66 +564,159 @@ public abstract class SqlDao implements AutoCloseable {
     }
 
 
-    private PSet<ContextValue<?>> getSegmentContexts(final int segmentId) throws SQLException {
-        try (PreparedStatement stmt = prepareStatement(getSelectContextsSegmentQuery())) {
-            stmt.setInt(1, segmentId);
-            PSet<ContextValue<?>> result = PCollections.set();
+    public List<SqlSegment> getSegments(SqlSubjectRef<?> ref) throws SQLException {
+        return getSegments(Collections.singleton(ref)).get(ref);
+    }
 
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                result = result.plus(new ContextValue<>(rs.getString(1), rs.getString(2)));
+    /**
+     * Load the segments of every subject in {@code refs}.
+     *
+     * <p>Subjects are loaded in batches of up to {@value #SEGMENT_BATCH_SIZE},
+     * each taking a fixed number of queries no matter how many segments the
+     * subjects have.</p>
+     *
+     * @param refs the subjects to load, which will be allocated if necessary
+     * @return a map from each subject to its segments
+     * @throws SQLException if unable to query the database
+     */
+    public Map<SqlSubjectRef<?>, List<SqlSegment>> getSegments(final Collection<? extends SqlSubjectRef<?>> refs) throws SQLException {
+        final Map<SqlSubjectRef<?>, List<SqlSegment>> result = new HashMap<>(refs.size());
+        final List<SqlSubjectRef<?>> batch = new ArrayList<>(Math.min(refs.size(), SEGMENT_BATCH_SIZE));
+        for (final SqlSubjectRef<?> ref : refs) {
+            getIdAllocating(ref);
+            batch.add(ref);
+            if (batch.size() == SEGMENT_BATCH_SIZE) {
+                loadSegmentBatch(batch, result);
+                batch.clear();
             }
-            return result;
         }
+        if (!batch.isEmpty()) {
+            loadSegmentBatch(batch, result);
+        }
+        return result;
     }
 
-    public List<SqlSegment> getSegments(SqlSubjectRef<?> ref) throws SQLException {
-        PVector<SqlSegment> result = PCollections.vector();
-        try (PreparedStatement stmt = prepareStatement(getSelectSegmentsSubjectQuery())) {
-            stmt.setInt(1, getIdAllocating(ref));
-            ResultSet rs = stmt.executeQuery();
+    private static final int SEGMENT_BATCH_SIZE = 256;
 
-            while (rs.next()) {
-                final int id = rs.getInt(1);
-                Number permDef = (Number) rs.getObject(2);
-                PSet<ContextValue<?>> contexts = getSegmentContexts(id);
+    /**
+     * Builder for a segment whose data is loaded across several queries.
+     */
+    private static final class SegmentRows {
+        final int id;
+        final int subject;
+        final @Nullable Integer permDefault;
+        PSet<ContextValue<?>> contexts = PCollections.set();
+        PMap<String, Integer> permissions = PCollections.map();
+        PMap<String, String> options = PCollections.map();
+        PVector<SqlSubjectRef<?>> parents = PCollections.vector();
+
+        SegmentRows(final int id, final int subject, final @Nullable Integer permDefault) {
+            this.id = id;
+            this.subject = subject;
+            this.permDefault = permDefault;
+        }
 
-                PMap<String, Integer> permValues = PCollections.map();
-                PMap<String, String> optionValues = PCollections.map();
-                PVector<SqlSubjectRef<?>> inheritanceValues = PCollections.vector();
+        SqlSegment build() {
+            return new SqlSegment(this.id, this.contexts, this.permissions, this.options, this.parents, this.permDefault, PCollections.vector());
+        }
+    }
+
+    private void loadSegmentBatch(final List<SqlSubjectRef<?>> refs, final Map<SqlSubjectRef<?>, List<SqlSegment>> result) throws SQLException {
+        final int paramCount = paddedParameterCount(refs.size());
+        final String paramList = parameterList(paramCount);
 
-                try (PreparedStatement permStmt = prepareStatement(getSelectPermissionsSegmentQuery())) {
-                    permStmt.setInt(1, id);
+        // Segments, in order for each subject
+        final Map<Integer, SegmentRows> segments = new LinkedHashMap<>();
+        try (PreparedStatement stmt = prepareSubjectsQuery(getSelectSegmentsSubjectsQuery(), paramList, refs, paramCount)) {
+            final ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                final int id = rs.getInt(1);
+                final Number permDef = (Number) rs.getObject(3);
+                segments.put(id, new SegmentRows(id, rs.getInt(2), permDef == null ? null : permDef.intValue()));
+            }
+        }
 
-                    ResultSet segmentRs = permStmt.executeQuery();
-                    while (segmentRs.next()) {
-                        permValues = permValues.plus(segmentRs.getString(1), segmentRs.getInt(2));
+        if (!segments.isEmpty()) {
+            try (PreparedStatement stmt = prepareSubjectsQuery(getSelectContextsSubjectsQuery(), paramList, refs, paramCount)) {
+                final ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final @Nullable SegmentRows segment = segments.get(rs.getInt(1));
+                    if (segment != null) {
+                        segment.contexts = segment.contexts.plus(new ContextValue<>(rs.getString(2), rs.getString(3)));
                     }
                 }
+            }
 
-                try (PreparedStatement optStmt = prepareStatement(getSelectOptionsSegmentQuery())) {
-                    optStmt.setInt(1, id);
-
-                    ResultSet segmentRs = optStmt.executeQuery();
-                    while (segmentRs.next()) {
-                        optionValues = optionValues.plus(segmentRs.getString(1), segmentRs.getString(2));
+            try (PreparedStatement stmt = prepareSubjectsQuery(getSelectPermissionsSubjectsQuery(), paramList, refs, paramCount)) {
+                final ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final @Nullable SegmentRows segment = segments.get(rs.getInt(1));
+                    if (segment != null) {
+                        segment.permissions = segment.permissions.plus(rs.getString(2), rs.getInt(3));
                     }
                 }
+            }
 
-                try (PreparedStatement inheritStmt = prepareStatement(getSelectInheritanceSegmentQuery())) {
-                    inheritStmt.setInt(1, id);
+            try (PreparedStatement stmt = prepareSubjectsQuery(getSelectOptionsSubjectsQuery(), paramList, refs, paramCount)) {
+                final ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final @Nullable SegmentRows segment = segments.get(rs.getInt(1));
+                    if (segment != null) {
+                        segment.options = segment.options.plus(rs.getString(2), rs.getString(3));
+                    }
+                }
+            }
 
-                    ResultSet segmentRs = inheritStmt.executeQuery();
-                    while (segmentRs.next()) {
-                        inheritanceValues = inheritanceValues.plus(new SqlSubjectRef<>(this.ds.ctx(), segmentRs.getInt(3), segmentRs.getString(4), segmentRs.getString(5)));
+            try (PreparedStatement stmt = prepareSubjectsQuery(getSelectInheritanceSubjectsQuery(), paramList, refs, paramCount)) {
+                final ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final @Nullable SegmentRows segment = segments.get(rs.getInt(1));
+                    if (segment != null) {
+                        segment.parents = segment.parents.plus(subjectRef(rs.getInt(2), rs.getString(3), rs.getString(4)));
                     }
                 }
+            }
+        }
+
+        final Map<Integer, PVector<SqlSegment>> bySubject = new HashMap<>();
+        for (final SegmentRows segment : segments.values()) {
+            bySubject.merge(segment.subject, PCollections.vector(segment.build()), PVector::plusAll);
+        }
+        for (final SqlSubjectRef<?> ref : refs) {
+            result.put(ref, bySubject.getOrDefault(ref.id(), PCollections.vector()));
+        }
+    }
+
+    /**
+     * Pad a parameter count to a power of two so only a few distinct statements are ever prepared.
+     *
+     * @param count the number of actual parameters
+     * @return the number of parameters to bind
+     */
+    private static int paddedParameterCount(final int count) {
+        return count == 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+    }
 
-                result = result.plus(new SqlSegment(id, contexts, permValues, optionValues, inheritanceValues, permDef == null ? null : permDef.intValue(), PCollections.vector()));
+    private static String parameterList(final int count) {
+        final StringBuilder params = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            params.append(i == 0 ? "?" : ",?");
+        }
+        return params.toString();
+    }
 
+    private PreparedStatement prepareSubjectsQuery(final String query, final String paramList, final List<SqlSubjectRef<?>> refs, final int paramCount) throws SQLException {
+        final PreparedStatement stmt = prepareStatement(String.format(query, paramList));
+        try {
+            for (int i = 0; i < paramCount; i++) {
+                // Repeat the last subject to fill any padding
+                stmt.setInt(i + 1, refs.get(Math.min(i, refs.size() - 1)).id());
             }
+        } catch (final SQLException ex) {
+            stmt.close();
+            throw ex;
         }
-        return result;
+        return stmt;
     }
 
     public SqlSegment addSegment(final SqlSubjectRef<?> ref) throws SQLException { // TODO: Is this method useful?
@@ -551,6 +860,10 @@ public abstract class SqlDao implements AutoCloseable {
         return conn.getMetaData().getTables(null, null, this.ds.getTableName(table).toUpperCase(), null).next(); // Upper-case for H2
     }
 
+    private boolean hasColumn(final String table, final String column) throws SQLException {
+        return conn.getMetaData().getColumns(null, null, this.ds.getTableName(table).toUpperCase(), column.toUpperCase()).next(); // Upper-case for H2
+    }
+
     public void clearOption(SqlSegment segment, String option) throws SQLException {
         try (PreparedStatement stmt = prepareStatement(getDeleteOptionKeyQuery())) {
             stmt.setInt(1, segment.id());
@@ -580,6 +893,21 @@ public abstract class SqlDao implements AutoCloseable {
         });
     }
 
+    /**
+     * Write the options of a segment, touching only options that differ from those stored.
+     *
+     * <p>The stored options are read in the same transaction, so the result is correct even
+     * if this server's copy of the segment is out of date.</p>
+     *
+     * @param seg the segment to modify
+     * @param newOptions options the segment should have
+     * @throws SQLException if unable to write changes
+     */
+    public void updateOptions(final SqlSegment seg, final Map<String, String> newOptions) throws SQLException {
+        updateEntries("options", seg, newOptions, getSelectOptionsSegmentQuery(), rs -> rs.getString(2),
+            getDeleteOptionKeyQuery(), getInsertOptionUpdatingQuery(), (stmt, value) -> stmt.setString(3, value));
+    }
+
     public void setOption(SqlSegment segment, String key, String value) throws SQLException {
         try (PreparedStatement stmt = prepareStatement(getInsertOptionUpdatingQuery())) {
             stmt.setInt(1, segment.id());
@@ -628,6 +956,81 @@ public abstract class SqlDao implements AutoCloseable {
         });
     }
 
+    /**
+     * Write the permissions of a segment, touching only permissions that differ from those stored.
+     *
+     * <p>The stored permissions are read in the same transaction, so the result is correct even
+     * if this server's copy of the segment is out of date.</p>
+     *
+     * @param segment the segment to modify
+     * @param newPermissions permissions the segment should have
+     * @throws SQLException if unable to write changes
+     */
+    public void updatePermissions(final SqlSegment segment, final Map<String, Integer> newPermissions) throws SQLException {
+        updateEntries("permissions", segment, newPermissions, getSelectPermissionsSegmentQuery(), rs -> rs.getInt(2),
+            getDeletePermissionKeyQuery(), getInsertPermissionUpdatingQuery(), (stmt, value) -> stmt.setInt(3, value));
+    }
+
+    private <V> void updateEntries(
+        final String kind,
+        final SqlSegment segment,
+        final Map<String, V> newEntries,
+        final String selectQuery,
+        final CheckedFunction<ResultSet, V, SQLException> valueGetter,
+        final String deleteQuery,
+        final String upsertQuery,
+        final CheckedBiConsumer<PreparedStatement, V, SQLException> valueSetter
+    ) throws SQLException {
+        executeInTransaction(() -> {
+            final Map<String, V> oldEntries = new HashMap<>();
+            try (PreparedStatement select = prepareStatement(selectQuery)) {
+                select.setInt(1, segment.id());
+                final ResultSet rs = select.executeQuery();
+                while (rs.next()) {
+                    oldEntries.put(rs.getString(1), valueGetter.apply(rs));
+                }
+            }
+
+            int deleted = 0, inserted = 0, updated = 0;
+            try (PreparedStatement del = prepareStatement(deleteQuery);
+                 PreparedStatement upsert = prepareStatement(upsertQuery)) {
+                del.setInt(1, segment.id());
+                for (final String key : oldEntries.keySet()) {
+                    if (!newEntries.containsKey(key)) {
+                        del.setString(2, key);
+                        del.addBatch();
+                        deleted++;
+                    }
+                }
+
+                upsert.setInt(1, segment.id());
+                for (final Map.Entry<String, V> ent : newEntries.entrySet()) {
+                    final @Nullable V old = oldEntries.get(ent.getKey());
+                    if (!ent.getValue().equals(old)) {
+                        upsert.setString(2, ent.getKey());
+                        valueSetter.accept(upsert, ent.getValue());
+                        upsert.addBatch();
+                        if (old == null) {
+                            inserted++;
+                        } else {
+                            updated++;
+                        }
+                    }
+                }
+
+                if (deleted > 0) {
+                    del.executeBatch();
+                }
+                if (inserted + updated > 0) {
+                    upsert.executeBatch();
+                }
+            }
+            this.ds.logger().debug("Wrote {} of segment {}: {} inserted, {} updated, {} deleted, {} unchanged",
+                kind, segment.id(), inserted, updated, deleted, newEntries.size() - inserted - updated);
+            return null;
+        });
+    }
+
     public void setDefaultValue(final SqlSegment segment, final @Nullable Integer permissionDefault) throws SQLException {
         try (PreparedStatement stmt = prepareStatement(getUpdatePermissionDefaultQuery())) {
             if (permissionDefault == null || permissionDefault == 0) {
@@ -641,9 +1044,11 @@ public abstract class SqlDao implements AutoCloseable {
     }
 
     public void addParent(SqlSegment seg, SqlSubjectRef<?> parent) throws SQLException {
-        try (PreparedStatement stmt = prepareStatement(getInsertInheritanceQuery())) {
+        // Added parents go first, matching SqlSegment#plusParent
+        try (PreparedStatement stmt = prepareStatement(getInsertInheritanceFirstQuery())) {
             stmt.setInt(1, seg.id());
             stmt.setInt(2, getIdAllocating(parent));
+            stmt.setInt(3, seg.id());
             stmt.executeUpdate();
         }
     }
@@ -665,8 +1070,10 @@ public abstract class SqlDao implements AutoCloseable {
 
                 if (parents != null) {
                     ins.setInt(1, segment.id());
+                    int position = 0;
                     for (SqlSubjectRef<?> ent : parents) {
                         ins.setInt(2, getIdAllocating(ent));
+                        ins.setInt(3, position++);
                         ins.addBatch();
                     }
                     ins.executeBatch();
@@ -676,6 +1083,182 @@ public abstract class SqlDao implements AutoCloseable {
         });
     }
 
+    /**
+     * Write the parents of a segment, touching only parents that differ from those stored.
+     *
+     * <p>Parents are kept in order by their position, so parents that only moved have their
+     * position updated rather than being written again. The stored parents are read in the same
+     * transaction, so the result is correct even if this server's copy of the segment is out
+     * of date.</p>
+     *
+     * @param segment the segment to modify
+     * @param newParents parents the segment should have, in order
+     * @throws SQLException if unable to write changes
+     */
+    public void updateParents(final SqlSegment segment, final List<SqlSubjectRef<?>> newParents) throws SQLException {
+        executeInTransaction(() -> {
+            final Map<Integer, Integer> removed = new LinkedHashMap<>(); // parent id -> position
+            try (PreparedStatement select = prepareStatement(getSelectInheritanceSegmentQuery())) {
+                select.setInt(1, segment.id());
+                final ResultSet rs = select.executeQuery();
+                while (rs.next()) {
+                    removed.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+            final Map<Integer, Integer> added = new LinkedHashMap<>();
+            final Map<Integer, Integer> moved = new LinkedHashMap<>();
+            final Set<Integer> seen = new HashSet<>();
+            int position = 0;
+            for (final SqlSubjectRef<?> parent : newParents) {
+                final int id = getIdAllocating(parent);
+                if (!seen.add(id)) {
+                    continue;
+                }
+                final @Nullable Integer storedPosition = removed.remove(id);
+                if (storedPosition == null) {
+                    added.put(id, position);
+                } else if (storedPosition != position) {
+                    moved.put(id, position);
+                }
+                position++;
+            }
+            if (removed.isEmpty() && added.isEmpty() && moved.isEmpty()) {
+                return null;
+            }
+
+            try (PreparedStatement del = prepareStatement(getDeleteInheritanceParentQuery());
+                 PreparedStatement upd = prepareStatement(getUpdateInheritancePositionQuery());
+                 PreparedStatement ins = prepareStatement(getInsertInheritanceQuery())) {
+                if (!removed.isEmpty()) {
+                    del.setInt(1, segment.id());
+                    for (final int parent : removed.keySet()) {
+                        del.setInt(2, parent);
+                        del.addBatch();
+                    }
+                    del.executeBatch();
+                }
+
+                if (!moved.isEmpty()) {
+                    upd.setInt(2, segment.id());
+                    for (final Map.Entry<Integer, Integer> parent : moved.entrySet()) {
+                        upd.setInt(1, parent.getValue());
+                        upd.setInt(3, parent.getKey());
+                        upd.addBatch();
+                    }
+                    upd.executeBatch();
+                }
+
+                if (!added.isEmpty()) {
+                    ins.setInt(1, segment.id());
+                    for (final Map.Entry<Integer, Integer> parent : added.entrySet()) {
+                        ins.setInt(2, parent.getKey());
+                        ins.setInt(3, parent.getValue());
+                        ins.addBatch();
+                    }
+                    ins.executeBatch();
+                }
+            }
+            this.ds.logger().debug("Wrote parents of segment {}: {} inserted, {} moved, {} deleted, {} unchanged",
+                segment.id(), added.size(), moved.size(), removed.size(), position - added.size() - moved.size());
+            return null;
+        });
+    }
+
+    /**
+     * Add the column holding the order of each segment's parents, if it is not present yet.
+     *
+     * @throws SQLException if unable to add the column
+     */
+    public void addInheritancePositions() throws SQLException {
+        if (hasColumn("inheritance", "position")) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(this.ds.insertPrefix(getAddInheritancePositionQuery()));
+        }
+    }
+
+    // -- Change log
+
+    public void createChangesTable() throws SQLException {
+        if (hasTable("changes")) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(this.ds.insertPrefix(getCreateChangesTableQuery()));
+            final @Nullable String index = getCreateChangesCreatedIndexQuery();
+            if (index != null) {
+                stmt.execute(this.ds.insertPrefix(index));
+            }
+        }
+    }
+
+    /**
+     * Record a change for other servers sharing this database to pick up.
+     *
+     * @param node the server making the change
+     * @param kind the kind of data changed, one of the {@code CHANGE_} constants in {@link SqlConstants}
+     * @param type the subject type changed, if any
+     * @param identifier the subject identifier or rank ladder name changed, if any
+     * @throws SQLException if unable to write the change
+     */
+    public void recordChange(final String node, final int kind, final @Nullable String type, final @Nullable String identifier) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getInsertChangeQuery())) {
+            stmt.setString(1, node);
+            stmt.setInt(2, kind);
+            stmt.setString(3, type);
+            stmt.setString(4, identifier);
+            stmt.setLong(5, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Get every change recorded after a certain change.
+     *
+     * @param lastSeen the id of the last change already seen
+     * @return changes, in the order they were made
+     * @throws SQLException if unable to read changes
+     */
+    public List<ChangeLog.Change> getChangesSince(final long lastSeen) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getSelectChangesSinceQuery())) {
+            stmt.setLong(1, lastSeen);
+            final ResultSet rs = stmt.executeQuery();
+            final List<ChangeLog.Change> changes = new ArrayList<>();
+            while (rs.next()) {
+                changes.add(new ChangeLog.Change(rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getString(4), rs.getString(5)));
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * Get the id of the most recent change.
+     *
+     * @return the change id, or {@code 0} if no changes are recorded
+     * @throws SQLException if unable to read changes
+     */
+    public long getLatestChangeId() throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getSelectLatestChangeQuery())) {
+            final ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Delete changes recorded before a certain time.
+     *
+     * @param before the time, in milliseconds since the epoch
+     * @return the number of changes deleted
+     * @throws SQLException if unable to delete changes
+     */
+    public int pruneChanges(final long before) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getDeleteChangesBeforeQuery())) {
+            stmt.setLong(1, before);
+            return stmt.executeUpdate();
+        }
+    }
+
     public SqlContextInheritance getContextInheritance() throws SQLException {
         try (PreparedStatement stmt = prepareStatement(getSelectContextInheritanceQuery())) {
             PMap<ContextValue<?>, PVector<ContextValue<?>>> ret = PCollections.map();
@@ -735,7 +1318,7 @@ public abstract class SqlDao implements AutoCloseable {
             stmt.setString(1, name);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                elements = elements.plus(new SqlSubjectRef<>(this.ds.ctx(), rs.getInt(2), rs.getString(3), rs.getString(4)));
+                elements = elements.plus(subjectRef(rs.getInt(2), rs.getString(3), rs.getString(4)));
             }
         }
         return new SqlRankLadder(name, elements);
@@ -792,7 +1375,57 @@ public abstract class SqlDao implements AutoCloseable {
             PSet<SqlSubjectRef<?>> ret = PCollections.set();
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                ret = ret.plus(new SqlSubjectRef<>(this.ds.ctx(), rs.getInt(1), rs.getString(2), rs.getString(3)));
+                ret = ret.plus(subjectRef(rs.getInt(1), rs.getString(2), rs.getString(3)));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Count the subjects of every type.
+     *
+     * @return the number of subjects, by type
+     * @throws SQLException if unable to query
+     */
+    public Map<String, Integer> getSubjectCounts() throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getSelectSubjectCountsQuery())) {
+            final Map<String, Integer> ret = new HashMap<>();
+            final ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                ret.put(rs.getString(1), rs.getInt(2));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Get the number of subjects of one type.
+     *
+     * @param type the subject type
+     * @return the subject count
+     * @throws SQLException if unable to query
+     */
+    public int getSubjectCount(final String type) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getSelectSubjectCountTypeQuery())) {
+            stmt.setString(1, type);
+            final ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Get the context keys used by the segments of every subject that has any.
+     *
+     * @return the context keys, by subject type and identifier
+     * @throws SQLException if unable to query
+     */
+    public Map<Map.Entry<String, String>, Set<String>> getSubjectContextKeys() throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getSelectSubjectContextKeysQuery())) {
+            final Map<Map.Entry<String, String>, Set<String>> ret = new HashMap<>();
+            final ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                ret.computeIfAbsent(UnmodifiableCollections.immutableMapEntry(rs.getString(1), rs.getString(2)), k -> new HashSet<>())
+                    .add(rs.getString(3));
             }
             return ret;
         }
@@ -24,16 +24,19 @@ import ca.stellardrift.permissionsex.datastore.sql.dao.H2SqlDao;
 import ca.stellardrift.permissionsex.datastore.sql.dao.MySqlDao;
 import ca.stellardrift.permissionsex.datastore.sql.dao.SchemaMigration;
 import ca.stellardrift.permissionsex.impl.backend.AbstractDataStore;
+import ca.stellardrift.permissionsex.impl.backend.SubjectMetadataIndex;
 import ca.stellardrift.permissionsex.datastore.DataStore;
 import ca.stellardrift.permissionsex.context.ContextValue;
 import ca.stellardrift.permissionsex.context.ContextInheritance;
 import ca.stellardrift.permissionsex.impl.util.PCollections;
+import ca.stellardrift.permissionsex.logging.FormattedLogger;
 import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
 import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
 import ca.stellardrift.permissionsex.rank.RankLadder;
 import ca.stellardrift.permissionsex.subject.SubjectRef;
 import com.google.auto.service.AutoService;
 import com.google.common.annotations.VisibleForTesting;
+import net.kyori.adventure.text.Component;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.pcollections.PMap;
 import org.pcollections.PSet;
@@ -46,8 +49,12 @@ import org.spongepowered.configurate.util.UnmodifiableCollections;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -55,6 +62,7 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -95,6 +103,12 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
         @Setting
         private @Nullable Boolean autoInitialize = null;
 
+        @Setting
+        private long pollInterval = 0;
+
+        @Setting
+        private List<String> mirrorTypes = new ArrayList<>();
+
         String prefix() {
             if (this.realPrefix == null) {
                 if (this.prefix != null && !this.prefix.isEmpty() && !this.prefix.endsWith("_")) {
@@ -112,12 +126,24 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
     // For testing
     @VisibleForTesting
     static ProtoDataStore<?> create(final String ident, final String jdbcUrl, final String tablePrefix, final boolean autoInitialize) {
+        return create(ident, jdbcUrl, tablePrefix, autoInitialize, 0);
+    }
+
+    @VisibleForTesting
+    static ProtoDataStore<?> create(final String ident, final String jdbcUrl, final String tablePrefix, final boolean autoInitialize, final long pollInterval) {
+        return create(ident, jdbcUrl, tablePrefix, autoInitialize, pollInterval, Collections.emptyList());
+    }
+
+    @VisibleForTesting
+    static ProtoDataStore<?> create(final String ident, final String jdbcUrl, final String tablePrefix, final boolean autoInitialize, final long pollInterval, final List<String> mirrorTypes) {
         try {
             return DataStoreFactory.forType(Factory.ID)
                 .create(ident, BasicConfigurationNode.root(FilePermissionsExConfiguration.PEX_OPTIONS, n -> {
                     n.node("url").raw(jdbcUrl);
                     n.node("prefix").raw(tablePrefix);
                     n.node("auto-initialize").raw(autoInitialize);
+                    n.node("poll-interval").raw(pollInterval);
+                    n.node("mirror-types").raw(mirrorTypes);
                 }));
         } catch (PermissionsLoadingException e) {
             throw new RuntimeException(e);
@@ -125,11 +151,14 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
     }
 
     private final ConcurrentMap<String, String> queryPrefixCache = new ConcurrentHashMap<>();
+    private final SubjectIdCache subjectIds = new SubjectIdCache();
     private final ThreadLocal<@Nullable SqlDao> heldDao = new ThreadLocal<>();
     private final PMap<String, CheckedFunction<SqlDataStore, SqlDao, SQLException>> daoImplementations = PCollections.<String, CheckedFunction<SqlDataStore, SqlDao, SQLException>>map("mysql", MySqlDao::new)
             .plus("h2", H2SqlDao::new);
     private CheckedFunction<SqlDataStore, SqlDao, SQLException> daoFactory;
     private DataSource sql;
+    private @Nullable ChangeLog changes;
+    private @Nullable SubjectMirror mirror;
 
     SqlDao getDao() throws SQLException {
         final @Nullable SqlDao dao = this.heldDao.get();
@@ -176,6 +205,138 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
                 throw new PermissionsLoadingException(Messages.ERROR_INITIALIZE_TABLES.tr(), e);
             }
         }
+
+        try (SqlDao dao = getDao()) {
+            indexSubjects(dao.getSubjectCounts(), dao.getSubjectContextKeys());
+        } catch (SQLException e) {
+            throw new PermissionsLoadingException(Messages.ERROR_LOADING_METADATA.tr(), e);
+        }
+
+        if (!config().mirrorTypes.isEmpty()) {
+            final SubjectMirror mirror = new SubjectMirror(config().mirrorTypes);
+            try (SqlDao dao = getDao()) {
+                mirror.load(dao);
+            } catch (SQLException e) {
+                throw new PermissionsLoadingException(Messages.ERROR_LOADING_MIRROR.tr(config().mirrorTypes), e);
+            }
+            context().logger().debug("Mirrored {} subjects of types {} in memory", mirror.size(), config().mirrorTypes);
+            this.mirror = mirror;
+            if (config().pollInterval <= 0) {
+                // fine for a database used by one server, but the mirror would go stale if shared
+                context().logger().warn(Messages.WARNING_MIRROR_WITHOUT_POLLING.tr(config().mirrorTypes));
+            }
+        }
+
+        if (config().pollInterval > 0) {
+            final ChangeLog changes = new ChangeLog(this, this::applyChanges, config().pollInterval);
+            try (SqlDao dao = getDao()) {
+                changes.start(dao);
+            } catch (SQLException e) {
+                changes.close();
+                throw new PermissionsLoadingException(Messages.ERROR_POLLING_CHANGES.tr(), e);
+            }
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Get the change log, if changes are shared with other servers.
+     *
+     * @return the change log
+     */
+    @Nullable ChangeLog changeLog() {
+        return this.changes;
+    }
+
+    private void recordChange(final SqlDao dao, final int kind, final @Nullable String type, final @Nullable String identifier) throws SQLException {
+        final @Nullable ChangeLog changes = this.changes;
+        if (changes != null) {
+            dao.recordChange(changes.node(), kind, type, identifier);
+        }
+    }
+
+    /**
+     * Notify listeners of data changed by other servers.
+     *
+     * @param changes the changes made elsewhere
+     */
+    private void applyChanges(final List<ChangeLog.Change> changes) {
+        final Set<Map.Entry<String, String>> subjects = new LinkedHashSet<>();
+        final Set<String> ladders = new LinkedHashSet<>();
+        boolean contextInheritance = false;
+        for (final ChangeLog.Change change : changes) {
+            switch (change.kind) {
+                case SqlConstants.CHANGE_SUBJECT:
+                    if (change.type != null && change.identifier != null) {
+                        subjects.add(UnmodifiableCollections.immutableMapEntry(change.type, change.identifier));
+                    }
+                    break;
+                case SqlConstants.CHANGE_RANK_LADDER:
+                    if (change.identifier != null) {
+                        ladders.add(change.identifier.toLowerCase());
+                    }
+                    break;
+                case SqlConstants.CHANGE_CONTEXT_INHERITANCE:
+                    contextInheritance = true;
+                    break;
+                default:
+                    // written by a newer version, nothing we can do
+                    break;
+            }
+        }
+
+        if (!subjects.isEmpty()) {
+            final Map<String, Set<String>> byType = new HashMap<>();
+            for (final Map.Entry<String, String> subject : subjects) {
+                this.subjectIds.invalidate(subject.getKey(), subject.getValue());
+                byType.computeIfAbsent(subject.getKey(), k -> new LinkedHashSet<>()).add(subject.getValue());
+            }
+            // Only the changed subjects are read again, rather than every subject's metadata
+            final Map<Map.Entry<String, String>, SqlSubjectData> reloaded = new HashMap<>();
+            try (SqlDao dao = getDao()) {
+                final @Nullable SubjectMirror mirror = this.mirror;
+                for (final Map.Entry<String, Set<String>> type : byType.entrySet()) {
+                    final Map<String, SqlSubjectRef<?>> refs = dao.getSubjectRefs(type.getKey(), type.getValue());
+                    final Map<SqlSubjectRef<?>, List<SqlSegment>> segments = dao.getSegments(refs.values());
+                    final int count = dao.getSubjectCount(type.getKey());
+                    for (final String identifier : type.getValue()) {
+                        final @Nullable SqlSubjectRef<?> ref = refs.get(identifier);
+                        final @Nullable SqlSubjectData data = ref == null ? null : toSubjectData(ref, segments.get(ref));
+                        reindexSubject(type.getKey(), identifier, count, data == null ? null : SubjectMetadataIndex.contextKeys(data));
+                        if (mirror != null && mirror.mirrors(type.getKey())) {
+                            mirror.reload(type.getKey(), identifier, data);
+                        }
+                        reloaded.put(UnmodifiableCollections.immutableMapEntry(type.getKey(), identifier),
+                            data == null ? new SqlSubjectData(SqlSubjectRef.unresolved(this.context(), type.getKey(), identifier)) : data);
+                    }
+                }
+            } catch (final SQLException ex) {
+                context().logger().warn(Messages.ERROR_LOADING_METADATA.tr(), ex);
+            }
+            for (final Map.Entry<String, String> subject : subjects) {
+                if (this.listeners.hasListeners(subject)) {
+                    final @Nullable SqlSubjectData data = reloaded.get(subject);
+                    if (data != null) {
+                        this.listeners.call(subject, data);
+                    } else { // not read because of an error
+                        getDataInternal(subject.getKey(), subject.getValue())
+                            .thenAccept(newData -> this.listeners.call(subject, newData));
+                    }
+                }
+            }
+        }
+
+        for (final String ladder : ladders) {
+            if (this.rankLadderListeners.hasListeners(ladder)) {
+                getRankLadderInternal(ladder)
+                    .thenAccept(data -> this.rankLadderListeners.call(ladder, data));
+            }
+        }
+
+        if (contextInheritance && this.contextInheritanceListeners.hasListeners(true)) {
+            getContextInheritanceInternal()
+                .thenAccept(data -> this.contextInheritanceListeners.call(true, data));
+        }
     }
 
     public void initializeTables() throws SQLException {
@@ -216,6 +377,46 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
         return this.config().prefix();
     }
 
+    FormattedLogger logger() {
+        return this.context().logger();
+    }
+
+    /**
+     * Get the in-memory copy of mirrored subject types, if any types are mirrored.
+     *
+     * @return the subject mirror
+     */
+    @Nullable SubjectMirror mirror() {
+        return this.mirror;
+    }
+
+    SubjectIdCache subjectIds() {
+        return this.subjectIds;
+    }
+
+    /**
+     * Get the number of subject lookups answered without querying the database.
+     *
+     * @return the subject id cache hit count
+     */
+    public long subjectIdCacheHits() {
+        return this.subjectIds.hitCount();
+    }
+
+    /**
+     * Get the number of subject lookups that had to query the database.
+     *
+     * @return the subject id cache miss count
+     */
+    public long subjectIdCacheMisses() {
+        return this.subjectIds.missCount();
+    }
+
+    @Override
+    public void reportStatistics(final Consumer<Component> receiver) {
+        receiver.accept(Messages.STATISTICS_SUBJECT_IDS.tr(this.subjectIdCacheHits(), this.subjectIdCacheMisses()));
+    }
+
     public String getTableName(String raw) {
         return getTableName(raw, false);
     }
@@ -236,6 +437,11 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
 
     @Override
     protected CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier) {
+        final @Nullable SubjectMirror mirror = this.mirror;
+        if (mirror != null && mirror.mirrors(type)) {
+            final @Nullable SqlSubjectData data = mirror.get(type, identifier);
+            return CompletableFuture.completedFuture(data != null ? data : new SqlSubjectData(SqlSubjectRef.unresolved(this.context(), type, identifier)));
+        }
         return runAsync(() -> {
             try (SqlDao dao = getDao()) {
                 final Optional<SqlSubjectRef<?>> ref = dao.getSubjectRef(type, identifier);
@@ -250,8 +456,42 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
         });
     }
 
+    @Override
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getDataInternal(final String type, final Collection<String> identifiers) {
+        final @Nullable SubjectMirror mirror = this.mirror;
+        if (mirror != null && mirror.mirrors(type)) {
+            final Map<String, ImmutableSubjectData> result = new HashMap<>(identifiers.size());
+            for (final String identifier : identifiers) {
+                final @Nullable SqlSubjectData data = mirror.get(type, identifier);
+                result.put(identifier, data != null ? data : new SqlSubjectData(SqlSubjectRef.unresolved(this.context(), type, identifier)));
+            }
+            return CompletableFuture.completedFuture(result);
+        }
+        return runAsync(() -> {
+            try (SqlDao dao = getDao()) {
+                final Map<String, SqlSubjectRef<?>> refs = dao.getSubjectRefs(type, identifiers);
+                final Map<SqlSubjectRef<?>, List<SqlSegment>> segments = dao.getSegments(refs.values());
+                final Map<String, ImmutableSubjectData> result = new HashMap<>(identifiers.size());
+                for (final String identifier : identifiers) {
+                    final @Nullable SqlSubjectRef<?> ref = refs.get(identifier);
+                    if (ref != null) {
+                        result.put(identifier, toSubjectData(ref, segments.get(ref)));
+                    } else {
+                        result.put(identifier, new SqlSubjectData(SqlSubjectRef.unresolved(this.context(), type, identifier)));
+                    }
+                }
+                return result;
+            } catch (SQLException e) {
+                throw new PermissionsLoadingException(Messages.ERROR_LOADING.tr(type, identifiers), e);
+            }
+        });
+    }
+
     private SqlSubjectData getDataForRef(SqlDao dao, SqlSubjectRef<?> ref) throws SQLException {
-        List<SqlSegment> segments = dao.getSegments(ref);
+        return toSubjectData(ref, dao.getSegments(ref));
+    }
+
+    static SqlSubjectData toSubjectData(final SqlSubjectRef<?> ref, final List<SqlSegment> segments) {
         PMap<PSet<ContextValue<?>>, SqlSegment> contexts = PCollections.map();
         for (SqlSegment segment : segments) {
             contexts = contexts.plus(segment.contexts(), segment);
@@ -270,17 +510,36 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
         } else {
             return runAsync(() -> {
                 try (SqlDao dao = getDao()) {
+                    final boolean existed = dao.getSubjectRef(type, identifier).isPresent();
                     SqlSubjectRef<?> ref = dao.getOrCreateSubjectRef(type, identifier);
-                    SqlSubjectData newData = getDataForRef(dao, ref);
-                    newData = (SqlSubjectData) newData.mergeFrom(data);
-                    newData.doUpdates(dao);
+                    final SqlSubjectData newData = (SqlSubjectData) getDataForRef(dao, ref).mergeFrom(data);
+                    dao.executeInTransaction(() -> {
+                        newData.doUpdates(dao);
+                        recordChange(dao, SqlConstants.CHANGE_SUBJECT, type, identifier);
+                        return null;
+                    });
+                    indexSubject(type, identifier, existed, SubjectMetadataIndex.contextKeys(newData));
+                    if (this.mirror != null) {
+                        this.mirror.put(type, identifier, newData);
+                    }
                     return newData;
                 }
             });
         }
         return runAsync(() -> {
             try (SqlDao dao = getDao()) {
-                sqlData.doUpdates(dao);
+                final boolean existed = !sqlData.subject().isUnallocated();
+                dao.executeInTransaction(() -> {
+                    sqlData.doUpdates(dao);
+                    recordChange(dao, SqlConstants.CHANGE_SUBJECT, type, identifier);
+                    return null;
+                });
+                if (!sqlData.subject().isUnallocated()) { // only once a change has created the subject
+                    indexSubject(type, identifier, existed, SubjectMetadataIndex.contextKeys(sqlData));
+                    if (this.mirror != null) {
+                        this.mirror.put(type, identifier, sqlData);
+                    }
+                }
                 return sqlData;
             }
         });
@@ -288,6 +547,10 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
 
     @Override
     public CompletableFuture<Boolean> isRegistered(String type, String identifier) {
+        final @Nullable SubjectMirror mirror = this.mirror;
+        if (mirror != null && mirror.mirrors(type)) {
+            return CompletableFuture.completedFuture(mirror.get(type, identifier) != null);
+        }
         return runAsync(() -> {
             try (SqlDao dao = getDao()) {
                 return dao.getSubjectRef(type, identifier).isPresent();
@@ -297,6 +560,10 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
 
     @Override
     public Stream<String> getAllIdentifiers(String type) {
+        final @Nullable SubjectMirror mirror = this.mirror;
+        if (mirror != null && mirror.mirrors(type)) {
+            return mirror.identifiers(type).stream();
+        }
         try (SqlDao dao = getDao()) {
             return dao.getAllIdentifiers(type).stream(); // TODO
         } catch (SQLException e) {
@@ -304,25 +571,6 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
         }
     }
 
-    @Override
-    public Set<String> getRegisteredTypes() {
-        try (SqlDao dao = getDao()) {
-            return dao.getRegisteredTypes();
-        } catch (SQLException e) {
-            return Collections.emptySet();
-        }
-
-    }
-
-    @Override
-    public CompletableFuture<Set<String>> getDefinedContextKeys() {
-        return runAsync(() -> {
-            try (SqlDao dao = getDao()) {
-                return dao.getUsedContextKeys();
-            }
-        });
-    }
-
     @Override
     public Stream<Map.Entry<SubjectRef<?>, ImmutableSubjectData>> getAll() {
         try (SqlDao dao = getDao()) {
@@ -349,7 +597,11 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
     protected CompletableFuture<RankLadder> setRankLadderInternal(final String ladder, final @Nullable RankLadder newLadder) {
         return runAsync(() -> {
             try (SqlDao dao = getDao()) {
-                dao.setRankLadder(ladder, newLadder);
+                dao.executeInTransaction(() -> {
+                    dao.setRankLadder(ladder, newLadder);
+                    recordChange(dao, SqlConstants.CHANGE_RANK_LADDER, null, ladder);
+                    return null;
+                });
                 return dao.getRankLadder(ladder);
             }
         });
@@ -398,7 +650,12 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
                                 }
                             }));
                 }
-                sqlInheritance.doUpdate(dao);
+                final SqlContextInheritance toWrite = sqlInheritance;
+                dao.executeInTransaction(() -> {
+                    toWrite.doUpdate(dao);
+                    recordChange(dao, SqlConstants.CHANGE_CONTEXT_INHERITANCE, null, null);
+                    return null;
+                });
             }
             return inheritance;
         });
@@ -428,6 +685,13 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore, SqlDataS
 
     @Override
     public void close() {
+        if (this.changes != null) {
+            this.changes.close();
+        }
+        this.subjectIds.clear();
+        if (this.mirror != null) {
+            this.mirror.clear();
+        }
         this.queryPrefixCache.clear();
         this.heldDao.remove();
     }
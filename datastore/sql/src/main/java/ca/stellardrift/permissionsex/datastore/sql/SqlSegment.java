@@ -170,10 +170,7 @@ class SqlSegment implements Segment {
 
     @Override
     public SqlSegment withoutOption(final String key) {
-        if (!this.options.containsKey(key)) {
-            return this;
-        }
-
+        // Always written, since the database may hold options this copy has not seen
         return newWithUpdate(
                 this.permissions,
                 this.options.minus(key),
@@ -190,7 +187,7 @@ class SqlSegment implements Segment {
                 immValues,
                 this.parents,
                 this.permissionDefault,
-                (dao, seg) -> dao.setOptions(seg, immValues));
+                (dao, seg) -> dao.updateOptions(seg, immValues));
     }
 
     @Override
@@ -205,11 +202,16 @@ class SqlSegment implements Segment {
 
     @Override
     public SqlSegment withPermission(final String permission, final int value) {
-        if (value == 0 && !this.permissions.containsKey(permission)) {
-            return this;
+        if (value == 0) { // always removed, since the database may hold permissions this copy has not seen
+            return newWithUpdate(
+                    this.permissions.minus(permission),
+                    this.options,
+                    this.parents,
+                    this.permissionDefault,
+                    (dao, seg) -> dao.clearPermission(seg, permission));
         }
         return newWithUpdate(
-                value == 0 ? this.permissions.minus(permission) : this.permissions.plus(permission, value),
+                this.permissions.plus(permission, value),
                 this.options,
                 this.parents,
                 this.permissionDefault,
@@ -225,7 +227,7 @@ class SqlSegment implements Segment {
                 this.options,
                 this.parents,
                 this.permissionDefault,
-                (dao, seg) -> dao.setPermissions(seg, immValues));
+                (dao, seg) -> dao.updatePermissions(seg, immValues));
     }
 
     @Override
@@ -261,10 +263,6 @@ class SqlSegment implements Segment {
 
     @Override
     public <I> SqlSegment minusParent(final SubjectRef<I> parent) {
-        if (this.parents.isEmpty()) {
-            return this;
-        }
-
         final SqlSubjectRef<I> sqlParent = SqlSubjectRef.from(parent);
         return newWithUpdate(
                 this.permissions,
@@ -282,7 +280,7 @@ class SqlSegment implements Segment {
                 this.options,
                 immValues,
                 this.permissionDefault,
-                (dao, seg) -> dao.setParents(seg, immValues));
+                (dao, seg) -> dao.updateParents(seg, immValues));
     }
 
     @Override
@@ -54,6 +54,10 @@ class SqlSubjectData implements ImmutableSubjectData {
         this.updatesToPerform = updates;
     }
 
+    SqlSubjectRef<?> subject() {
+        return this.subject;
+    }
+
     protected final SqlSubjectData newWithUpdate(PMap<PSet<ContextValue<?>>, SqlSegment> segments, CheckedBiConsumer<SqlDao, SqlSubjectData, SQLException> updateFunc) {
         return new SqlSubjectData(subject, segments, this.updatesToPerform.plus(updateFunc));
     }
@@ -0,0 +1,156 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.datastore.sql;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.util.UnmodifiableCollections;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded mapping between subjects and their row ids in the {@code subjects} table.
+ *
+ * <p>Only subjects known to exist are cached, so a miss always means asking the database. Entries
+ * must be invalidated when their subject is removed.</p>
+ *
+ * <p>Each direction is held in its own cache. When an entry is evicted from one, the matching entry
+ * in the other is dropped too, so a subject is never only known one way.</p>
+ */
+final class SubjectIdCache {
+    static final int MAXIMUM_SIZE = 1 << 14;
+
+    private final Cache<Map.Entry<String, String>, Integer> ids = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SIZE)
+        .executor(Runnable::run)
+        .<Map.Entry<String, String>, Integer>removalListener((subject, id, cause) -> {
+            if (cause.wasEvicted() && subject != null && id != null) {
+                this.subjects.asMap().remove(id, subject);
+            }
+        })
+        .build();
+    private final Cache<Integer, Map.Entry<String, String>> subjects = Caffeine.newBuilder()
+        .maximumSize(MAXIMUM_SIZE)
+        .executor(Runnable::run)
+        .<Integer, Map.Entry<String, String>>removalListener((id, subject, cause) -> {
+            if (cause.wasEvicted() && id != null && subject != null) {
+                this.ids.asMap().remove(subject, id);
+            }
+        })
+        .build();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the id of a subject.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @return the id, or {@code null} if not cached
+     */
+    @Nullable Integer id(final String type, final String identifier) {
+        return count(this.ids.getIfPresent(UnmodifiableCollections.immutableMapEntry(type, identifier)));
+    }
+
+    /**
+     * Get the type and identifier of the subject with a certain id.
+     *
+     * @param id the subject id
+     * @return an entry of type to identifier, or {@code null} if not cached
+     */
+    Map.@Nullable Entry<String, String> subject(final int id) {
+        return count(this.subjects.getIfPresent(id));
+    }
+
+    private <V> @Nullable V count(final @Nullable V value) {
+        (value == null ? this.misses : this.hits).incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Record the id of a subject that exists in the database.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param id the subject id
+     */
+    void put(final String type, final String identifier, final int id) {
+        final Map.Entry<String, String> subject = UnmodifiableCollections.immutableMapEntry(type, identifier);
+        this.ids.put(subject, id);
+        this.subjects.put(id, subject);
+    }
+
+    /**
+     * Forget a subject, after it has been removed.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     */
+    void invalidate(final String type, final String identifier) {
+        final Map.Entry<String, String> subject = UnmodifiableCollections.immutableMapEntry(type, identifier);
+        final @Nullable Integer id = this.ids.getIfPresent(subject);
+        this.ids.invalidate(subject);
+        if (id != null) {
+            this.subjects.invalidate(id);
+        }
+    }
+
+    /**
+     * Forget a subject whose id is known, after it has been removed.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param id the subject id
+     */
+    void invalidate(final String type, final String identifier, final int id) {
+        this.ids.invalidate(UnmodifiableCollections.immutableMapEntry(type, identifier));
+        this.subjects.invalidate(id);
+    }
+
+    /**
+     * Forget every subject.
+     */
+    void clear() {
+        this.ids.invalidateAll();
+        this.subjects.invalidateAll();
+    }
+
+    /**
+     * Get the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    long hitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups that had to go to the database.
+     *
+     * @return the miss count
+     */
+    long missCount() {
+        return this.misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SubjectIdCache{size=" + this.ids.estimatedSize() + ", hits=" + this.hits.get() + ", misses=" + this.misses.get() + '}';
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.datastore.sql;
+
+import ca.stellardrift.permissionsex.impl.util.PCollections;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pcollections.PMap;
+import org.spongepowered.configurate.util.UnmodifiableCollections;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory copy of every subject of certain types.
+ *
+ * <p>The mirror is filled when the data store loads, and then kept up to date by the data store's
+ * own writes, plus changes from other servers when change polling is enabled. Because every
+ * subject of a mirrored type is held, a subject missing from the mirror does not exist in the
+ * database either.</p>
+ *
+ * <p>Identifiers are matched like the database may match them, ignoring case but preferring a
+ * subject whose identifier matches exactly. Subjects are held by id, so a subject written under
+ * an identifier in a different case than the one it was stored with is still only held once.</p>
+ */
+final class SubjectMirror {
+    private final Set<String> types;
+    private final ConcurrentMap<Integer, MirroredSubject> subjects = new ConcurrentHashMap<>();
+    // subject ids by type and lower-case identifier, then by identifier as requested
+    private final ConcurrentMap<Map.Entry<String, String>, PMap<String, Integer>> ids = new ConcurrentHashMap<>();
+
+    SubjectMirror(final Collection<String> types) {
+        this.types = new HashSet<>(types);
+    }
+
+    static final class MirroredSubject {
+        final String type;
+        final String identifier;
+        final SqlSubjectData data;
+
+        MirroredSubject(final String type, final String identifier, final SqlSubjectData data) {
+            this.type = type;
+            this.identifier = identifier;
+            this.data = data;
+        }
+    }
+
+    private static Map.Entry<String, String> key(final String type, final String identifier) {
+        return UnmodifiableCollections.immutableMapEntry(type, identifier.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get whether every subject of a type is held in memory.
+     *
+     * @param type the subject type
+     * @return whether the type is mirrored
+     */
+    boolean mirrors(final String type) {
+        return this.types.contains(type);
+    }
+
+    /**
+     * Read every subject of the mirrored types from the database, replacing existing contents.
+     *
+     * @param dao the dao to read with
+     * @throws SQLException if unable to read subjects
+     */
+    synchronized void load(final SqlDao dao) throws SQLException {
+        clear();
+        for (final String type : this.types) {
+            final Map<String, SqlSubjectRef<?>> refs = dao.getSubjectRefs(type, dao.getAllIdentifiers(type));
+            final Map<SqlSubjectRef<?>, List<SqlSegment>> segments = dao.getSegments(refs.values());
+            for (final Map.Entry<String, SqlSubjectRef<?>> ref : refs.entrySet()) {
+                put(type, ref.getKey(), SqlDataStore.toSubjectData(ref.getValue(), segments.get(ref.getValue())));
+            }
+        }
+    }
+
+    /**
+     * Replace one subject with data read from the database again, after it was changed elsewhere.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param data the subject's data, or {@code null} if the subject no longer exists
+     */
+    synchronized void reload(final String type, final String identifier, final @Nullable SqlSubjectData data) {
+        if (data != null) {
+            put(type, identifier, data);
+        } else {
+            final @Nullable Integer id = id(type, identifier);
+            if (id != null) {
+                remove(id);
+            }
+        }
+    }
+
+    private @Nullable Integer id(final String type, final String identifier) {
+        final @Nullable PMap<String, Integer> ids = this.ids.get(key(type, identifier));
+        if (ids == null) {
+            return null;
+        }
+        final @Nullable Integer exact = ids.get(identifier);
+        if (exact != null) {
+            return exact;
+        }
+        final Iterator<Integer> matching = ids.values().iterator();
+        return matching.hasNext() ? matching.next() : null;
+    }
+
+    private void remove(final int id) {
+        final @Nullable MirroredSubject removed = this.subjects.remove(id);
+        if (removed == null) {
+            return;
+        }
+        // every identifier for a subject only differs in case, so they share a key
+        this.ids.computeIfPresent(key(removed.type, removed.identifier), (key, ids) -> {
+            PMap<String, Integer> remaining = ids;
+            for (final Map.Entry<String, Integer> name : ids.entrySet()) {
+                if (name.getValue() == id) {
+                    remaining = remaining.minus(name.getKey());
+                }
+            }
+            return remaining.isEmpty() ? null : remaining;
+        });
+    }
+
+    /**
+     * Get the data of a subject.
+     *
+     * @param type the subject type, which must be mirrored
+     * @param identifier the subject identifier
+     * @return the subject's data, or {@code null} if the subject does not exist
+     */
+    @Nullable SqlSubjectData get(final String type, final String identifier) {
+        final @Nullable Integer id = id(type, identifier);
+        if (id == null) {
+            return null;
+        }
+        final @Nullable MirroredSubject subject = this.subjects.get(id);
+        return subject == null ? null : subject.data;
+    }
+
+    /**
+     * Record the data of a subject after it has been written.
+     *
+     * @param type the subject type
+     * @param identifier the subject identifier
+     * @param data the subject's data
+     */
+    synchronized void put(final String type, final String identifier, final SqlSubjectData data) {
+        if (!mirrors(type)) {
+            return;
+        }
+        final int id = data.subject().id();
+        final Map.Entry<String, String> key = key(type, identifier);
+        final @Nullable PMap<String, Integer> ids = this.ids.get(key);
+        final @Nullable Integer previous = ids == null ? null : ids.get(identifier);
+        if (previous != null && previous != id) { // removed and created again elsewhere
+            remove(previous);
+        }
+        final @Nullable MirroredSubject existing = this.subjects.get(id);
+        this.subjects.put(id, new MirroredSubject(type, existing == null ? identifier : existing.identifier, data));
+        this.ids.merge(key, PCollections.map(identifier, id), PMap::plusAll);
+    }
+
+    /**
+     * Get the identifiers of every subject of a type.
+     *
+     * @param type the subject type, which must be mirrored
+     * @return the identifiers
+     */
+    Set<String> identifiers(final String type) {
+        final Set<String> result = new HashSet<>();
+        for (final MirroredSubject subject : this.subjects.values()) {
+            if (subject.type.equals(type)) {
+                result.add(subject.identifier);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forget every subject.
+     */
+    synchronized void clear() {
+        this.ids.clear();
+        this.subjects.clear();
+    }
+
+    /**
+     * Get the number of subjects held.
+     *
+     * @return the subject count
+     */
+    int size() {
+        return this.subjects.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SubjectMirror{types=" + this.types + ", size=" + this.subjects.size() + '}';
+    }
+}
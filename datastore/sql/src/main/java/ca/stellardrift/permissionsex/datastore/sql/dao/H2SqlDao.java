@@ -41,4 +41,20 @@ public class H2SqlDao extends SqlDao {
     protected String getInsertPermissionUpdatingQuery() {
         return "MERGE INTO {}permissions (`segment`, `key`, `value`) VALUES (?, ?, ?)";
     }
+
+    @Override
+    protected String getCreateChangesTableQuery() {
+        return "CREATE TABLE `{}changes` ("
+            + "`id` bigint NOT NULL IDENTITY, "
+            + "`node` varchar(36) NOT NULL, "
+            + "`kind` smallint NOT NULL, "
+            + "`type` varchar(255), "
+            + "`identifier` varchar(255), "
+            + "`created` bigint NOT NULL)";
+    }
+
+    @Override
+    protected String getCreateChangesCreatedIndexQuery() {
+        return "CREATE INDEX `{}changes_created` ON `{}changes` (`created`)";
+    }
 }
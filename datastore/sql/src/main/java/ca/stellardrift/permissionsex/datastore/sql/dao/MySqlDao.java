@@ -18,6 +18,7 @@ package ca.stellardrift.permissionsex.datastore.sql.dao;
 
 import ca.stellardrift.permissionsex.datastore.sql.SqlDao;
 import ca.stellardrift.permissionsex.datastore.sql.SqlDataStore;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.sql.SQLException;
 
@@ -40,4 +41,22 @@ public class MySqlDao extends SqlDao {
     protected String getInsertPermissionUpdatingQuery() {
         return "INSERT INTO {}permissions (segment, `key`, `value`) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE `value`=VALUES(`value`)";
     }
+
+    @Override
+    protected String getCreateChangesTableQuery() {
+        return "CREATE TABLE `{}changes` ("
+            + "`id` bigint NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+            + "`node` varchar(36) NOT NULL, "
+            + "`kind` smallint NOT NULL, "
+            + "`type` varchar(255), "
+            + "`identifier` varchar(255), "
+            + "`created` bigint NOT NULL, "
+            + "KEY `created_k` (`created`)"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8";
+    }
+
+    @Override
+    protected @Nullable String getCreateChangesCreatedIndexQuery() {
+        return null; // created_k is part of the table
+    }
 }
@@ -1,4 +1,4 @@
--- PermissionsEx Schema v3, H2 Edition
+-- PermissionsEx Schema v4, H2 Edition
 
 -- Data Types Used
 -- ---------------
@@ -59,6 +59,7 @@ CREATE TABLE `{}options` (
 CREATE TABLE `{}inheritance` (
   `segment` int(11) NOT NULL,
   `parent` int(11) NOT NULL,
+  `position` int(11) NOT NULL DEFAULT 0,
   UNIQUE (`segment`,`parent`),
   FOREIGN KEY (`segment`) REFERENCES `{}segments` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
   FOREIGN KEY (`parent`) REFERENCES `{}subjects` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
@@ -87,3 +88,14 @@ CREATE TABLE `{}context_inheritance` (
 
 CREATE INDEX ON `{}context_inheritance` (`child_key`, `child_value`);
 CREATE INDEX ON `{}context_inheritance` (`parent_key`, `parent_value`);
+
+CREATE TABLE `{}changes` (
+  `id` bigint NOT NULL IDENTITY,
+  `node` varchar(36) NOT NULL,
+  `kind` smallint NOT NULL,
+  `type` varchar(255),
+  `identifier` varchar(255),
+  `created` bigint NOT NULL
+);
+
+CREATE INDEX `{}changes_created` ON `{}changes` (`created`);
@@ -1,4 +1,4 @@
--- PermissionsEx Schema v3, MySQL/MariaDB Edition
+-- PermissionsEx Schema v4, MySQL/MariaDB Edition
 -- Requires InnoDB engine for foreign keys
 
 -- Data Types Used
@@ -58,6 +58,7 @@ CREATE TABLE `{}options` (
 CREATE TABLE `{}inheritance` (
   `segment` int(11) NOT NULL,
   `parent` int(11) NOT NULL,
+  `position` int(11) NOT NULL DEFAULT 0,
   UNIQUE KEY `segment` (`segment`,`parent`),
   KEY `parent` (`parent`),
   CONSTRAINT `inheritance_segment_fk` FOREIGN KEY (`segment`) REFERENCES `{}segments` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
@@ -83,3 +84,13 @@ CREATE TABLE `{}inheritance` (
   KEY `child_key` (`child_key`,`child_value`),
   KEY `parent_key` (`parent_key`,`parent_value`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `{}changes` (
+  `id` bigint NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  `node` varchar(36) NOT NULL,
+  `kind` smallint NOT NULL,
+  `type` varchar(255),
+  `identifier` varchar(255),
+  `created` bigint NOT NULL,
+  KEY `created_k` (`created`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,217 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.datastore.sql;
+
+import ca.stellardrift.permissionsex.context.ContextDefinitionProvider;
+import ca.stellardrift.permissionsex.datastore.ProtoDataStore;
+import ca.stellardrift.permissionsex.exception.PEBKACException;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.impl.PermissionsEx;
+import ca.stellardrift.permissionsex.impl.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.impl.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.impl.rank.FixedRankLadder;
+import ca.stellardrift.permissionsex.rank.RankLadder;
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.subject.SubjectRef;
+import ca.stellardrift.permissionsex.test.EmptyTestConfiguration;
+import ca.stellardrift.permissionsex.test.PermissionsExTest;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two engines sharing one database, each seeing changes made by the other.
+ */
+public class ChangeLogTest extends PermissionsExTest {
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final long POLL_INTERVAL = 60_000; // polled by hand instead
+
+    private String jdbcUrl;
+    private String prefix;
+    private PermissionsEx<?> other;
+
+    @BeforeEach
+    @Override
+    public void setUp(final TestInfo info, final @TempDir Path tempDir) throws IOException, PEBKACException, PermissionsLoadingException {
+        this.jdbcUrl = "jdbc:h2:file:" + tempDir.resolve("shared").resolve("test.db").toAbsolutePath().toString().replace('\\', '/');
+        this.prefix = "pexchanges" + COUNTER.getAndIncrement();
+        super.setUp(info, tempDir);
+
+        final PermissionsEx<EmptyPlatformConfiguration> other = new PermissionsEx<>(
+            LoggerFactory.getLogger("OtherServer"),
+            tempDir.resolve("other"),
+            Runnable::run,
+            url -> {
+                final JdbcDataSource ds = new JdbcDataSource();
+                ds.setURL(url);
+                return ds;
+            }
+        );
+        final PermissionsExConfiguration<EmptyPlatformConfiguration> config = new EmptyTestConfiguration(store("other", Collections.singletonList(SUBJECTS_GROUP.name())));
+        config.validate();
+        other.initialize(config);
+        other.subjects(SUBJECTS_GROUP);
+        other.subjects(SUBJECTS_USER);
+        this.other = other;
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() {
+        if (this.other != null) {
+            this.other.close();
+            this.other = null;
+        }
+        try (Connection conn = dataStore().getDataSource().getConnection()) {
+            final ResultSet tables = conn.getMetaData().getTables(null, null, dataStore().prefix().toUpperCase() + "%", null);
+            final Statement stmt = conn.createStatement();
+            while (tables.next()) {
+                stmt.addBatch("DROP TABLE " + tables.getString("TABLE_NAME"));
+            }
+            stmt.executeBatch();
+        } catch (final SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+        super.tearDown();
+    }
+
+    private ProtoDataStore<?> store(final String ident, final List<String> mirrorTypes) {
+        return SqlDataStore.create(ident, this.jdbcUrl, this.prefix, true, POLL_INTERVAL, mirrorTypes);
+    }
+
+    @Override
+    protected SqlDataStore dataStore() {
+        return (SqlDataStore) super.dataStore();
+    }
+
+    private SqlDataStore otherDataStore() {
+        return (SqlDataStore) this.other.activeDataStore();
+    }
+
+    @Override
+    protected PermissionsExConfiguration<EmptyPlatformConfiguration> populate() {
+        return new EmptyTestConfiguration(store("local", Collections.emptyList()));
+    }
+
+    private static ImmutableSubjectData withPermission(final ImmutableSubjectData data, final String permission, final int value) {
+        return data.withSegment(ContextDefinitionProvider.GLOBAL_CONTEXT, segment -> segment.withPermission(permission, value));
+    }
+
+    @Test
+    void testSubjectChangesReachOtherServer() throws ExecutionException, InterruptedException, SQLException {
+        manager().subjects(SUBJECTS_GROUP).persistentData().update("shared", data -> withPermission(data, "test.shared", 1)).get();
+        assertEquals(1, otherDataStore().changeLog().poll()); // nothing is listening yet
+
+        // The other server caches both subjects, and listens for updates
+        final CompletableFuture<ImmutableSubjectData> sharedUpdate = new CompletableFuture<>();
+        final Consumer<ImmutableSubjectData> sharedListener = sharedUpdate::complete;
+        final AtomicInteger untouchedUpdates = new AtomicInteger();
+        final Consumer<ImmutableSubjectData> untouchedListener = data -> untouchedUpdates.incrementAndGet();
+        other.subjects(SUBJECTS_GROUP).persistentData().data("shared", sharedListener).get();
+        other.subjects(SUBJECTS_GROUP).persistentData().data("untouched", untouchedListener).get();
+
+        manager().subjects(SUBJECTS_GROUP).persistentData().update("shared", data -> withPermission(data, "test.shared", -1)).get();
+        assertFalse(sharedUpdate.isDone());
+
+        assertEquals(0, dataStore().changeLog().poll()); // our own change
+        assertEquals(1, otherDataStore().changeLog().poll());
+
+        assertTrue(sharedUpdate.isDone());
+        assertEquals(-1, sharedUpdate.get().segment(ContextDefinitionProvider.GLOBAL_CONTEXT).permissions().get("test.shared").intValue());
+        final ImmutableSubjectData cached = other.subjects(SUBJECTS_GROUP).persistentData().dataIfPresent("shared", null);
+        assertNotNull(cached);
+        assertEquals(-1, cached.segment(ContextDefinitionProvider.GLOBAL_CONTEXT).permissions().get("test.shared").intValue());
+        assertEquals(0, untouchedUpdates.get());
+
+        // Nothing new the second time
+        assertEquals(0, otherDataStore().changeLog().poll());
+        sharedListener.accept(sharedUpdate.get()); // keep listeners reachable until here
+        untouchedListener.accept(cached);
+    }
+
+    @Test
+    void testRankLadderChangesReachOtherServer() throws ExecutionException, InterruptedException, SQLException {
+        final CompletableFuture<RankLadder> ladderUpdate = new CompletableFuture<>();
+        final Consumer<RankLadder> ladderListener = ladderUpdate::complete;
+        otherDataStore().getRankLadder("staff", ladderListener).get();
+
+        final SubjectRef<?> moderator = SubjectRef.subject(SUBJECTS_GROUP, "moderator");
+        dataStore().setRankLadder("staff", new FixedRankLadder("staff", Collections.singletonList(moderator))).get();
+        assertEquals(1, otherDataStore().changeLog().poll());
+
+        assertTrue(ladderUpdate.isDone());
+        assertEquals(1, ladderUpdate.get().ranks().size());
+        assertEquals("moderator", ladderUpdate.get().ranks().get(0).serializedIdentifier());
+        ladderListener.accept(ladderUpdate.get());
+    }
+
+    @Test
+    void testMirrorFollowsBothServers() throws ExecutionException, InterruptedException, SQLException {
+        final SubjectMirror mirror = otherDataStore().mirror();
+        assertNotNull(mirror);
+        assertTrue(mirror.mirrors(SUBJECTS_GROUP.name()));
+        assertFalse(mirror.mirrors(SUBJECTS_USER.name()));
+        assertNull(mirror.get(SUBJECTS_GROUP.name(), "remote"));
+
+        // Written elsewhere, picked up by polling
+        manager().subjects(SUBJECTS_GROUP).persistentData().update("remote", data -> withPermission(data, "test.remote", 1)).get();
+        assertEquals(1, otherDataStore().changeLog().poll());
+        final SqlSubjectData remote = mirror.get(SUBJECTS_GROUP.name(), "remote");
+        assertNotNull(remote);
+        assertEquals(1, remote.segment(ContextDefinitionProvider.GLOBAL_CONTEXT).permissions().get("test.remote").intValue());
+
+        // Written locally, picked up by the write path
+        otherDataStore().setData(SUBJECTS_GROUP.name(), "local", withPermission(otherDataStore().getData(SUBJECTS_GROUP.name(), "local", null).get(), "test.local", 1)).get();
+        assertNotNull(mirror.get(SUBJECTS_GROUP.name(), "local"));
+
+        // Identifiers match ignoring case, like the database may match them
+        assertSame(remote, mirror.get(SUBJECTS_GROUP.name(), "REMOTE"));
+        assertTrue(mirror.identifiers(SUBJECTS_GROUP.name()).contains("remote"));
+        assertFalse(mirror.identifiers(SUBJECTS_GROUP.name()).contains("REMOTE"));
+
+        // Reads of mirrored types never wait on the database
+        final CompletableFuture<ImmutableSubjectData> read = otherDataStore().getData(SUBJECTS_GROUP.name(), "remote", null);
+        assertTrue(read.isDone());
+        assertEquals(1, read.get().segment(ContextDefinitionProvider.GLOBAL_CONTEXT).permissions().get("test.remote").intValue());
+        assertTrue(otherDataStore().isRegistered(SUBJECTS_GROUP.name(), "local").isDone());
+        assertFalse(otherDataStore().isRegistered(SUBJECTS_GROUP.name(), "missing").get());
+    }
+}
@@ -19,6 +19,7 @@ package ca.stellardrift.permissionsex.datastore.sql;
 import ca.stellardrift.permissionsex.datastore.ProtoDataStore;
 import ca.stellardrift.permissionsex.impl.config.EmptyPlatformConfiguration;
 import ca.stellardrift.permissionsex.impl.util.PCollections;
+import ca.stellardrift.permissionsex.subject.ImmutableSubjectData;
 import ca.stellardrift.permissionsex.subject.SubjectRef;
 import ca.stellardrift.permissionsex.test.EmptyTestConfiguration;
 import ca.stellardrift.permissionsex.test.PermissionsExTest;
@@ -44,7 +45,10 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -127,6 +131,17 @@ public class SqlDaoTest extends PermissionsExTest {
         }
     }
 
+    @Test
+    public void testFailedTransactionRolledBack() throws SQLException {
+        try (SqlDao dao = dataStore().getDao()) {
+            assertThrows(SQLException.class, () -> dao.executeInTransaction(() -> {
+                dao.setGlobalParameter("rolled-back", "yes");
+                throw new SQLException("failure");
+            }));
+            assertFalse(dao.getGlobalParameter("rolled-back").isPresent());
+        }
+    }
+
     @Test
     public void testGetSubjectRef() throws SQLException {
         try (SqlDao dao = dataStore().getDao()) {
@@ -166,6 +181,31 @@ public class SqlDaoTest extends PermissionsExTest {
         }
     }
 
+    @Test
+    public void testSubjectIdCache() throws SQLException {
+        try (SqlDao dao = dataStore().getDao()) {
+            final SqlSubjectRef<?> created = dao.getOrCreateSubjectRef("group", "cached");
+            final long hits = dataStore().subjectIdCacheHits();
+
+            assertEquals(created.id(), dao.getSubjectRef("group", "cached").get().id());
+            assertEquals("cached", dao.getSubjectRef(created.id()).get().rawIdentifier());
+            assertEquals(created.id(), dao.getIdAllocating(SqlSubjectRef.unresolved(dataStore().ctx(), "group", "cached")));
+            assertEquals(hits + 3, dataStore().subjectIdCacheHits());
+
+            // Misses go to the database
+            final long misses = dataStore().subjectIdCacheMisses();
+            assertFalse(dao.getSubjectRef("group", "nonexistent").isPresent());
+            assertEquals(misses + 1, dataStore().subjectIdCacheMisses());
+
+            // Ids allocated in a transaction that is rolled back are not cached
+            assertThrows(SQLException.class, () -> dao.executeInTransaction(() -> {
+                dao.getOrCreateSubjectRef("group", "rolled-back");
+                throw new SQLException("failure");
+            }));
+            assertFalse(dao.getSubjectRef("group", "rolled-back").isPresent());
+        }
+    }
+
     @Test
     public void getRegisteredTypes() throws SQLException {
         try (SqlDao dao = dataStore().getDao()) {
@@ -352,6 +392,94 @@ public class SqlDaoTest extends PermissionsExTest {
         }
     }
 
+    @Test
+    public void testSegmentDiffs() throws SQLException {
+        try (SqlDao dao = dataStore().getDao()) {
+            final SqlSubjectRef<?> subject = dao.getOrCreateSubjectRef("group", "diffed");
+            final SqlSubjectRef<?> parentA = dao.getOrCreateSubjectRef("group", "a");
+            final SqlSubjectRef<?> parentB = dao.getOrCreateSubjectRef("group", "b");
+            final SqlSubjectRef<?> parentC = dao.getOrCreateSubjectRef("group", "c");
+            SqlSegment seg = dao.addSegment(subject);
+            dao.setPermissions(seg, ImmutableMap.of("test.kept", 1, "test.changed", 1, "test.removed", 1));
+            dao.setOptions(seg, ImmutableMap.of("kept", "yes", "changed", "before", "removed", "yes"));
+            dao.setParents(seg, Arrays.asList(parentA, parentB));
+            seg = dao.getSegments(subject).get(0);
+
+            // insert, update, delete, and leave alone in one write
+            seg = seg.withPermissions(ImmutableMap.of("test.kept", 1, "test.changed", -1, "test.added", 3))
+                .withOptions(ImmutableMap.of("kept", "yes", "changed", "after", "added", "new"))
+                .withParents(Arrays.asList(parentB, parentC));
+            seg.doUpdates(dao);
+
+            seg = dao.getSegments(subject).get(0);
+            assertEquals(ImmutableMap.of("test.kept", 1, "test.changed", -1, "test.added", 3), seg.permissions());
+            assertEquals(ImmutableMap.of("kept", "yes", "changed", "after", "added", "new"), seg.options());
+            assertEquals(2, seg.parents().size());
+            assertTrue(seg.parents().contains(parentB));
+            assertTrue(seg.parents().contains(parentC));
+        }
+    }
+
+    @Test
+    public void testParentOrderKept() throws SQLException {
+        try (SqlDao dao = dataStore().getDao()) {
+            final SqlSubjectRef<?> subject = dao.getOrCreateSubjectRef("group", "ordered");
+            final SqlSubjectRef<?> parentA = dao.getOrCreateSubjectRef("group", "a");
+            final SqlSubjectRef<?> parentB = dao.getOrCreateSubjectRef("group", "b");
+            final SqlSubjectRef<?> parentC = dao.getOrCreateSubjectRef("group", "c");
+            final SqlSubjectRef<?> parentD = dao.getOrCreateSubjectRef("group", "d");
+            SqlSegment seg = dao.addSegment(subject);
+            dao.setParents(seg, Arrays.asList(parentA, parentB, parentC));
+            seg = dao.getSegments(subject).get(0);
+            assertEquals(PCollections.vector(parentA, parentB, parentC), seg.parents());
+
+            // a write that only reorders parents
+            seg = seg.withParents(Arrays.asList(parentC, parentA, parentB));
+            seg.doUpdates(dao);
+            seg = dao.getSegments(subject).get(0);
+            assertEquals(PCollections.vector(parentC, parentA, parentB), seg.parents());
+
+            // added parents go first
+            seg = seg.plusParent(parentD);
+            seg.doUpdates(dao);
+            seg = dao.getSegments(subject).get(0);
+            assertEquals(PCollections.vector(parentD, parentC, parentA, parentB), seg.parents());
+        }
+    }
+
+    @Test
+    public void testSegmentDiffsWithStaleCopy() throws SQLException {
+        try (SqlDao dao = dataStore().getDao()) {
+            final SqlSubjectRef<?> subject = dao.getOrCreateSubjectRef("group", "stale");
+            final SqlSubjectRef<?> parent = dao.getOrCreateSubjectRef("group", "a");
+            final SqlSegment stale = dao.addSegment(subject);
+
+            // written elsewhere after our copy was read
+            dao.setPermissions(stale, ImmutableMap.of("test.elsewhere", 1));
+            dao.setOptions(stale, ImmutableMap.of("elsewhere", "yes"));
+            dao.setParents(stale, Collections.singletonList(parent));
+
+            SqlSegment seg = stale.withPermissions(ImmutableMap.of("test.local", 1))
+                .withOptions(ImmutableMap.of("local", "yes"))
+                .withParents(Collections.emptyList());
+            seg.doUpdates(dao);
+
+            seg = dao.getSegments(subject).get(0);
+            assertEquals(ImmutableMap.of("test.local", 1), seg.permissions());
+            assertEquals(ImmutableMap.of("local", "yes"), seg.options());
+            assertTrue(seg.parents().isEmpty());
+
+            dao.setPermissions(stale, ImmutableMap.of("test.elsewhere", 1));
+            dao.setOptions(stale, ImmutableMap.of("elsewhere", "yes"));
+            seg = stale.withoutPermissions().withoutOptions();
+            seg.doUpdates(dao);
+
+            seg = dao.getSegments(subject).get(0);
+            assertTrue(seg.permissions().isEmpty());
+            assertTrue(seg.options().isEmpty());
+        }
+    }
+
     @Test
     public void testParents() throws SQLException {
         try (SqlDao dao = dataStore().getDao()) {
@@ -407,6 +535,64 @@ public class SqlDaoTest extends PermissionsExTest {
         }
     }
 
+    @Test
+    public void testBatchedSegments() throws SQLException {
+        try (SqlDao dao = dataStore().getDao()) {
+            final SqlSubjectRef<?> member = dao.getOrCreateSubjectRef("group", "member"),
+                    vip = dao.getOrCreateSubjectRef("group", "vip"),
+                    empty = dao.getOrCreateSubjectRef("group", "empty");
+
+            SqlSegment memberSeg = dao.addSegment(member);
+            dao.setPermission(memberSeg, "test.member", 1);
+            dao.setOption(memberSeg, "prefix", "[M]");
+
+            SqlSegment vipGlobal = dao.addSegment(vip);
+            dao.addParent(vipGlobal, member);
+            dao.setPermission(vipGlobal, "test.vip", 1);
+            SqlSegment vipNether = dao.addSegment(vip);
+            dao.setContexts(vipNether, PCollections.set(new ContextValue<String>("world", "DIM-1")));
+            dao.setPermission(vipNether, "test.vip", -1);
+
+            final Map<SqlSubjectRef<?>, List<SqlSegment>> segments = dao.getSegments(Arrays.asList(member, vip, empty));
+            assertEquals(3, segments.size());
+            assertTrue(segments.get(empty).isEmpty());
+
+            memberSeg = segments.get(member).get(0);
+            assertEquals(1, memberSeg.permissions().get("test.member").intValue());
+            assertEquals("[M]", memberSeg.options().get("prefix"));
+
+            final List<SqlSegment> vipSegments = segments.get(vip);
+            assertEquals(2, vipSegments.size());
+            assertEquals(vipGlobal.id(), vipSegments.get(0).id());
+            assertEquals(PCollections.vector(member), vipSegments.get(0).parents());
+            assertTrue(vipSegments.get(0).contexts().isEmpty());
+            assertEquals(PCollections.set(new ContextValue<String>("world", "DIM-1")), vipSegments.get(1).contexts());
+            assertEquals(-1, vipSegments.get(1).permissions().get("test.vip").intValue());
+
+            // A single subject is loaded the same way
+            assertEquals(vipSegments.size(), dao.getSegments(vip).size());
+        }
+    }
+
+    @Test
+    public void testBatchedData() throws SQLException {
+        try (SqlDao dao = dataStore().getDao()) {
+            final SqlSubjectRef<?> member = dao.getOrCreateSubjectRef("group", "member");
+            dao.getOrCreateSubjectRef("user", "member");
+            final SqlSegment memberSeg = dao.addSegment(member);
+            dao.setPermission(memberSeg, "test.member", 1);
+
+            final Map<String, SqlSubjectRef<?>> refs = dao.getSubjectRefs("group", Arrays.asList("member", "missing"));
+            assertEquals(1, refs.size());
+            assertEquals(member.id(), refs.get("member").id());
+        }
+
+        final Map<String, ImmutableSubjectData> data = dataStore().getData("group", Arrays.asList("member", "missing"), null).join();
+        assertEquals(2, data.size());
+        assertEquals(1, data.get("member").segment(PCollections.set()).permissions().get("test.member").intValue());
+        assertTrue(data.get("missing").segments().isEmpty());
+    }
+
     @Test
     public void testSetDefaultValue() throws SQLException {
         try (SqlDao dao = dataStore().getDao()) {
@@ -1,5 +1,6 @@
 plugins {
     id("pex-component")
+    id("me.champeau.jmh")
     antlr
 }
 
@@ -9,11 +10,17 @@ configurations.compile {
 
 useCheckerFramework()
 dependencies {
+    // The ANTLR parser is only kept as a baseline for benchmarks
     val antlrVersion: String by project
     antlr("org.antlr:antlr4:$antlrVersion")
-    implementation("org.antlr:antlr4-runtime:$antlrVersion")
+    jmh("org.antlr:antlr4-runtime:$antlrVersion")
 }
 
-tasks.generateGrammarSource {
+tasks.withType(AntlrTask::class).configureEach {
     this.arguments.addAll(listOf("-visitor", "-no-listener"))
 }
+
+val jmhVersion: String by project
+jmh {
+    this.jmhVersion.set(jmhVersion)
+}
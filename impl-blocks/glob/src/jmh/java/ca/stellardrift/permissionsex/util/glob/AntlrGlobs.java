@@ -0,0 +1,51 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.util.glob;
+
+import ca.stellardrift.permissionsex.util.glob.parser.GlobLexer;
+import ca.stellardrift.permissionsex.util.glob.parser.GlobParser;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * The previous ANTLR-generated glob parser, kept as a baseline for benchmarks.
+ */
+final class AntlrGlobs {
+    private AntlrGlobs() {
+    }
+
+    static GlobNode parse(final String input) throws GlobParseException {
+        final GlobLexer lexer = new GlobLexer(CharStreams.fromString(input));
+        final CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+        final GlobParser parser = new GlobParser(tokenStream);
+        parser.getErrorListeners().clear();
+        parser.setErrorHandler(new BailErrorStrategy());
+
+        try {
+            return GlobVisitor.INSTANCE.visit(parser.rootGlob());
+        } catch (ParseCancellationException e) {
+            RecognitionException ex = ((RecognitionException) e.getCause());
+            Token errorToken = ex.getOffendingToken();
+            throw new GlobParseException("Unable to parse glob: Error at token " + errorToken.getText()
+                + " (at position " + errorToken.getLine() + ":" + errorToken.getCharPositionInLine() + ")", ex);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.util.glob;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the hand-written glob parser against the ANTLR parser it replaced.
+ *
+ * <p>The {@code warm} benchmarks measure steady-state parsing. The {@code cold}
+ * benchmarks measure the first parse in a fresh JVM, including class loading
+ * and initialization of the parser, which is the cost paid during plugin startup.</p>
+ *
+ * <p>Run with {@code ./gradlew :impl-blocks:glob:jmh}.</p>
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GlobParserBenchmark {
+    private static final String[] GLOBS = {
+        "worldedit.{navigation,selection,clipboard}.*",
+        "essentials.{home,sethome,delhome}.{bed,multiple}",
+        "minecraft.command.[abc]",
+        "plugin.{a,{b,c},d}.feature{1,2,3}",
+        "some.node.{with\\,escape,other}",
+        "chat.color.[0123456789abcdef]",
+    };
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public void warmHandWritten(final Blackhole hole) throws GlobParseException {
+        for (final String glob : GLOBS) {
+            hole.consume(GlobParser.parse(glob));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public void warmAntlr(final Blackhole hole) throws GlobParseException {
+        for (final String glob : GLOBS) {
+            hole.consume(AntlrGlobs.parse(glob));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(20)
+    public void coldHandWritten(final Blackhole hole) throws GlobParseException {
+        this.warmHandWritten(hole);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(20)
+    public void coldAntlr(final Blackhole hole) throws GlobParseException {
+        this.warmAntlr(hole);
+    }
+}
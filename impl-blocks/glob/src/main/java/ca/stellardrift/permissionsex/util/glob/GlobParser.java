@@ -0,0 +1,221 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.permissionsex.util.glob;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recursive-descent parser for the glob syntax.
+ *
+ * <p>The accepted grammar is:</p>
+ * <pre>
+ * rootGlob: glob EOF;
+ * glob: element+;
+ * element: or | chars | LITERAL;
+ * chars: '[' LITERAL ']';
+ * or: '{' (glob ','?)* '}';
+ *
+ * LITERAL: (ESC | CHAR)+;
+ * CHAR: ~('{' | '}' | '[' | ']' | ',');
+ * ESC: '\' ('{' | '}' | ',');
+ * </pre>
+ */
+final class GlobParser {
+    private static final char ESCAPE_MARKER = '\\';
+
+    // Token types
+    private static final int EOF = -1;
+    private static final int LITERAL = 0;
+    private static final int OPEN_OR = '{';
+    private static final int CLOSE_OR = '}';
+    private static final int OPEN_CHARS = '[';
+    private static final int CLOSE_CHARS = ']';
+    private static final int SEPARATOR = ',';
+
+    private final String input;
+    // The current token, spanning [tokenStart, tokenEnd) of the input
+    private int tokenType;
+    private int tokenStart;
+    private int tokenEnd;
+    // Position of the current token, for error messages
+    private int line = 1;
+    private int column;
+    private int lineStart;
+
+    private GlobParser(final String input) {
+        this.input = input;
+        this.lex();
+    }
+
+    static GlobNode parse(final String input) throws GlobParseException {
+        final GlobParser parser = new GlobParser(input);
+        final GlobNode ret = parser.glob();
+        parser.expect(EOF);
+        return ret;
+    }
+
+    // Parser //
+
+    private GlobNode glob() throws GlobParseException {
+        final GlobNode first = this.element();
+        if (!this.atElement()) {
+            return first;
+        }
+
+        final List<GlobNode> elements = new ArrayList<>();
+        elements.add(first);
+        do {
+            elements.add(this.element());
+        } while (this.atElement());
+        return new SequenceNode(Collections.unmodifiableList(elements));
+    }
+
+    private boolean atElement() {
+        return this.tokenType == LITERAL || this.tokenType == OPEN_OR || this.tokenType == OPEN_CHARS;
+    }
+
+    private GlobNode element() throws GlobParseException {
+        switch (this.tokenType) {
+            case OPEN_OR:
+                return this.or();
+            case OPEN_CHARS:
+                return this.chars();
+            case LITERAL:
+                final GlobNode ret = new UnitNode(unescape(this.input, this.tokenStart, this.tokenEnd));
+                this.lex();
+                return ret;
+            default:
+                throw this.error();
+        }
+    }
+
+    private GlobNode chars() throws GlobParseException {
+        this.expect(OPEN_CHARS);
+        if (this.tokenType != LITERAL) {
+            throw this.error();
+        }
+        final GlobNode ret = new CharsNode(this.input.substring(this.tokenStart, this.tokenEnd));
+        this.lex();
+        this.expect(CLOSE_CHARS);
+        return ret;
+    }
+
+    private GlobNode or() throws GlobParseException {
+        this.expect(OPEN_OR);
+        final List<GlobNode> options = new ArrayList<>();
+        while (this.atElement()) {
+            options.add(this.glob());
+            if (this.tokenType == SEPARATOR) {
+                this.lex();
+            }
+        }
+        this.expect(CLOSE_OR);
+        return new OrNode(Collections.unmodifiableList(options));
+    }
+
+    private void expect(final int type) throws GlobParseException {
+        if (this.tokenType != type) {
+            throw this.error();
+        }
+        if (type != EOF) {
+            this.lex();
+        }
+    }
+
+    private GlobParseException error() {
+        final String text = this.tokenType == EOF ? "<EOF>" : this.input.substring(this.tokenStart, this.tokenEnd);
+        return new GlobParseException("Unable to parse glob: Error at token " + text + " (at position " + this.line + ":" + this.column + ")");
+    }
+
+    // Lexer //
+
+    private static boolean isSpecial(final char c) {
+        return c == OPEN_OR || c == CLOSE_OR || c == OPEN_CHARS || c == CLOSE_CHARS || c == SEPARATOR;
+    }
+
+    private static boolean isEscapable(final char c) {
+        return c == OPEN_OR || c == CLOSE_OR || c == SEPARATOR;
+    }
+
+    /**
+     * Advance to the next token.
+     */
+    private void lex() {
+        // Track the position of the token being read
+        for (int i = this.tokenStart; i < this.tokenEnd; i++) {
+            if (this.input.charAt(i) == '\n') {
+                this.line++;
+                this.lineStart = i + 1;
+            }
+        }
+        this.tokenStart = this.tokenEnd;
+        this.column = this.input.codePointCount(this.lineStart, this.tokenStart);
+
+        final String input = this.input;
+        final int length = input.length();
+        int idx = this.tokenStart;
+        if (idx >= length) {
+            this.tokenType = EOF;
+            return;
+        }
+
+        final char first = input.charAt(idx);
+        if (isSpecial(first)) {
+            this.tokenType = first;
+            this.tokenEnd = idx + 1;
+            return;
+        }
+
+        while (idx < length) {
+            final char c = input.charAt(idx);
+            if (c == ESCAPE_MARKER && idx + 1 < length && isEscapable(input.charAt(idx + 1))) {
+                idx += 2;
+            } else if (isSpecial(c)) {
+                break;
+            } else {
+                idx++;
+            }
+        }
+        this.tokenType = LITERAL;
+        this.tokenEnd = idx;
+    }
+
+    /**
+     * Remove simple escape sequences from a region of a string.
+     *
+     * @param withEscapes input string with escapes
+     * @param start the start of the region, inclusive
+     * @param end the end of the region, exclusive
+     * @return string with escapes processed
+     */
+    private static String unescape(final String withEscapes, final int start, final int end) {
+        int escapeIdx = withEscapes.indexOf(ESCAPE_MARKER, start);
+        if (escapeIdx == -1 || escapeIdx >= end) { // nothing to unescape
+            return withEscapes.substring(start, end);
+        }
+        int lastEscape = start;
+        final StringBuilder output = new StringBuilder(end - start);
+        do {
+            output.append(withEscapes, lastEscape, escapeIdx);
+            lastEscape = escapeIdx + 1;
+        } while ((escapeIdx = withEscapes.indexOf(ESCAPE_MARKER, lastEscape + 1)) != -1 && escapeIdx < end); // add one extra character to make sure we don't include escaped backslashes
+        output.append(withEscapes, lastEscape, end);
+        return output.toString();
+    }
+}
@@ -16,16 +16,6 @@
  */
 package ca.stellardrift.permissionsex.util.glob;
 
-import ca.stellardrift.permissionsex.util.glob.parser.GlobLexer;
-import ca.stellardrift.permissionsex.util.glob.parser.GlobParser;
-import org.antlr.v4.runtime.BailErrorStrategy;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.RecognitionException;
-import org.antlr.v4.runtime.Token;
-import org.antlr.v4.runtime.misc.ParseCancellationException;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -59,28 +49,7 @@ public final class Globs {
         if (!(input.contains("{") || input.contains("["))) { // If no special characters, just return raw input
             return new UnitNode(input);
         }
-        return parse0(CharStreams.fromString(input));
-    }
-
-    private static GlobNode parse0(final CharStream input) throws GlobParseException {
-        final GlobLexer lexer = new GlobLexer(input);
-        final CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-        final GlobParser parser = new GlobParser(tokenStream);
-        parser.getErrorListeners().clear();
-        parser.setErrorHandler(new BailErrorStrategy());
-
-        try {
-            return GlobVisitor.INSTANCE.visit(parser.rootGlob());
-        } catch (ParseCancellationException e) {
-            RecognitionException ex = ((RecognitionException) e.getCause());
-            Token errorToken = ex.getOffendingToken();
-            throw new GlobParseException(parseErrorMessage(errorToken.getText(),
-                    errorToken.getLine(), errorToken.getCharPositionInLine()), ex);
-        }
-    }
-
-    private static String parseErrorMessage(final String text, final int line, final int column) {
-        return "Unable to parse glob: Error at token " + text + " (at position " + line + ":" + column + ")";
+        return GlobParser.parse(input);
     }
 
     private static List<GlobNode> parseValues(Object[] values) {
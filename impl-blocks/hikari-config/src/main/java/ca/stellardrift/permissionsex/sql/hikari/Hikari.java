@@ -68,13 +68,23 @@ public class Hikari {
     private static final PMap<String, Properties> PROTOCOL_SPECIFIC_PROPS;
 
     static {
+        // Prepared statements are cached by the driver for each physical connection, so they are
+        // reused across pool checkouts. Both drivers take the same cache options.
+        final Properties mariadbProps = new Properties();
+        mariadbProps.setProperty("cachePrepStmts", "true");
+        mariadbProps.setProperty("useServerPrepStmts", "true");
+        mariadbProps.setProperty("prepStmtCacheSize", "250");
+        mariadbProps.setProperty("prepStmtCacheSqlLimit", "2048");
+
         final Properties mysqlProps = new Properties();
+        mysqlProps.putAll(mariadbProps);
         // Config options based on http://assets.en.oreilly.com/1/event/21/Connector_J%20Performance%20Gems%20Presentation.pdf
         mysqlProps.setProperty("useConfigs", "maxPerformance");
 
         PROTOCOL_SPECIFIC_PROPS = HashTreePMap.<String, Properties>empty()
                 .plus("com.mysql.jdbc.Driver", mysqlProps)
-                .plus("org.maridadb.jdbc.Driver", mysqlProps);
+                .plus("com.mysql.cj.jdbc.Driver", mysqlProps)
+                .plus("org.mariadb.jdbc.Driver", mariadbProps);
     }
 
     /**
@@ -131,11 +141,10 @@ public class Hikari {
         // https://github.com/brettwooldridge/HikariCP/wiki/About-Pool-Sizing for info on pool sizing
         config.setMaximumPoolSize((Runtime.getRuntime().availableProcessors() * 2) + 1);
         final @Nullable Properties driverSpecificProperties = PROTOCOL_SPECIFIC_PROPS.get(driverClass);
-        final Properties dsProps;
-        if (driverSpecificProperties == null) {
-            dsProps = new Properties();
-        } else {
-            dsProps = new Properties(driverSpecificProperties);
+        // Copied rather than used as defaults, since the pool only copies the properties themselves
+        final Properties dsProps = new Properties();
+        if (driverSpecificProperties != null) {
+            dsProps.putAll(driverSpecificProperties);
         }
         dsProps.setProperty("baseDir", baseDir.toAbsolutePath().toString());
         config.setDataSourceProperties(dsProps);
@@ -95,6 +95,7 @@ public final class MinecraftPermissionsEx<T> implements Closeable {
     private final @Nullable CommandManager<Commander> commands;
     private final String commandPrefix;
     private final @Nullable Consumer<CommandRegistrationContext> commandContributor;
+    private final @Nullable Consumer<Audience> statisticsReporter;
     private final MessageFormatter formatter;
     private final Map<BaseDirectoryScope, Path> baseDirectories;
     private final Supplier<T> platformConfigProvider;
@@ -137,6 +138,7 @@ public final class MinecraftPermissionsEx<T> implements Closeable {
         );
         this.commandPrefix = builder.commandPrefix;
         this.commandContributor = builder.commandContributor;
+        this.statisticsReporter = builder.statisticsReporter;
         final Predicate<UUID> opProvider = builder.opProvider;
         this.users = SubjectType.builder(SUBJECTS_USER, UUID.class)
             .serializedBy(UUID::toString)
@@ -231,6 +233,22 @@ public final class MinecraftPermissionsEx<T> implements Closeable {
         }
     }
 
+    /**
+     * Send runtime statistics, such as cache hit rates, to a receiver.
+     *
+     * <p>Statistics from the engine and its data store are always sent, followed by
+     * any from the platform's statistics reporter.</p>
+     *
+     * @param receiver the receiver for the messages
+     * @since 2.0.0
+     */
+    public void reportStatistics(final Audience receiver) {
+        this.engine.reportStatistics(receiver::sendMessage);
+        if (this.statisticsReporter != null) {
+            this.statisticsReporter.accept(receiver);
+        }
+    }
+
     /**
      * Get a game-specific base directory for a certain socpe.
      *
@@ -433,6 +451,7 @@ public final class MinecraftPermissionsEx<T> implements Closeable {
         private @Nullable Function<Function<CommandTree<Commander>, CommandExecutionCoordinator<Commander>>, CommandManager<Commander>> commandManagerMaker;
         private String commandPrefix = "";
         private @Nullable Consumer<CommandRegistrationContext> commandContributor;
+        private @Nullable Consumer<Audience> statisticsReporter;
         private Function<MinecraftPermissionsEx<C>, MessageFormatter> formatterProvider = MessageFormatter::new;
         private PMap<BaseDirectoryScope, Path> baseDirectories = PCollections.map();
 
@@ -520,6 +539,19 @@ public final class MinecraftPermissionsEx<T> implements Closeable {
             return this;
         }
 
+        /**
+         * Register a callback function that will describe platform-specific runtime statistics when
+         * debug mode is toggled.
+         *
+         * @param reporter the reporter, sending messages to the provided audience
+         * @return this builder
+         * @since 2.0.0
+         */
+        public Builder<C> statisticsReporter(final Consumer<Audience> reporter) {
+            this.statisticsReporter = requireNonNull(reporter, "reporter");
+            return this;
+        }
+
         /**
          * Set a message formatter to be used for instance-specific formatting.
          *
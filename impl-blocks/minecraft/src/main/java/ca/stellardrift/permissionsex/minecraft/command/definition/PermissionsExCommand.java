@@ -181,6 +181,7 @@ public final class PermissionsExCommand {
                     engine.debugMode(debugEnabled);
                     source.sendMessage(Messages.DEBUG_SUCCESS.tr(Formats.bool(debugEnabled)));
                 }
+                ctx.get(PEXCommandPreprocessor.PEX_MANAGER).reportStatistics(source);
             }));
     }
 
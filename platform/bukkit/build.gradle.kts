@@ -85,7 +85,6 @@ pexPlatform {
         "net.kyori",
         "org.checkerframework",
         "org.jdbi",
-        "org.antlr",
         "org.pcollections",
         "org.slf4j",
         "org.spongepowered.configurate"
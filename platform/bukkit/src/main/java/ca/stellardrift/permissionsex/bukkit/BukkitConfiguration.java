@@ -28,8 +28,17 @@ final class BukkitConfiguration {
     @Comment("Whether to fall back to checking op status when a permission is unset in PEX")
     private boolean fallbackOp = true;
 
+    @Setting
+    @Comment("How long to wait, in milliseconds, for a player's data to load while they log in.\n"
+        + "Data that takes longer finishes loading on the server thread when they join. 0 disables waiting")
+    private long preloadTimeout = 5000;
+
     boolean fallbackOp() {
         return this.fallbackOp;
     }
 
+    long preloadTimeout() {
+        return this.preloadTimeout;
+    }
+
 }
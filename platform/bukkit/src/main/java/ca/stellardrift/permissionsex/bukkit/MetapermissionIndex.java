@@ -0,0 +1,125 @@
+/*
+ * PermissionsEx - a permissions plugin for your server ecosystem
+ * Copyright © 2021 zml [at] stellardrift [dot] ca and PermissionsEx contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ca.stellardrift.permissionsex.bukkit;
+
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.subject.CalculatedSubject;
+import ca.stellardrift.permissionsex.subject.SubjectRef;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Permissions granted by a subject's groups and options in one set of contexts.
+ *
+ * <table>
+ *     <caption>Metapermissions</caption>
+ *     <tr><th>Permission</th><th>Usage</th></tr>
+ *     <tr><td>{@code group.<group>}</td><td>Added for each group a user is in</td></tr>
+ *     <tr><td>{@code groups.<group>}</td><td>same as above</td></tr>
+ *     <tr><td>{@code options.<option>.<value>}</td><td>Each option the user has</td></tr>
+ *     <tr><td>{@code prefix.<prefix>}</td><td>User's prefix</td></tr>
+ *     <tr><td>{@code suffix.<suffix>}</td><td>User's suffix</td></tr>
+ * </table>
+ *
+ * <p>Groups and options are read once when the index is created, and permissions are matched
+ * by their first segment, so checking a permission does not need any pattern matching.</p>
+ */
+final class MetapermissionIndex {
+    private static final String GROUP = "group";
+    private static final String GROUPS = "groups";
+    private static final String OPTIONS = "options";
+    private static final String PREFIX = "prefix";
+    private static final String SUFFIX = "suffix";
+
+    private final Set<String> groups;
+    private final Map<String, String> options;
+
+    /**
+     * Read the groups and options of a subject.
+     *
+     * @param plugin the plugin
+     * @param subject the subject
+     * @param contexts the contexts to read in
+     * @return a new index
+     */
+    static MetapermissionIndex of(final PermissionsExPlugin plugin, final CalculatedSubject subject, final Set<ContextValue<?>> contexts) {
+        final Set<String> groups = new HashSet<>();
+        for (final SubjectRef<?> parent : subject.parents(contexts)) {
+            if (parent.type().equals(plugin.groups().type())) {
+                groups.add(parent.serializedIdentifier());
+            }
+        }
+        return new MetapermissionIndex(groups, subject.options(contexts));
+    }
+
+    private MetapermissionIndex(final Set<String> groups, final Map<String, String> options) {
+        this.groups = groups;
+        this.options = options;
+    }
+
+    /**
+     * Get whether a metapermission is granted.
+     *
+     * @param permission the permission to check
+     * @return whether the permission is granted
+     */
+    boolean has(final String permission) {
+        final int split = permission.indexOf('.');
+        if (split == -1 || split == permission.length() - 1) {
+            return false;
+        }
+        final String rest = permission.substring(split + 1);
+        switch (permission.substring(0, split)) {
+            case GROUP:
+            case GROUPS:
+                return this.groups.contains(rest);
+            case OPTIONS:
+                // the option key is everything up to the last separator
+                final int valueSplit = rest.lastIndexOf('.');
+                return valueSplit != -1 && rest.substring(valueSplit + 1).equals(this.options.get(rest.substring(0, valueSplit)));
+            case PREFIX:
+            case SUFFIX:
+                return rest.equals(this.options.get(permission.substring(0, split)));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get every metapermission that is granted.
+     *
+     * @return the granted permissions
+     */
+    Stream<String> values() {
+        final Stream<String> groups = this.groups.stream()
+            .flatMap(group -> Stream.of(GROUP + '.' + group, GROUPS + '.' + group));
+        final Stream<String> options = this.options.entrySet().stream()
+            .map(ent -> OPTIONS + '.' + ent.getKey() + '.' + ent.getValue());
+        return Stream.of(groups, options, specificOption(PREFIX), specificOption(SUFFIX))
+            .flatMap(stream -> stream);
+    }
+
+    private Stream<String> specificOption(final String option) {
+        final @Nullable String value = this.options.get(option);
+        return value == null ? Stream.of() : Stream.of(option + '.' + value);
+    }
+}
@@ -18,12 +18,12 @@
 package ca.stellardrift.permissionsex.bukkit;
 
 import ca.stellardrift.permissionsex.PermissionsEngine;
+import ca.stellardrift.permissionsex.context.ContextDefinition;
 import ca.stellardrift.permissionsex.context.ContextDefinitionProvider;
 import ca.stellardrift.permissionsex.context.ContextValue;
 import ca.stellardrift.permissionsex.impl.context.TimeContextDefinition;
 import ca.stellardrift.permissionsex.impl.util.PCollections;
 import ca.stellardrift.permissionsex.subject.CalculatedSubject;
-import ca.stellardrift.permissionsex.subject.SubjectRef;
 import ca.stellardrift.permissionsex.util.NodeTree;
 import org.bukkit.entity.Player;
 import org.bukkit.permissions.Permissible;
@@ -35,22 +35,31 @@ import org.bukkit.permissions.PermissionDefault;
 import org.bukkit.permissions.PermissionRemovedExecutor;
 import org.bukkit.plugin.Plugin;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.pcollections.PSet;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 final class PEXPermissible extends PermissibleBase {
+    /**
+     * How long active contexts are trusted before being checked again.
+     *
+     * <p>This matches how long a subject caches its own active contexts.</p>
+     */
+    private static final long CONTEXT_CHECK_INTERVAL_MILLIS = 50L;
+    /**
+     * The most resolved nodes kept before starting over, to bound memory for plugins checking
+     * generated permissions.
+     */
+    private static final int MAX_RESOLVED = 1 << 12;
 
     private final Player player;
     private final PermissionsExPlugin plugin;
@@ -58,33 +67,138 @@ final class PEXPermissible extends PermissibleBase {
     @Nullable Permissible previousPermissible;
     private final Set<PEXPermissionAttachment> attachments = ConcurrentHashMap.newKeySet();
     private final CalculatedSubject pexSubject;
+    private final Consumer<CalculatedSubject> invalidator = subject -> this.invalidateResolved();
+    private volatile @Nullable Resolved resolved;
+    private volatile long contextsCheckedAt;
 
     PEXPermissible(final Player player, final PermissionsExPlugin plugin) {
         super(player);
         this.player = player;
         this.plugin = plugin;
         this.engine = plugin.engine();
-        this.pexSubject = plugin.users().get(player.getUniqueId()).join();
+        this.pexSubject = plugin.awaitLoad(plugin.users().get(player.getUniqueId()), plugin.users().type().name(), player.getUniqueId());
+        this.pexSubject.registerListener(this.invalidator);
+        // notified through recalculatePermissions() when any permission's default changes
+        plugin.getServer().getPluginManager().subscribeToDefaultPerms(true, this);
+        plugin.getServer().getPluginManager().subscribeToDefaultPerms(false, this);
+        plugin.subscriptionsAdded(player, this);
+    }
+
+    /**
+     * Stop receiving updates from the subject, once this permissible has been uninjected.
+     */
+    void detach() {
+        this.pexSubject.unregisterListener(this.invalidator);
+        this.plugin.getServer().getPluginManager().unsubscribeFromDefaultPerms(true, this);
+        this.plugin.getServer().getPluginManager().unsubscribeFromDefaultPerms(false, this);
+        this.resolved = null;
+        this.plugin.subscriptionsRemoved(this.player);
     }
 
     PermissionsEngine manager() {
         return this.engine;
     }
 
+    PermissionsExPlugin plugin() {
+        return this.plugin;
+    }
+
     @Override
     public boolean isPermissionSet(final String name) {
-        return getPermissionValue(pexSubject.activeContexts(), name.toLowerCase(Locale.ROOT)) != 0;
+        return getResolvedValue(name.toLowerCase(Locale.ROOT)) != 0;
     }
 
-    private int getPermissionValue(final Set<ContextValue<?>> contexts, final String permission) {
-        int ret = getPermissionValue0(pexSubject.permissions(contexts), permission);
-        if (ret == 0) {
-            for (final Metapermission meta : METAPERMISSIONS) {
-                final Matcher match = meta.matchAgainst.matcher(permission);
-                if (match.matches() && meta.isMatch(this.plugin, match, pexSubject, contexts)) {
-                    ret = 1;
+    /**
+     * Get the final value of a permission, remembering it until the player's data, active
+     * contexts, or registered permissions change.
+     *
+     * @param permission the lower-case permission
+     * @return the permission value
+     */
+    private int getResolvedValue(final String permission) {
+        final Resolved resolved = this.resolved();
+        if (this.engine.debugMode()) { // every check is logged
+            return getPermissionValue(resolved, permission);
+        }
+
+        final @Nullable Integer cached = resolved.values.get(permission);
+        if (cached != null) {
+            this.plugin.resolvedPermissionHits.incrementAndGet();
+            return cached;
+        }
+        this.plugin.resolvedPermissionMisses.incrementAndGet();
+        final int value = getPermissionValue(resolved, permission);
+        if (resolved.values.size() >= MAX_RESOLVED) {
+            resolved.values.clear();
+        }
+        resolved.values.put(permission, value);
+        return value;
+    }
+
+    /**
+     * Check whether the player's active contexts have changed, notifying the subscription map if they have.
+     */
+    void checkContexts() {
+        this.resolved();
+    }
+
+    private Resolved resolved() {
+        final long now = System.currentTimeMillis();
+        final long generation = this.plugin.permissionListGeneration();
+        @Nullable Resolved current = this.resolved;
+        if (current == null || current.generation != generation || now - this.contextsCheckedAt > CONTEXT_CHECK_INTERVAL_MILLIS) {
+            final PSet<ContextValue<?>> contexts = this.usedContexts();
+            if (current == null || current.generation != generation || !current.contexts.equals(contexts)) {
+                if (current != null && !current.contexts.equals(contexts)) {
+                    this.plugin.subscriptionsChanged(this.player);
                 }
+                current = new Resolved(contexts, generation);
+                this.resolved = current;
             }
+            this.contextsCheckedAt = now;
+        }
+        return current;
+    }
+
+    /**
+     * Get the player's active contexts that any subject data uses.
+     *
+     * <p>Contexts of unused types can never match a segment, so leaving them out keeps values
+     * like the current time from starting over every resolved value when they tick.</p>
+     *
+     * @return the used active contexts
+     */
+    private PSet<ContextValue<?>> usedContexts() {
+        final Set<ContextValue<?>> active = this.pexSubject.activeContexts();
+        final @Nullable Set<ContextDefinition<?>> used = this.engine.usedContextTypes().getNow(null);
+        if (used == null) { // still being computed, so treat every type as used for now
+            return PCollections.asSet(active);
+        }
+        PSet<ContextValue<?>> contexts = PCollections.set();
+        for (final ContextValue<?> value : active) {
+            for (final ContextDefinition<?> definition : used) {
+                if (definition.name().equals(value.key())) {
+                    contexts = contexts.plus(value);
+                    break;
+                }
+            }
+        }
+        return contexts;
+    }
+
+    private void invalidateResolved() {
+        this.resolved = null;
+        final @Nullable PermissionsExPlugin plugin = this.plugin; // null while the superclass constructor runs
+        if (plugin != null) {
+            plugin.subscriptionsChanged(this.player);
+        }
+    }
+
+    private int getPermissionValue(final Resolved resolved, final String permission) {
+        final PSet<ContextValue<?>> contexts = resolved.contexts;
+        int ret = getPermissionValue0(pexSubject.permissions(contexts), permission);
+        if (ret == 0 && resolved.metapermissions(this).has(permission)) {
+            ret = 1;
         }
 
         /*
@@ -114,13 +228,10 @@ final class PEXPermissible extends PermissibleBase {
         }
         final @Nullable PermissionList list = this.plugin.permissionList();
         if (list != null) {
-            for (final Map.Entry<String, Boolean> entry : list.getParents(name)) {
-                result = getPermissionValue0(nodeTree, entry.getKey());
-                if (!entry.getValue()) {
-                    result = -result;
-                }
+            for (final Map.Entry<String, Boolean> ancestor : list.getAncestors(name)) {
+                result = nodeTree.get(ancestor.getKey());
                 if (result != 0) {
-                    return result;
+                    return ancestor.getValue() ? result : -result;
                 }
             }
         }
@@ -134,7 +245,7 @@ final class PEXPermissible extends PermissibleBase {
 
     @Override
     public boolean hasPermission(final String perm) {
-        return getPermissionValue(pexSubject.activeContexts(), perm.toLowerCase(Locale.ROOT)) > 0;
+        return getResolvedValue(perm.toLowerCase(Locale.ROOT)) > 0;
     }
 
     @Override
@@ -186,10 +297,11 @@ final class PEXPermissible extends PermissibleBase {
         this.attachments.clear();
     }
 
-    // We don't need this currently? Guess could clear cache somehow, but automated should get it
-    // right. well, except for people adding children to permissions -- that is just weird
+    // Called by Bukkit when op status or registered permission defaults change, both of which
+    // can affect resolved values. Also called from the superclass constructor.
     @Override
     public void recalculatePermissions() {
+        this.invalidateResolved();
     }
 
     @Override
@@ -219,135 +331,40 @@ final class PEXPermissible extends PermissibleBase {
 
     @Override
     public Set<PermissionAttachmentInfo> getEffectivePermissions() {
-        final Set<ContextValue<?>> activeContexts = pexSubject.activeContexts();
-        final Stream<PermissionAttachmentInfo> direct = this.pexSubject.permissions(activeContexts).asMap().entrySet().stream()
+        final Resolved resolved = this.resolved();
+        final Stream<PermissionAttachmentInfo> direct = this.pexSubject.permissions(resolved.contexts).asMap().entrySet().stream()
             .map(ent -> new PermissionAttachmentInfo(player, ent.getKey(), null, ent.getValue() > 0));
 
-        final Stream<PermissionAttachmentInfo> metapermissions = Arrays.stream(METAPERMISSIONS)
-            .flatMap(mPerm -> mPerm.getValues(plugin, this.pexSubject, activeContexts))
+        final Stream<PermissionAttachmentInfo> metapermissions = resolved.metapermissions(this).values()
             .map(value -> new PermissionAttachmentInfo(this.player, value, null, true));
 
         return Stream.concat(direct, metapermissions)
             .collect(Collectors.toSet());
     }
 
-    // Metapermission system
-    private static final Metapermission[] METAPERMISSIONS = {
-        /*
-         * | Permission                 | Usage
-         |----------------------------|------
-         | `group.<group>`            | Added for each group a user is in
-         | `groups.<group>`           | same as above
-         | `options.<option>.<value>` | Each option the user has
-         | `prefix.<prefix>`          | User's prefix
-         | `suffix.<suffix>`          | User's suffix
-         */
-        new Metapermission(Pattern.compile("groups?\\.(.+)")) {
-            @Override
-            boolean isMatch(
-                final PermissionsExPlugin plugin,
-                final MatchResult result,
-                final CalculatedSubject subj,
-                final Set<ContextValue<?>> contexts
-            ) {
-                // TODO: This needs to use a SubjectRef
-                return subj.parents(contexts).contains(SubjectRef.subject(plugin.groups(), result.group(1)));
-            }
-
-            @Override
-            Stream<String> getValues(
-                final PermissionsExPlugin plugin,
-                final CalculatedSubject subj,
-                final Set<ContextValue<?>> contexts
-            ) {
-                return subj.parents(contexts).stream()
-                    .filter(ref -> ref.type().equals(plugin.groups().type()))
-                    .flatMap(ref -> Stream.of("group." + ref.serializedIdentifier(), "groups." + ref.serializedIdentifier()));
-            }
-        },
-        new Metapermission(Pattern.compile("options\\.(.*)\\.(.*)")) {
-            @Override
-            boolean isMatch(
-                final PermissionsExPlugin plugin,
-                final MatchResult result,
-                final CalculatedSubject subject,
-                final Set<ContextValue<?>> contexts
-            ) {
-                return subject.option(contexts, result.group(1))
-                    .map(it -> it.equals(result.group(2)))
-                    .orElse(false);
-            }
-
-            @Override
-            Stream<String> getValues(
-                final PermissionsExPlugin plugin,
-                final CalculatedSubject subj,
-                final Set<ContextValue<?>> contexts
-            ) {
-                return subj.options(contexts).entrySet().stream()
-                    .map(ent -> "options." + ent.getKey() + "." + ent.getValue());
-            }
-        },
-        new SpecificOptionMetapermission("prefix"),
-        new SpecificOptionMetapermission("suffix")
-    };
-    static abstract class Metapermission {
-
-        /**
-         * Pattern to match against
-         */
-        protected final Pattern matchAgainst;
-
-        protected Metapermission(final Pattern matchAgainst) {
-            this.matchAgainst = matchAgainst;
-        }
-
-        abstract boolean isMatch(
-            final PermissionsExPlugin plugin,
-            final MatchResult result,
-            final CalculatedSubject subj,
-            final Set<ContextValue<?>> contexts
-        );
-
-        abstract Stream<String> getValues(
-            final PermissionsExPlugin plugin,
-            final CalculatedSubject subj,
-            final Set<ContextValue<?>> contexts
-        );
-
-    }
-
-    static final class SpecificOptionMetapermission extends Metapermission {
-
-        private final String option;
-
-        SpecificOptionMetapermission(final String option) {
-            super(Pattern.compile(Pattern.quote(option) + "\\.(.+)"));
-            this.option = option;
-        }
-
-        @Override
-        boolean isMatch(
-            final PermissionsExPlugin plugin,
-            final MatchResult result,
-            final CalculatedSubject subject,
-            final Set<ContextValue<?>> contexts
-        ) {
-            return subject.option(contexts, this.option)
-                .map(it -> it.equals(result.group(1)))
-                .orElse(false);
+    /**
+     * Final permission values for one set of active contexts and one generation of the
+     * registered permission list.
+     */
+    private static final class Resolved {
+        final PSet<ContextValue<?>> contexts;
+        final long generation;
+        final Map<String, Integer> values = new ConcurrentHashMap<>();
+        private volatile @Nullable MetapermissionIndex metapermissions;
+
+        Resolved(final PSet<ContextValue<?>> contexts, final long generation) {
+            this.contexts = contexts;
+            this.generation = generation;
         }
 
-        @Override
-        Stream<String> getValues(
-            final PermissionsExPlugin plugin,
-            final CalculatedSubject subj,
-            final Set<ContextValue<?>> contexts
-        ) {
-            final String ret = subj.options(contexts).get(this.option);
-            return ret == null ? Stream.of() : Stream.of(this.option + "." + ret);
+        MetapermissionIndex metapermissions(final PEXPermissible permissible) {
+            @Nullable MetapermissionIndex metapermissions = this.metapermissions;
+            if (metapermissions == null) {
+                metapermissions = MetapermissionIndex.of(permissible.plugin, permissible.pexSubject, this.contexts);
+                this.metapermissions = metapermissions;
+            }
+            return metapermissions;
         }
-
     }
 
 }
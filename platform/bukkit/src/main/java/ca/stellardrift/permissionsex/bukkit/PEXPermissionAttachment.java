@@ -44,7 +44,11 @@ final class PEXPermissionAttachment extends PermissionAttachment implements Subj
     PEXPermissionAttachment(final Plugin owner, final Player parent, final PEXPermissible perm) {
         super(owner, parent);
         this.perm = perm;
-        this.subject = perm.manager().subjects(ATTACHMENT_TYPE).transientData().referenceTo(this.identifier).join();
+        this.subject = perm.plugin().awaitLoad(
+            perm.manager().subjects(ATTACHMENT_TYPE).transientData().referenceTo(this.identifier),
+            ATTACHMENT_TYPE.name(),
+            this.identifier
+        );
     }
 
     @Override
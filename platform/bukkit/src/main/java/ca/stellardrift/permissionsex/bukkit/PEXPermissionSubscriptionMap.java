@@ -25,26 +25,47 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
 
 /**
  * PermissibleMap for the permissions subscriptions data in Bukkit's {@link PluginManager} so we can put in our own data too.
+ *
+ * <p>Players holding a permission are tracked per permission, once that permission has been
+ * asked for. Each set starts from every player PEX manages. After that, players whose data or
+ * used contexts change are queued on every set, and each set only checks its queued players when
+ * it is next asked for. Sets are kept until their permission is unregistered. Sets for
+ * permissions that were never registered, like chat channels, are kept too, up to a limit.</p>
  */
 class PEXPermissionSubscriptionMap extends HashMap<String, Map<Permissible, Boolean>> {
 
     private static final long serialVersionUID = 4740875815040785091L;
+    /**
+     * How long players' active contexts are trusted before being checked again, matching
+     * how long each permissible trusts them.
+     */
+    private static final long CONTEXT_CHECK_INTERVAL_MILLIS = 50L;
+    /**
+     * The most subscriber sets kept before those for unregistered permissions are dropped, to
+     * bound memory for plugins asking about generated permissions.
+     */
+    private static final int MAX_SUBSCRIBER_SETS = 1 << 12;
 
     @SuppressWarnings("rawtypes")
     private static @MonotonicNonNull FieldReplacer<PluginManager, Map> INJECTOR;
     private static final AtomicReference<@Nullable PEXPermissionSubscriptionMap> INSTANCE = new AtomicReference<>();
     private final PermissionsExPlugin plugin;
     private final PluginManager manager;
+    private final ConcurrentMap<Player, PEXPermissible> players = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Subscribers> subscribers = new ConcurrentHashMap<>();
+    private volatile long contextsCheckedAt;
 
     private PEXPermissionSubscriptionMap(final PermissionsExPlugin plugin, final PluginManager manager, final Map<String, Map<Permissible, Boolean>> backing) {
         super(backing);
@@ -100,6 +121,123 @@ class PEXPermissionSubscriptionMap extends HashMap<String, Map<Permissible, Bool
         }
     }
 
+    /**
+     * Start tracking a player's subscriptions, once PEX manages their permissions.
+     *
+     * @param player the player
+     * @param permissible the player's permissible
+     */
+    void added(final Player player, final PEXPermissible permissible) {
+        this.players.put(player, permissible);
+        changed(player);
+    }
+
+    /**
+     * Check a player's subscriptions again on the next lookup, after their permissions may have changed.
+     *
+     * @param player the player
+     */
+    void changed(final Player player) {
+        if (this.players.containsKey(player)) {
+            for (final Subscribers subscribers : this.subscribers.values()) {
+                subscribers.pending.add(player);
+            }
+        }
+    }
+
+    /**
+     * Stop tracking a player's subscriptions.
+     *
+     * @param player the player
+     */
+    void removed(final Player player) {
+        this.players.remove(player);
+        for (final Subscribers subscribers : this.subscribers.values()) {
+            subscribers.members.remove(player);
+            subscribers.pending.add(player); // in case a check running now adds them back
+        }
+    }
+
+    /**
+     * Forget the subscribers of a permission, after it has been unregistered.
+     *
+     * @param permission the permission
+     */
+    void unregistered(final String permission) {
+        this.subscribers.remove(permission);
+    }
+
+    private Set<Player> subscribers(final String permission) {
+        // Active contexts are only checked when asked for, so a change would otherwise go unnoticed
+        final long now = System.currentTimeMillis();
+        if (now - this.contextsCheckedAt > CONTEXT_CHECK_INTERVAL_MILLIS) {
+            this.contextsCheckedAt = now;
+            for (final PEXPermissible permissible : this.players.values()) {
+                permissible.checkContexts();
+            }
+        }
+
+        @Nullable Subscribers subscribers = this.subscribers.get(permission);
+        if (subscribers == null) {
+            if (this.subscribers.size() >= MAX_SUBSCRIBER_SETS) {
+                this.subscribers.values().removeIf(existing -> !this.registered(existing.permission));
+            }
+            subscribers = this.subscribers.computeIfAbsent(permission, Subscribers::new);
+        }
+        return subscribers.current(this.players.keySet(), this.plugin.permissionListGeneration());
+    }
+
+    private boolean registered(final String permission) {
+        final @Nullable PermissionList list = this.plugin.permissionList();
+        return list == null || list.containsKey(permission);
+    }
+
+    /**
+     * Players who have one permission.
+     */
+    static final class Subscribers {
+        final String permission;
+        final Set<Player> members = ConcurrentHashMap.newKeySet();
+        final Set<Player> pending = ConcurrentHashMap.newKeySet(); // changed since they were last checked
+        // guarded by this
+        private long generation = Long.MIN_VALUE; // of the permission list the members were checked against
+
+        Subscribers(final String permission) {
+            this.permission = permission;
+        }
+
+        synchronized Set<Player> current(final Set<Player> players, final long generation) {
+            // permission children may grant or revoke this permission differently in a new generation
+            if (generation != this.generation) {
+                this.pending.clear();
+                this.members.clear();
+                for (final Player player : players) {
+                    this.check(player);
+                }
+                this.generation = generation;
+            } else {
+                for (final Iterator<Player> it = this.pending.iterator(); it.hasNext();) {
+                    final Player player = it.next();
+                    it.remove();
+                    if (players.contains(player)) {
+                        this.check(player);
+                    } else {
+                        this.members.remove(player);
+                    }
+                }
+            }
+            return Collections.unmodifiableSet(this.members);
+        }
+
+        private void check(final Player player) {
+            if (player.hasPermission(this.permission)) {
+                this.members.add(player);
+            } else {
+                this.members.remove(player);
+            }
+        }
+    }
+
     @Override
     public Map<Permissible, Boolean> get(Object key) {
         if (key == null) {
@@ -187,11 +325,7 @@ class PEXPermissionSubscriptionMap extends HashMap<String, Map<Permissible, Bool
 
         @Override
         public Set<Permissible> keySet() {
-            Collection<? extends Player> players = plugin.getServer().getOnlinePlayers();
-            final Set<Player> pexMatches = players.stream()
-                    .filter(player -> player.hasPermission(permission))
-                    .collect(Collectors.toCollection(() -> new HashSet<>(players.size())));
-            return Sets.union(pexMatches, backing.keySet());
+            return Sets.union(subscribers(permission), backing.keySet());
         }
 
         @Override
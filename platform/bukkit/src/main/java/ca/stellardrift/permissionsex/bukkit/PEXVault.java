@@ -72,11 +72,11 @@ final class PEXVault extends Permission {
 
 
     CalculatedSubject getGroup(final String name) {
-        return this.pex.groups().get(name).join();
+        return this.pex.awaitLoad(this.pex.groups().get(name), this.pex.groups().type().name(), name);
     }
 
     CalculatedSubject getUser(final OfflinePlayer player) {
-        return this.pex.users().get(player.getUniqueId()).join();
+        return this.pex.awaitLoad(this.pex.users().get(player.getUniqueId()), this.pex.users().type().name(), player.getUniqueId());
     }
 
     Set<ContextValue<?>> contextsFrom(final @Nullable String world) {
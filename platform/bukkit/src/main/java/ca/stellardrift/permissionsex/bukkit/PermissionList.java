@@ -19,10 +19,6 @@ package ca.stellardrift.permissionsex.bukkit;
 
 import ca.stellardrift.permissionsex.PermissionsEngine;
 import ca.stellardrift.permissionsex.legacy.LegacyConversions;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import ca.stellardrift.permissionsex.impl.PermissionsEx;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionDefault;
@@ -30,10 +26,15 @@ import org.bukkit.plugin.PluginManager;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Make Superperms' querying of all players with a given permission accurately follow PEX permission matching rules.
@@ -51,7 +52,16 @@ final class PermissionList extends HashMap<String, Permission> {
      * v.k = parent permission
      * v.v = value parent gives child
      */
-    private final Multimap<String, Map.Entry<String, Boolean>> childParentMapping = Multimaps.synchronizedMultimap(HashMultimap.<String, Map.Entry<String, Boolean>>create());
+    private final Map<String, Map<String, Boolean>> childParentMapping = new HashMap<>(); // guarded by itself
+    /**
+     * Every ancestor of each child permission, in the order they are checked, with the value the
+     * ancestor gives the child through the whole chain.
+     *
+     * <p>This is rebuilt from {@link #childParentMapping} the first time it is needed after a
+     * change, so lookups never lock.</p>
+     */
+    private volatile @Nullable Map<String, List<Map.Entry<String, Boolean>>> ancestors;
+    private final AtomicLong generation = new AtomicLong();
     private final PermissionsExPlugin plugin;
 
     PermissionList(Map<? extends String, ? extends Permission> existing, PermissionsExPlugin plugin) {
@@ -59,6 +69,18 @@ final class PermissionList extends HashMap<String, Permission> {
         this.plugin = plugin;
     }
 
+    /**
+     * Get a counter that changes after any permission is registered or unregistered, or any
+     * permission's children change.
+     *
+     * <p>Values computed from registered permissions are still current while this is unchanged.</p>
+     *
+     * @return the current generation
+     */
+    long generation() {
+        return this.generation.get();
+    }
+
     private FieldReplacer<Permission, Map> getFieldReplacer(final Permission perm) {
         FieldReplacer<Permission, Map> ret = CHILDREN_MAPS.get(perm.getClass());
         if (ret == null) {
@@ -68,8 +90,36 @@ final class PermissionList extends HashMap<String, Permission> {
         return ret;
     }
 
+    private void addToMapping(final String child, final String parent, final boolean value) {
+        synchronized (this.childParentMapping) {
+            this.childParentMapping.computeIfAbsent(child, $ -> new LinkedHashMap<>()).put(parent, value);
+            this.ancestors = null;
+        }
+        this.generation.incrementAndGet();
+    }
+
+    private void removeFromMapping(final String child, final String parent) {
+        synchronized (this.childParentMapping) {
+            final @Nullable Map<String, Boolean> parents = this.childParentMapping.get(child);
+            if (parents != null && parents.remove(parent) != null) {
+                if (parents.isEmpty()) {
+                    this.childParentMapping.remove(child);
+                }
+                this.ancestors = null;
+            }
+        }
+        this.generation.incrementAndGet();
+    }
+
     private void removeAllChildren(final String perm) {
-        this.childParentMapping.entries().removeIf(stringEntryEntry -> stringEntryEntry.getValue().getKey().equals(perm));
+        synchronized (this.childParentMapping) {
+            this.childParentMapping.values().removeIf(parents -> {
+                parents.remove(perm);
+                return parents.isEmpty();
+            });
+            this.ancestors = null;
+        }
+        this.generation.incrementAndGet();
     }
 
     public void uninject() {
@@ -89,18 +139,13 @@ final class PermissionList extends HashMap<String, Permission> {
 
         @Override
         public Boolean remove(final Object perm) {
-            removeFromMapping(String.valueOf(perm));
+            removeFromMapping(String.valueOf(perm), this.perm.getName());
             return super.remove(perm);
         }
 
-        private void removeFromMapping(final String child) {
-            childParentMapping.get(child).removeIf(stringBooleanEntry -> stringBooleanEntry.getKey().equals(perm.getName()));
-        }
-
         @Override
         public Boolean put(final String perm, final Boolean val) {
-            //removeFromMapping(perm);
-            PermissionList.this.childParentMapping.put(perm, new SimpleEntry<>(this.perm.getName(), val));
+            addToMapping(perm, this.perm.getName(), val);
             return super.put(perm, val);
         }
 
@@ -125,7 +170,7 @@ final class PermissionList extends HashMap<String, Permission> {
     @Override
     public Permission put(String k, final Permission v) {
         for (final Map.Entry<String, Boolean> ent : v.getChildren().entrySet()) {
-            childParentMapping.put(ent.getKey(), new SimpleEntry<>(v.getName(), ent.getValue()));
+            addToMapping(ent.getKey(), v.getName(), ent.getValue());
         }
         final FieldReplacer<Permission, Map> repl = getFieldReplacer(v);
         repl.set(v, new NotifyingChildrenMap(v));
@@ -134,7 +179,9 @@ final class PermissionList extends HashMap<String, Permission> {
                     .transientData()
                     .update(this.plugin.users().type(), input -> input.withSegment(PermissionsEx.GLOBAL_CONTEXT, s -> s.withPermission(v.getName(), v.getDefault() == PermissionDefault.TRUE ? 1 : -1)));
         }
-        return super.put(k, v);
+        final @Nullable Permission ret = super.put(k, v);
+        this.generation.incrementAndGet();
+        return ret;
     }
 
     @Override
@@ -142,23 +189,78 @@ final class PermissionList extends HashMap<String, Permission> {
         final Permission ret = super.remove(k);
         if (ret != null) {
             removeAllChildren(k.toString());
+            this.plugin.subscriptionsUnregistered(k.toString());
             getFieldReplacer(ret).set(ret, new LinkedHashMap<>(ret.getChildren()));
             if (ret.getDefault() == PermissionDefault.TRUE || ret.getDefault() == PermissionDefault.FALSE) {
                 this.plugin.engine().defaults()
                         .transientData()
                         .update(this.plugin.users().type(), input -> input.withSegment(PermissionsEx.GLOBAL_CONTEXT, s -> s.withPermission(ret.getName(), 0)));
             }
+            this.generation.incrementAndGet();
         }
         return ret;
     }
 
     @Override
     public void clear() {
-        this.childParentMapping.clear();
+        synchronized (this.childParentMapping) {
+            this.childParentMapping.clear();
+            this.ancestors = null;
+        }
         super.clear();
+        this.generation.incrementAndGet();
+    }
+
+    /**
+     * Get every permission that grants or revokes a permission through its children, directly or
+     * through other parents.
+     *
+     * <p>Ancestors are ordered as a depth-first walk of parents, so the first one set on a subject
+     * decides the value of the permission.</p>
+     *
+     * @param permission the child permission
+     * @return entries of ancestor to whether it grants ({@code true}) or revokes the child
+     */
+    public List<Map.Entry<String, Boolean>> getAncestors(final String permission) {
+        @Nullable Map<String, List<Map.Entry<String, Boolean>>> ancestors = this.ancestors;
+        if (ancestors == null) {
+            ancestors = buildAncestors();
+        }
+        final @Nullable List<Map.Entry<String, Boolean>> result = ancestors.get(permission.toLowerCase());
+        return result == null ? Collections.emptyList() : result;
     }
 
-    public Collection<Map.Entry<String, Boolean>> getParents(String permission) {
-        return ImmutableSet.copyOf(this.childParentMapping.get(permission.toLowerCase()));
+    private Map<String, List<Map.Entry<String, Boolean>>> buildAncestors() {
+        synchronized (this.childParentMapping) {
+            @Nullable Map<String, List<Map.Entry<String, Boolean>>> ancestors = this.ancestors;
+            if (ancestors == null) {
+                final Map<String, List<Map.Entry<String, Boolean>>> built = new HashMap<>(this.childParentMapping.size());
+                for (final String child : this.childParentMapping.keySet()) {
+                    final List<Map.Entry<String, Boolean>> chain = new ArrayList<>();
+                    final Set<String> visited = new HashSet<>();
+                    visited.add(child);
+                    collectAncestors(child, true, visited, chain);
+                    built.put(child, Collections.unmodifiableList(chain));
+                }
+                ancestors = Collections.unmodifiableMap(built);
+                this.ancestors = ancestors;
+            }
+            return ancestors;
+        }
+    }
+
+    private void collectAncestors(final String child, final boolean grants, final Set<String> visited, final List<Map.Entry<String, Boolean>> chain) {
+        final @Nullable Map<String, Boolean> parents = this.childParentMapping.get(child);
+        if (parents == null) {
+            return;
+        }
+        for (final Map.Entry<String, Boolean> parent : parents.entrySet()) {
+            // a parent seen earlier was already found to be unset, and a cycle adds nothing
+            if (visited.add(parent.getKey())) {
+                final boolean parentGrants = grants == parent.getValue();
+                chain.add(new SimpleImmutableEntry<>(parent.getKey(), parentGrants));
+                collectAncestors(parent.getKey().toLowerCase(), parentGrants, visited, chain);
+            }
+        }
     }
 }
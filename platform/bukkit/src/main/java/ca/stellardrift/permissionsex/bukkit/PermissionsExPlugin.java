@@ -39,6 +39,7 @@ import cloud.commandframework.meta.CommandMeta;
 import cloud.commandframework.minecraft.extras.MinecraftExtrasMetaKeys;
 import cloud.commandframework.paper.PaperCommandManager;
 import cloud.commandframework.permission.CommandPermission;
+import net.kyori.adventure.audience.Audience;
 import net.kyori.adventure.platform.bukkit.BukkitAudiences;
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.Bukkit;
@@ -47,6 +48,7 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.permissions.Permissible;
@@ -59,10 +61,15 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 public final class PermissionsExPlugin extends JavaPlugin implements Listener {
@@ -73,6 +80,9 @@ public final class PermissionsExPlugin extends JavaPlugin implements Listener {
     private @Nullable BukkitAudiences adventure;
     private @Nullable MinecraftPermissionsEx<BukkitConfiguration> manager;
     private final ExecutorService executorService = Executors.newCachedThreadPool();
+    final AtomicLong resolvedPermissionHits = new AtomicLong();
+    final AtomicLong resolvedPermissionMisses = new AtomicLong();
+    private final AtomicLong blockingLoads = new AtomicLong();
 
     // -- Bukkit injections -- //
     private @Nullable PermissionList permissionList;
@@ -215,6 +225,7 @@ public final class PermissionsExPlugin extends JavaPlugin implements Listener {
                 .commands(this::createCommandManager)
                 .messageFormatter(BukkitMessageFormatter::new)
                 .commandContributor(this::registerBukkitCommands)
+                .statisticsReporter(this::reportStatistics)
                 .create();
             /*} catch (PEBKACException e) {
             logger.warn(e.getTranslatableMessage());
@@ -276,13 +287,56 @@ public final class PermissionsExPlugin extends JavaPlugin implements Listener {
         this.adventure = null;
     }
 
-    @EventHandler
+    @EventHandler(priority = EventPriority.MONITOR)
     void onPlayerPreLogin(final AsyncPlayerPreLoginEvent event) {
-        users().get(event.getUniqueId())
+        // Not cancellable, so skip logins another plugin has already refused
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        final CompletableFuture<?> load = users().get(event.getUniqueId())
             .exceptionally(e -> {
                 logger.warn(Messages.ERROR_LOAD_PRELOGIN.tr(event.getName(), event.getUniqueId().toString(), e.getMessage()), e);
                 return null;
             });
+
+        // Wait here, off the server thread, so injecting the permissible on join does not have to
+        final long timeout = manager().platformConfig().preloadTimeout();
+        if (timeout > 0) {
+            try {
+                load.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException ex) {
+                logger.warn(Messages.ERROR_LOAD_PRELOGIN_TIMEOUT.tr(event.getName(), event.getUniqueId().toString(), timeout));
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException ex) {
+                // already logged
+            }
+        }
+    }
+
+    /**
+     * Get the result of a data load, which should normally have already completed.
+     *
+     * <p>If the server thread has to wait, this is counted and logged.</p>
+     *
+     * @param future the load
+     * @param type the type of data being loaded, for logging
+     * @param identifier the identifier of data being loaded, for logging
+     * @param <T> the result type
+     * @return the result
+     */
+    <T> T awaitLoad(final CompletableFuture<T> future, final String type, final Object identifier) {
+        if (future.isDone() || !getServer().isPrimaryThread()) {
+            return future.join();
+        }
+        this.blockingLoads.incrementAndGet();
+        final long start = System.nanoTime();
+        try {
+            return future.join();
+        } finally {
+            this.logger.warn(Messages.SUPERPERMS_BLOCKING_LOAD.tr(type, identifier, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
     }
 
     @EventHandler(priority = EventPriority.LOWEST)
@@ -327,6 +381,11 @@ public final class PermissionsExPlugin extends JavaPlugin implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    void onPlayerChangedWorld(final PlayerChangedWorldEvent event) {
+        this.subscriptionsChanged(event.getPlayer()); // world contexts
+    }
+
     @EventHandler(priority = EventPriority.MONITOR) // Happen last
     void onPlayerQuit(final PlayerQuitEvent event) {
         uninjectPermissible(event.getPlayer());
@@ -379,6 +438,7 @@ public final class PermissionsExPlugin extends JavaPlugin implements Listener {
                 if (injector.isApplicable(player)) {
                     final Permissible pexPerm = injector.getPermissible(player);
                     if (pexPerm instanceof PEXPermissible) {
+                        ((PEXPermissible) pexPerm).detach();
                         if (injector.inject(player, ((PEXPermissible) pexPerm).previousPermissible) != null) {
                             success = true;
                             break;
@@ -399,14 +459,86 @@ public final class PermissionsExPlugin extends JavaPlugin implements Listener {
         }
     }
 
+    /**
+     * Notify the subscription map that a player's permissions are now managed by PEX.
+     *
+     * @param player the player
+     * @param permissible the player's permissible
+     */
+    void subscriptionsAdded(final Player player, final PEXPermissible permissible) {
+        final @Nullable PEXPermissionSubscriptionMap subscriptions = this.subscriptionHandler;
+        if (subscriptions != null) {
+            subscriptions.added(player, permissible);
+        }
+    }
+
+    /**
+     * Notify the subscription map that a permission is no longer registered.
+     *
+     * @param permission the permission
+     */
+    void subscriptionsUnregistered(final String permission) {
+        final @Nullable PEXPermissionSubscriptionMap subscriptions = this.subscriptionHandler;
+        if (subscriptions != null) {
+            subscriptions.unregistered(permission);
+        }
+    }
+
+    /**
+     * Notify the subscription map that a player's permissions may have changed.
+     *
+     * @param player the player
+     */
+    void subscriptionsChanged(final Player player) {
+        final @Nullable PEXPermissionSubscriptionMap subscriptions = this.subscriptionHandler;
+        if (subscriptions != null) {
+            subscriptions.changed(player);
+        }
+    }
+
+    /**
+     * Notify the subscription map that a player's permissions are no longer managed by PEX.
+     *
+     * @param player the player
+     */
+    void subscriptionsRemoved(final Player player) {
+        final @Nullable PEXPermissionSubscriptionMap subscriptions = this.subscriptionHandler;
+        if (subscriptions != null) {
+            subscriptions.removed(player);
+        }
+    }
+
     private void uninjectAllPermissibles() {
         getServer().getOnlinePlayers().forEach(this::uninjectPermissible);
     }
 
+    private void reportStatistics(final Audience receiver) {
+        final long hits = this.resolvedPermissionHits.get();
+        final long misses = this.resolvedPermissionMisses.get();
+        final long total = hits + misses;
+        receiver.sendMessage(Messages.SUPERPERMS_CACHE_STATISTICS.tr(
+            hits,
+            misses,
+            String.format(Locale.ROOT, "%.1f", total == 0 ? 0d : hits * 100d / total)
+        ));
+        receiver.sendMessage(Messages.SUPERPERMS_BLOCKING_LOAD_STATISTICS.tr(this.blockingLoads.get()));
+    }
+
     @Nullable PermissionList permissionList() {
         return this.permissionList;
     }
 
+    /**
+     * Get the generation of the registered permission list, or {@code -1} if it is not injected.
+     *
+     * @return the permission list generation
+     * @see PermissionList#generation()
+     */
+    long permissionListGeneration() {
+        final @Nullable PermissionList list = this.permissionList;
+        return list == null ? -1 : list.generation();
+    }
+
     BukkitAudiences adventure() {
         if (this.adventure == null) {
             throw new IllegalStateException("Tried to access Adventure while the plugin was not enabled");
@@ -72,7 +72,6 @@ pexPlatform {
         "com.zaxxer.hikari",
         "io.leangen.geantyref",
         "net.kyori",
-        "org.antlr",
         "org.checkerframework",
         "org.jdbi",
         "org.slf4j",
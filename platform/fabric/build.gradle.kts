@@ -101,7 +101,6 @@ pexPlatform {
         "cloud.commandframework",
         "com.github.benmanes.caffeine",
         "com.zaxxer.hikari",
-        "org.antlr",
         "org.jdbi",
         "org.pcollections",
         "org.slf4j"
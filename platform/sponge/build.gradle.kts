@@ -69,7 +69,6 @@ dependencies {
 pexPlatform {
     relocate(
         "cloud.commandframework",
-        "org.antlr",
         "org.jdbi",
         "org.jetbrains.annotations",
         "org.pcollections",
@@ -68,7 +68,6 @@ pexPlatform {
         "kotlin",
         "kotlinx",
         "net.kyori",
-        "org.antlr",
         "org.checkerframework",
         "org.intellij",
         "org.jdbi",
@@ -67,7 +67,6 @@ pexPlatform {
         "com.github.benmanes.caffeine",
         "com.zaxxer.hikari",
         "io.leangen.geantyref",
-        "org.antlr",
         "org.checkerframework",
         "org.jdbi",
         "org.spongepowered.configurate",